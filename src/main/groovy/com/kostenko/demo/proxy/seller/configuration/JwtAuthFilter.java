@@ -1,8 +1,9 @@
 package com.kostenko.demo.proxy.seller.configuration;
 
-import com.kostenko.demo.proxy.seller.entity.User;
 import com.kostenko.demo.proxy.seller.service.JwtService;
-import com.kostenko.demo.proxy.seller.service.UserDetailsServiceImpl;
+import com.kostenko.demo.proxy.seller.service.PrincipalCacheService;
+import com.kostenko.demo.proxy.seller.service.UserPrincipal;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.Cookie;
@@ -11,6 +12,7 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -30,20 +32,20 @@ public class JwtAuthFilter extends OncePerRequestFilter {
     private final JwtService jwtService;
 
     /**
-     * Service for loading user details based on user identifiers.
+     * Cache of principals of authenticated users.
      */
-    private final UserDetailsServiceImpl userDetailsServiceImpl;
+    private final PrincipalCacheService principalCacheService;
 
     /**
-     * Constructs a JwtAuthFilter with the specified JWT service and user details service.
+     * Constructs a JwtAuthFilter with the specified JWT service and principal cache.
      *
-     * @param jwtService             Service for handling JWT-related operations.
-     * @param userDetailsServiceImpl Service for loading user details based on user identifiers.
+     * @param jwtService            Service for handling JWT-related operations.
+     * @param principalCacheService Cache of principals of authenticated users.
      */
     @Autowired
-    public JwtAuthFilter(JwtService jwtService, UserDetailsServiceImpl userDetailsServiceImpl) {
+    public JwtAuthFilter(JwtService jwtService, PrincipalCacheService principalCacheService) {
         this.jwtService = jwtService;
-        this.userDetailsServiceImpl = userDetailsServiceImpl;
+        this.principalCacheService = principalCacheService;
     }
 
     /**
@@ -59,7 +61,6 @@ public class JwtAuthFilter extends OncePerRequestFilter {
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
 
         String token = null;
-        String userId = null;
 
         // Extract the JWT token from the "accessToken" cookie
         if (request.getCookies() != null) {
@@ -76,15 +77,15 @@ public class JwtAuthFilter extends OncePerRequestFilter {
             return;
         }
 
-        // Extract the user ID from the JWT token
-        userId = jwtService.extractUserId(token);
+        // Verify the token once, invalid or expired tokens leave the request unauthenticated
+        Claims claims = jwtService.verifyToken(token).orElse(null);
 
-        // If user ID is found, load user details and validate the token
-        if (userId != null) {
-            User user = userDetailsServiceImpl.loadUserByUserId(userId);
-            if (jwtService.validateToken(token, user)) {
+        // If user ID is found, load the principal and validate the token
+        if (claims != null && claims.getSubject() != null) {
+            UserPrincipal principal = loadPrincipal(claims.getSubject());
+            if (principal != null && jwtService.validateToken(claims, principal.getId())) {
                 // If the token is valid, set the authentication token in the security context
-                UsernamePasswordAuthenticationToken authenticationToken = new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+                UsernamePasswordAuthenticationToken authenticationToken = new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities());
                 authenticationToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(authenticationToken);
             }
@@ -93,4 +94,16 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         // Continue with the filter chain
         filterChain.doFilter(request, response);
     }
+
+
+    /**
+     * Returns the cached principal of the user, or null if the user no longer exists.
+     */
+    private UserPrincipal loadPrincipal(String userId) {
+        try {
+            return principalCacheService.getPrincipal(userId);
+        } catch (UsernameNotFoundException e) {
+            return null;
+        }
+    }
 }
@@ -1,13 +1,155 @@
 package com.kostenko.demo.proxy.seller.configuration;
 
+import com.kostenko.demo.proxy.seller.service.DataMigrations;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.MongoTransactionManager;
 import org.springframework.data.mongodb.config.EnableMongoAuditing;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
- * Configuration class for MongoDB-related settings, enabling auditing support.
+ * Configuration class for MongoDB-related settings, enabling auditing support, transactions
+ * and managing indexes declared on the entities.
  */
 @Configuration
 @EnableMongoAuditing
+@Slf4j
 public class MongoConfig {
 
-}
\ No newline at end of file
+    /**
+     * Name of the index MongoDB creates on {@code _id} of every collection.
+     */
+    private static final String ID_INDEX_NAME = "_id_";
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mappingContext;
+
+    @Autowired
+    public MongoConfig(MongoTemplate mongoTemplate, MongoMappingContext mappingContext) {
+        this.mongoTemplate = mongoTemplate;
+        this.mappingContext = mappingContext;
+    }
+
+
+    /**
+     * Makes methods annotated with {@link org.springframework.transaction.annotation.Transactional} run
+     * in MongoDB transactions, which requires MongoDB running as a replica set. Writes store their counter
+     * increments in {@link com.kostenko.demo.proxy.seller.service.CounterOutbox} within their transaction.
+     */
+    @Bean
+    public MongoTransactionManager transactionManager(MongoDatabaseFactory databaseFactory) {
+        return new MongoTransactionManager(databaseFactory);
+    }
+
+
+    /**
+     * Migrates the stored documents and then builds the indexes once all singletons are created, before
+     * the web server is started and scheduled tasks run, so that no request is served against documents
+     * of an earlier schema or without the indexes its queries rely on. Unique indexes are built after
+     * the migrations removed the duplicates which would fail them.
+     */
+    @Bean
+    public SmartInitializingSingleton mongoSchemaInitializer(DataMigrations dataMigrations) {
+        return () -> {
+            dataMigrations.migrate();
+            ensureIndexes();
+        };
+    }
+
+
+    /**
+     * Creates indexes declared with {@code @Indexed} and {@code @CompoundIndex} on the documents, which are missing
+     * in the database, and reports indexes present in the database but not declared on the entities.
+     * Indexes are matched by their keys, so an index created earlier under another name isn't duplicated.
+     * An index whose unique, sparse or expireAfterSeconds option differs from the declaration is dropped and built
+     * again, as MongoDB keeps the options an index was built with; if the stored documents violate the declared
+     * options, building it fails and so does the startup.
+     */
+    public void ensureIndexes() {
+        IndexResolver indexResolver = IndexResolver.create(mappingContext);
+
+        for (MongoPersistentEntity<?> entity : mappingContext.getPersistentEntities()) {
+            if (!entity.isAnnotationPresent(org.springframework.data.mongodb.core.mapping.Document.class)) {
+                continue;
+            }
+
+            String collection = entity.getCollection();
+            IndexOperations indexOperations = mongoTemplate.indexOps(collection);
+
+            // Existing indexes by their keys
+            Map<String, Document> existing = new HashMap<>();
+            for (Document index : mongoTemplate.getCollection(collection).listIndexes()) {
+                if (!ID_INDEX_NAME.equals(index.getString("name"))) {
+                    existing.put(keysOf(index.get("key", Document.class)), index);
+                }
+            }
+
+            for (IndexDefinition definition : indexResolver.resolveIndexFor(entity.getTypeInformation())) {
+                String keys = keysOf(definition.getIndexKeys());
+                Document index = existing.remove(keys);
+                if (index == null) {
+                    log.info("Creating missing index {} on collection {}", keys, collection);
+                    indexOperations.ensureIndex(definition);
+                } else if (!optionsOf(index).equals(optionsOf(definition.getIndexOptions()))) {
+                    log.warn("Rebuilding index {} on collection {}, its options {} differ from the declared {}",
+                            index.getString("name"), collection, optionsOf(index), optionsOf(definition.getIndexOptions()));
+                    indexOperations.dropIndex(index.getString("name"));
+                    indexOperations.ensureIndex(definition);
+                }
+            }
+
+            if (!existing.isEmpty()) {
+                log.warn("Collection {} has indexes not declared on {}: {}", collection, entity.getType().getSimpleName(),
+                        existing.values().stream().map(index -> index.getString("name")).toList());
+            }
+        }
+    }
+
+
+    /**
+     * Reads the options compared with the declaration from an index description or from the options of a definition,
+     * with the defaults MongoDB applies to those left out.
+     */
+    private static Map<String, Object> optionsOf(Document options) {
+        Object expireAfterSeconds = options.get("expireAfterSeconds");
+        Map<String, Object> compared = new LinkedHashMap<>();
+        compared.put("unique", flagOf(options.get("unique")));
+        compared.put("sparse", flagOf(options.get("sparse")));
+        compared.put("expireAfterSeconds", expireAfterSeconds instanceof Number number ? number.longValue() : null);
+        return compared;
+    }
+
+
+    /**
+     * Reads a boolean index option, which older shells stored as a number.
+     */
+    private static boolean flagOf(Object option) {
+        return option instanceof Boolean flag ? flag : option instanceof Number number && number.intValue() != 0;
+    }
+
+
+    /**
+     * Builds a comparable representation of index keys, keeping their order.
+     */
+    private static String keysOf(Document keys) {
+        return keys.entrySet().stream()
+                .map(key -> key.getKey() + ":" + (key.getValue() instanceof Number number
+                        ? String.valueOf(number.intValue())
+                        : String.valueOf(key.getValue())))
+                .collect(Collectors.joining(","));
+    }
+}
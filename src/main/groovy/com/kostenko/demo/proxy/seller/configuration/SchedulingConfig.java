@@ -0,0 +1,13 @@
+package com.kostenko.demo.proxy.seller.configuration;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Configuration class enabling execution of {@link org.springframework.scheduling.annotation.Scheduled} tasks.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+
+}
@@ -2,6 +2,7 @@ package com.kostenko.demo.proxy.seller.configuration;
 
 
 import com.kostenko.demo.proxy.seller.service.UserDetailsServiceImpl;
+import jakarta.servlet.DispatcherType;
 import org.modelmapper.ModelMapper;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -73,12 +74,17 @@ public class SecurityConfig {
         return http
                 .authorizeHttpRequests((authorizeHttpRequests) ->
                         authorizeHttpRequests
+                                // Asynchronous dispatches complete requests already authorized, such as reactive endpoints
+                                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                                 .requestMatchers("/user/registration", "/user/login", "/user/refreshToken", "/user/logout").permitAll()
                                 .requestMatchers("/post/create").authenticated()
                                 .requestMatchers("/user/page/{userId}").permitAll()
                                 .requestMatchers("/user/delete/{userId}", "/user/edit/{userId}").access(userSecurity)
-                                .requestMatchers("/post/newsfeed/{userId}").access(userSecurity)
+                                .requestMatchers("/post/newsfeed/{userId}", "/post/newsfeed/{userId}/stream", "/reactive/post/newsfeed/{userId}").access(userSecurity)
                                 .requestMatchers("/post/favorite/**").permitAll()
+                                // Metrics reveal traffic and internals, only the health check is public
+                                .requestMatchers("/actuator/health").permitAll()
+                                .requestMatchers("/actuator/**").hasRole("ADMIN")
                                 .anyRequest().permitAll()
                 )
                 .sessionManagement((sessionManagement) ->
@@ -1,7 +1,7 @@
 package com.kostenko.demo.proxy.seller.configuration;
 
 
-import com.kostenko.demo.proxy.seller.entity.User;
+import com.kostenko.demo.proxy.seller.service.UserPrincipal;
 import org.springframework.security.authorization.AuthorizationDecision;
 import org.springframework.security.authorization.AuthorizationManager;
 import org.springframework.security.core.Authentication;
@@ -39,8 +39,8 @@ public class UserSecurity implements AuthorizationManager<RequestAuthorizationCo
      * @return true if the authenticated user has the specified user ID, false otherwise.
      */
     public boolean hasUserId(Authentication authentication, String userId) {
-        return !authentication.getPrincipal().equals("anonymousUser")
-                && authentication.isAuthenticated()
-                && ((User) authentication.getPrincipal()).getId().equals(userId);
+        return authentication.isAuthenticated()
+                && authentication.getPrincipal() instanceof UserPrincipal principal
+                && principal.getId().equals(userId);
     }
 }
\ No newline at end of file
@@ -206,9 +206,9 @@ public class AuthController {
     public JwtResponseDTO refreshToken(@RequestBody RefreshTokenRequestDTO refreshTokenRequestDTO) {
         return refreshTokenService.findByToken(refreshTokenRequestDTO.getToken())
                 .map(refreshTokenService::verifyExpiration)
-                .map(RefreshToken::getUser)
-                .map(userInfo -> {
-                    String accessToken = jwtService.GenerateToken(userInfo.getUsername());
+                .map(RefreshToken::getUserId)
+                .map(userId -> {
+                    String accessToken = jwtService.GenerateToken(userId);
                     return JwtResponseDTO.builder()
                             .accessToken(accessToken)
                             .refreshToken(refreshTokenRequestDTO.getToken()).build();
@@ -3,8 +3,10 @@ package com.kostenko.demo.proxy.seller.controller;
 import com.kostenko.demo.proxy.seller.dto.ApplicationErrorDTO;
 import com.kostenko.demo.proxy.seller.dto.CommentCreationDTO;
 import com.kostenko.demo.proxy.seller.dto.CommentDTO;
+import com.kostenko.demo.proxy.seller.dto.CommentPageDTO;
 import com.kostenko.demo.proxy.seller.service.CommentService;
 import com.kostenko.demo.proxy.seller.service.JwtService;
+import com.kostenko.demo.proxy.seller.service.Versioned;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -15,8 +17,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
-
-import java.util.Set;
+import org.springframework.web.context.request.WebRequest;
 
 /**
  * Controller class for handling comment-related operations.
@@ -85,23 +86,39 @@ public class CommentController {
 
 
     /**
-     * Returns all comments under post with ID requested
+     * Returns a page of comments under post with ID requested, oldest first.
+     * A client sending the ETag of the current version in If-None-Match gets 304 without a body.
      *
-     * @param postId id of a post to find comments of
-     * @return A {@link java.util.Set} of {@link com.kostenko.demo.proxy.seller.dto.CommentDTO}'s.
+     * @param postId     id of a post to find comments of
+     * @param cursor     cursor returned with the previous page, absent for the first page
+     * @param pageSize   maximum number of comments in the page
+     * @param webRequest the current request, checked for the version the client already has
+     * @return A {@link com.kostenko.demo.proxy.seller.dto.CommentPageDTO} with the cursor of the next page, null if it isn't modified.
      */
     @Operation(summary = "Get post comments")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200",
                     description = "Post comments returned successfully.",
-                    content = @Content(schema = @Schema(implementation = CommentDTO.class))),
+                    content = @Content(schema = @Schema(implementation = CommentPageDTO.class))),
+            @ApiResponse(responseCode = "304",
+                    description = "Comments didn't change since the version in If-None-Match."),
+            @ApiResponse(responseCode = "400",
+                    description = "Malformed cursor or page size out of bounds.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class))),
             @ApiResponse(responseCode = "404",
                     description = "Post with id provided don't exist.",
                     content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class)))
     })
-    @ResponseStatus(HttpStatus.OK)
-    @PostMapping("/postComments/{postId}")
-    Set<CommentDTO> getPostComments(@PathVariable(name = "postId") String postId) {
-        return commentService.getPostComments(postId);
+    @RequestMapping(value = "/postComments/{postId}", method = {RequestMethod.GET, RequestMethod.POST})
+    CommentPageDTO getPostComments(@PathVariable(name = "postId") String postId,
+                                   @RequestParam(name = "cursor", required = false) String cursor,
+                                   @RequestParam(name = "pageSize", required = false) Integer pageSize,
+                                   WebRequest webRequest) {
+        Versioned<CommentPageDTO> comments = commentService.versionedPostComments(postId, cursor, pageSize);
+        if (webRequest.checkNotModified(comments.etag())) {
+            return null;
+        }
+
+        return comments.body().get();
     }
-}
\ No newline at end of file
+}
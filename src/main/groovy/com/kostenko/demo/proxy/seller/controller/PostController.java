@@ -4,9 +4,12 @@ import com.kostenko.demo.proxy.seller.dto.ApplicationErrorDTO;
 import com.kostenko.demo.proxy.seller.dto.NewsfeedDTO;
 import com.kostenko.demo.proxy.seller.dto.PostCreationDTO;
 import com.kostenko.demo.proxy.seller.dto.PostDTO;
+import com.kostenko.demo.proxy.seller.dto.PostPageDTO;
 import com.kostenko.demo.proxy.seller.error.ResourceNotFoundException;
 import com.kostenko.demo.proxy.seller.service.JwtService;
+import com.kostenko.demo.proxy.seller.service.NewsfeedStreamService;
 import com.kostenko.demo.proxy.seller.service.PostService;
+import com.kostenko.demo.proxy.seller.service.Versioned;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -14,8 +17,11 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 /**
  * Controller class for handling post-related operations.
@@ -24,6 +30,8 @@ import org.springframework.web.bind.annotation.*;
 @RequestMapping("/post")
 public class PostController {
 
+    protected static final String SINCE_WITH_CURSOR_MESSAGE = "Parameters cursor and since can't be combined.";
+
     /**
      * Service for handling post-related operations.
      */
@@ -34,17 +42,24 @@ public class PostController {
      */
     private final JwtService jwtService;
 
+    /**
+     * Service streaming new activity to connected clients.
+     */
+    private final NewsfeedStreamService newsfeedStreamService;
+
 
     /**
      * Constructs a PostController with the specified dependencies.
      *
-     * @param postService Service for handling post-related operations.
-     * @param jwtService  Service for handling JWT-related operations.
+     * @param postService           Service for handling post-related operations.
+     * @param jwtService            Service for handling JWT-related operations.
+     * @param newsfeedStreamService Service streaming new activity to connected clients.
      */
     @Autowired
-    public PostController(PostService postService, JwtService jwtService) {
+    public PostController(PostService postService, JwtService jwtService, NewsfeedStreamService newsfeedStreamService) {
         this.postService = postService;
         this.jwtService = jwtService;
+        this.newsfeedStreamService = newsfeedStreamService;
     }
 
 
@@ -238,10 +253,18 @@ public class PostController {
 
 
     /**
-     * Retrieves the newsfeed for a specified user.
+     * Retrieves a page of the newsfeed for a specified user, newest activity first, along with the cursor
+     * of the next page. Without a cursor the first page is returned, without a page size
+     * it holds up to {@link com.kostenko.demo.proxy.seller.service.PageCursor#DEFAULT_PAGE_SIZE} entries.
+     * If since is provided, only activity newer than it is returned, oldest first.
+     * A client sending the ETag of the current version in If-None-Match gets 304 without a body.
      *
-     * @param userId The unique identifier of the user whose newsfeed is to be retrieved.
-     * @return The newsfeed of the specified user.
+     * @param userId     The unique identifier of the user whose newsfeed is to be retrieved.
+     * @param cursor     Cursor returned with the previous page.
+     * @param pageSize   Maximum number of entries in the page.
+     * @param since      Cursor of the newest activity seen by the client, its latestCursor.
+     * @param webRequest The current request, checked for the version the client already has.
+     * @return The newsfeed of the specified user, null if it isn't modified.
      * @throws ResourceNotFoundException if user with specified id doesn't exist
      */
     @Operation(summary = "Get user newsfeed")
@@ -249,6 +272,11 @@ public class PostController {
             @ApiResponse(responseCode = "200",
                     description = "User newsfeed returned successfully.",
                     content = @Content(schema = @Schema(implementation = NewsfeedDTO.class))),
+            @ApiResponse(responseCode = "304",
+                    description = "Newsfeed didn't change since the version in If-None-Match."),
+            @ApiResponse(responseCode = "400",
+                    description = "Cursor is malformed, combined with since or page size is out of bounds.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class))),
             @ApiResponse(responseCode = "403",
                     description = "User who made request didn't the one which newsfeed need to be returned.",
                     content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class))),
@@ -256,9 +284,79 @@ public class PostController {
                     description = "User with id provided don't exist.",
                     content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class)))
     })
-    @ResponseStatus(HttpStatus.OK)
+    // No @ResponseStatus, it would override the status of a 304 response
     @GetMapping("/newsfeed/{userId}")
-    NewsfeedDTO newsfeed(@PathVariable(name = "userId") String userId) {
-        return postService.newsfeed(userId);
+    NewsfeedDTO newsfeed(@PathVariable(name = "userId") String userId,
+                         @RequestParam(name = "cursor", required = false) String cursor,
+                         @RequestParam(name = "pageSize", required = false) Integer pageSize,
+                         @RequestParam(name = "since", required = false) String since,
+                         WebRequest webRequest) {
+        if (since != null && cursor != null) {
+            throw new IllegalArgumentException(SINCE_WITH_CURSOR_MESSAGE);
+        }
+
+        Versioned<NewsfeedDTO> newsfeed = since != null
+                ? postService.versionedNewsfeedSince(userId, since, pageSize)
+                : postService.versionedNewsfeed(userId, cursor, pageSize);
+        if (webRequest.checkNotModified(newsfeed.etag())) {
+            return null;
+        }
+
+        return newsfeed.body().get();
+    }
+
+
+    /**
+     * Streams new posts, likes and comments of followed users as Server-Sent Events while the connection is open.
+     * Every event carries a newsfeed with a single entry, its id is the cursor to pass as since
+     * to the newsfeed endpoint after a reconnect.
+     *
+     * @param userId The unique identifier of the user whose newsfeed is streamed.
+     * @return Emitter of the stream.
+     */
+    @Operation(summary = "Stream new activity in user newsfeed")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Stream opened, events are sent as activity happens.",
+                    content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE, schema = @Schema(implementation = NewsfeedDTO.class))),
+            @ApiResponse(responseCode = "403",
+                    description = "User who made request didn't the one which newsfeed need to be streamed.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class))),
+            @ApiResponse(responseCode = "404",
+                    description = "User with id provided don't exist.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class)))
+    })
+    @GetMapping(value = "/newsfeed/{userId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    SseEmitter streamNewsfeed(@PathVariable(name = "userId") String userId) {
+        return newsfeedStreamService.subscribe(userId);
+    }
+
+
+    /**
+     * Returns a page of posts made by a user, newest first.
+     *
+     * @param userId   The ID of the author.
+     * @param cursor   Cursor returned with the previous page.
+     * @param pageSize Maximum number of posts in the page.
+     * @return A {@link PostPageDTO} with posts and their total count.
+     */
+    @Operation(summary = "Get posts of a user")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Posts returned successfully.",
+                    content = @Content(schema = @Schema(implementation = PostPageDTO.class))),
+            @ApiResponse(responseCode = "400",
+                    description = "Cursor is malformed or page size is out of bounds.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class))),
+            @ApiResponse(responseCode = "404",
+                    description = "User with requests id doesn't present in database.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class)))
+    })
+    @ResponseStatus(HttpStatus.OK)
+    @GetMapping("/user/{userId}")
+    PostPageDTO getUserPosts(@PathVariable(name = "userId") String userId,
+                             @RequestParam(name = "cursor", required = false) String cursor,
+                             @RequestParam(name = "pageSize", required = false) Integer pageSize) {
+        return postService.getUserPosts(userId, cursor, pageSize);
     }
 }
\ No newline at end of file
@@ -0,0 +1,133 @@
+package com.kostenko.demo.proxy.seller.controller;
+
+import com.kostenko.demo.proxy.seller.dto.ApplicationErrorDTO;
+import com.kostenko.demo.proxy.seller.dto.CommentPageDTO;
+import com.kostenko.demo.proxy.seller.dto.NewsfeedDTO;
+import com.kostenko.demo.proxy.seller.dto.UserPageDTO;
+import com.kostenko.demo.proxy.seller.service.ReactiveReadService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+/**
+ * Controller serving non-blocking variants of the newsfeed, user page and post comments endpoints.
+ * Results are written asynchronously when the reactive MongoDB driver completes, so the servlet thread
+ * is released while the request waits for the database. Enabled with the reactive.enabled property.
+ */
+@RestController
+@RequestMapping("/reactive")
+@ConditionalOnProperty(name = "reactive.enabled", havingValue = "true")
+public class ReactiveReadController {
+
+    /**
+     * Service serving the read API through the reactive MongoDB driver.
+     */
+    private final ReactiveReadService reactiveReadService;
+
+
+    /**
+     * Constructs a ReactiveReadController with the specified dependencies.
+     *
+     * @param reactiveReadService Service serving the read API through the reactive MongoDB driver.
+     */
+    @Autowired
+    public ReactiveReadController(ReactiveReadService reactiveReadService) {
+        this.reactiveReadService = reactiveReadService;
+    }
+
+
+    /**
+     * Retrieves a page of the newsfeed of a specified user, newest activity first.
+     *
+     * @param userId   The unique identifier of the user whose newsfeed is to be retrieved.
+     * @param cursor   Cursor returned with the previous page.
+     * @param pageSize Maximum number of entries in the page.
+     * @param since    Cursor of the newest activity seen by the client, its latestCursor.
+     * @return The newsfeed page of the specified user.
+     */
+    @Operation(summary = "Get user newsfeed without blocking")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "User newsfeed returned successfully.",
+                    content = @Content(schema = @Schema(implementation = NewsfeedDTO.class))),
+            @ApiResponse(responseCode = "400",
+                    description = "Cursor is malformed, combined with since or page size is out of bounds.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class))),
+            @ApiResponse(responseCode = "403",
+                    description = "User who made request didn't the one which newsfeed need to be returned.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class))),
+            @ApiResponse(responseCode = "404",
+                    description = "User with id provided don't exist.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class)))
+    })
+    @ResponseStatus(HttpStatus.OK)
+    @GetMapping("/post/newsfeed/{userId}")
+    Mono<NewsfeedDTO> newsfeed(@PathVariable(name = "userId") String userId,
+                               @RequestParam(name = "cursor", required = false) String cursor,
+                               @RequestParam(name = "pageSize", required = false) Integer pageSize,
+                               @RequestParam(name = "since", required = false) String since) {
+        if (since != null && cursor != null) {
+            throw new IllegalArgumentException(PostController.SINCE_WITH_CURSOR_MESSAGE);
+        }
+
+        return reactiveReadService.newsfeed(userId, cursor, since, pageSize);
+    }
+
+
+    /**
+     * Retrieves and returns the user page based on the provided user ID.
+     *
+     * @param userId The ID of the user for whom the page is requested.
+     * @return A UserPageDTO representing the user page.
+     */
+    @Operation(summary = "See user page of user with certain id without blocking")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "User with requested id founded and returned.",
+                    content = @Content(schema = @Schema(implementation = UserPageDTO.class))),
+            @ApiResponse(responseCode = "404",
+                    description = "User with requests id doesn't present in database.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class)))
+    })
+    @ResponseStatus(HttpStatus.OK)
+    @GetMapping("/user/page/{userId}")
+    Mono<UserPageDTO> getUserPage(@PathVariable(name = "userId") String userId) {
+        return reactiveReadService.getUserPage(userId);
+    }
+
+
+    /**
+     * Returns a page of comments under post with ID requested, oldest first.
+     *
+     * @param postId   id of a post to find comments of
+     * @param cursor   cursor returned with the previous page, absent for the first page
+     * @param pageSize maximum number of comments in the page
+     * @return A {@link com.kostenko.demo.proxy.seller.dto.CommentPageDTO} with the cursor of the next page.
+     */
+    @Operation(summary = "Get post comments without blocking")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Post comments returned successfully.",
+                    content = @Content(schema = @Schema(implementation = CommentPageDTO.class))),
+            @ApiResponse(responseCode = "400",
+                    description = "Malformed cursor or page size out of bounds.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class))),
+            @ApiResponse(responseCode = "404",
+                    description = "Post with id provided don't exist.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class)))
+    })
+    @ResponseStatus(HttpStatus.OK)
+    @GetMapping("/comment/postComments/{postId}")
+    Mono<CommentPageDTO> getPostComments(@PathVariable(name = "postId") String postId,
+                                         @RequestParam(name = "cursor", required = false) String cursor,
+                                         @RequestParam(name = "pageSize", required = false) Integer pageSize) {
+        return reactiveReadService.getPostComments(postId, cursor, pageSize);
+    }
+}
@@ -1,12 +1,15 @@
 package com.kostenko.demo.proxy.seller.controller;
 
 import com.kostenko.demo.proxy.seller.dto.ApplicationErrorDTO;
+import com.kostenko.demo.proxy.seller.dto.FollowPageDTO;
 import com.kostenko.demo.proxy.seller.dto.UserEditDTO;
 import com.kostenko.demo.proxy.seller.dto.UserPageDTO;
 import com.kostenko.demo.proxy.seller.dto.UserResponse;
 import com.kostenko.demo.proxy.seller.error.ResourceNotFoundException;
+import com.kostenko.demo.proxy.seller.service.FollowService;
 import com.kostenko.demo.proxy.seller.service.JwtService;
 import com.kostenko.demo.proxy.seller.service.UserService;
+import com.kostenko.demo.proxy.seller.service.Versioned;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -19,6 +22,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.ObjectError;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 /**
  * Controller class for handling user-related operations.
@@ -40,39 +44,54 @@ public class UserController {
      * Service for handling JWT-related operations.
      */
     private final JwtService jwtService;
+    /**
+     * Service for handling the follow graph.
+     */
+    private final FollowService followService;
 
     /**
      * Constructs a UserController with the specified dependencies.
      *
-     * @param userService Service for handling user-related operations.
-     * @param jwtService  Service for handling JWT-related operations.
+     * @param userService   Service for handling user-related operations.
+     * @param jwtService    Service for handling JWT-related operations.
+     * @param followService Service for handling the follow graph.
      */
     @Autowired
-    public UserController(UserService userService, JwtService jwtService) {
+    public UserController(UserService userService, JwtService jwtService, FollowService followService) {
         this.userService = userService;
         this.jwtService = jwtService;
+        this.followService = followService;
     }
 
 
     /**
      * Retrieves and returns the user page based on the provided user ID.
+     * A client sending the ETag of the current version in If-None-Match gets 304 without a body.
      *
-     * @param userId The ID of the user for whom the page is requested.
-     * @return A UserPageDTO representing the user page.
+     * @param userId     The ID of the user for whom the page is requested.
+     * @param webRequest The current request, checked for the version the client already has.
+     * @return A UserPageDTO representing the user page, null if it isn't modified.
      */
     @Operation(summary = "See user page of user with certain id")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200",
                     description = "User with requested id founded and returned.",
                     content = @Content(schema = @Schema(implementation = UserPageDTO.class))),
+            @ApiResponse(responseCode = "304",
+                    description = "User page didn't change since the version in If-None-Match."),
             @ApiResponse(responseCode = "404",
                     description = "User with requests id doesn't present in database.",
                     content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class)))
     })
-    @ResponseStatus(HttpStatus.OK)
     @GetMapping("/page/{userId}")
-    UserPageDTO viewUserPage(@PathVariable(name = "userId") String userId) {
-        return userService.getUserPage(userId);
+    UserPageDTO viewUserPage(@PathVariable(name = "userId") String userId,
+                             WebRequest webRequest) {
+        Versioned<UserPageDTO> userPage = userService.versionedUserPage(userId);
+        if (webRequest.checkNotModified(userPage.etag())) {
+            return null;
+        }
+
+        return userPage.body().get();
     }
 
 
@@ -183,4 +202,62 @@ public class UserController {
         userService.unfollowFromUser(requesterId, userId);
         return new ResponseEntity<>(HttpStatus.OK);
     }
+
+
+    /**
+     * Returns a page of followers of a user, most recent first.
+     *
+     * @param userId   The ID of the user.
+     * @param cursor   Cursor returned with the previous page.
+     * @param pageSize Maximum number of users in the page.
+     * @return A {@link FollowPageDTO} with followers and their total count.
+     */
+    @Operation(summary = "Get followers of a user")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Followers returned successfully.",
+                    content = @Content(schema = @Schema(implementation = FollowPageDTO.class))),
+            @ApiResponse(responseCode = "400",
+                    description = "Cursor is malformed or page size is out of bounds.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class))),
+            @ApiResponse(responseCode = "404",
+                    description = "User with requests id doesn't present in database.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class)))
+    })
+    @ResponseStatus(HttpStatus.OK)
+    @GetMapping("/followers/{userId}")
+    FollowPageDTO getFollowers(@PathVariable(name = "userId") String userId,
+                               @RequestParam(name = "cursor", required = false) String cursor,
+                               @RequestParam(name = "pageSize", required = false) Integer pageSize) {
+        return followService.getFollowers(userId, cursor, pageSize);
+    }
+
+
+    /**
+     * Returns a page of users followed by a user, most recent first.
+     *
+     * @param userId   The ID of the user.
+     * @param cursor   Cursor returned with the previous page.
+     * @param pageSize Maximum number of users in the page.
+     * @return A {@link FollowPageDTO} with followed users and their total count.
+     */
+    @Operation(summary = "Get users followed by a user")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200",
+                    description = "Followed users returned successfully.",
+                    content = @Content(schema = @Schema(implementation = FollowPageDTO.class))),
+            @ApiResponse(responseCode = "400",
+                    description = "Cursor is malformed or page size is out of bounds.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class))),
+            @ApiResponse(responseCode = "404",
+                    description = "User with requests id doesn't present in database.",
+                    content = @Content(schema = @Schema(implementation = ApplicationErrorDTO.class)))
+    })
+    @ResponseStatus(HttpStatus.OK)
+    @GetMapping("/following/{userId}")
+    FollowPageDTO getFollowing(@PathVariable(name = "userId") String userId,
+                               @RequestParam(name = "cursor", required = false) String cursor,
+                               @RequestParam(name = "pageSize", required = false) Integer pageSize) {
+        return followService.getFollowing(userId, cursor, pageSize);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.kostenko.demo.proxy.seller.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class CommentPageDTO {
+    @Schema(description = "Page of comments on the post, oldest first")
+    private List<CommentDTO> comments;
+
+    @Schema(description = "Total number of comments on the post", example = "42")
+    private long totalCount;
+
+    @Schema(description = "Cursor of the next page, absent if there are no more comments", example = "MTcwODUzMTYwOTAwMDo2NWMxMTYxMjM1NjdiYTJiYmIyMGE3MTc")
+    private String nextCursor;
+}
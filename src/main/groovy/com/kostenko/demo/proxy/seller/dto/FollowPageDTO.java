@@ -0,0 +1,22 @@
+package com.kostenko.demo.proxy.seller.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class FollowPageDTO {
+    @Schema(description = "Page of followers or followed users, most recent first")
+    private List<SimpleUserDTO> users;
+
+    @Schema(description = "Total number of followers or followed users", example = "42")
+    private long totalCount;
+
+    @Schema(description = "Cursor of the next page, absent if there are no more users", example = "MTcwODUzMTYwOTAwMDo2NWMxMTYxMjM1NjdiYTJiYmIyMGE3MTc")
+    private String nextCursor;
+}
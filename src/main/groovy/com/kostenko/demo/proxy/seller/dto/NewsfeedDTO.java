@@ -19,4 +19,10 @@ public class NewsfeedDTO {
 
     @Schema(description = "List of comments in the newsfeed")
     private Set<CommentDTO> comments;
+
+    @Schema(description = "Cursor of the next page, absent if there are no more entries", example = "MTcwODUzMTYwOTAwMDo2NWMxMTYxMjM1NjdiYTJiYmIyMGE3MTc")
+    private String nextCursor;
+
+    @Schema(description = "Cursor of the last activity inserted into the newsfeed in the response, to be passed as since when polling for new activity", example = "NjVjMTE2MTIzNTY3YmEyYmJiMjBhNzE3")
+    private String latestCursor;
 }
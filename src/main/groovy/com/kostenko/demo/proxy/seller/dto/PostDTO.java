@@ -7,7 +7,6 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 
 import java.time.Instant;
-import java.util.Set;
 
 @Getter
 @Setter
@@ -23,12 +22,6 @@ public class PostDTO {
     @Schema(description = "User who created the post")
     private SimpleUserDTO postCreator;
 
-    @Schema(description = "List of comments on the post")
-    private Set<CommentDTO> comments;
-
-    @Schema(description = "List of likes on the post")
-    private Set<LikeDTO> likes;
-
     @Schema(description = "Timestamp when the post was created")
     private Instant createdAt;
 
@@ -37,4 +30,7 @@ public class PostDTO {
 
     @Schema(description = "Number of likes for the post")
     private int likeCount;
+
+    @Schema(description = "Number of comments for the post")
+    private int commentCount;
 }
\ No newline at end of file
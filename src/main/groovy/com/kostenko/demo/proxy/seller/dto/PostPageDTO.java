@@ -0,0 +1,22 @@
+package com.kostenko.demo.proxy.seller.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class PostPageDTO {
+    @Schema(description = "Page of posts made by the user, newest first")
+    private List<SimplePostDTO> posts;
+
+    @Schema(description = "Total number of posts made by the user", example = "42")
+    private long totalCount;
+
+    @Schema(description = "Cursor of the next page, absent if there are no more posts", example = "MTcwODUzMTYwOTAwMDo2NWMxMTYxMjM1NjdiYTJiYmIyMGE3MTc")
+    private String nextCursor;
+}
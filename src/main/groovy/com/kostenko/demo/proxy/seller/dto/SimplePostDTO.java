@@ -27,4 +27,7 @@ public class SimplePostDTO {
 
     @Schema(description = "Number of likes for the post")
     private int likeCount;
+
+    @Schema(description = "Number of comments for the post")
+    private int commentCount;
 }
\ No newline at end of file
@@ -19,18 +19,36 @@ public class UserPageDTO {
     @Schema(description = "Username of the user", example = "john_doe")
     private String username;
 
-    @Schema(description = "List of posts made by the user")
+    @Schema(description = "Most recent posts made by the user")
     private Set<SimplePostDTO> posts;
 
-    @Schema(description = "List of comments made by the user")
+    @Schema(description = "Cursor of the next page of posts, absent if there are no more posts", example = "MTcwODUzMTYwOTAwMDo2NWMxMTYxMjM1NjdiYTJiYmIyMGE3MTc")
+    private String postsNextCursor;
+
+    @Schema(description = "Most recent comments made by the user")
     private Set<CommentDTO> comments;
 
-    @Schema(description = "List of likes made by the user")
+    @Schema(description = "Most recent likes made by the user")
     private Set<LikeDTO> likes;
 
-    @Schema(description = "List of followers of the user")
+    @Schema(description = "Most recent followers of the user")
     private Set<SimpleUserDTO> followers;
 
-    @Schema(description = "List of users that the user follows")
+    @Schema(description = "Cursor of the next page of followers, absent if there are no more followers", example = "MTcwODUzMTYwOTAwMDo2NWMxMTYxMjM1NjdiYTJiYmIyMGE3MTc")
+    private String followersNextCursor;
+
+    @Schema(description = "Users most recently followed by the user")
     private Set<SimpleUserDTO> following;
+
+    @Schema(description = "Cursor of the next page of followed users, absent if there are no more of them", example = "MTcwODUzMTYwOTAwMDo2NWMxMTYxMjM1NjdiYTJiYmIyMGE3MTc")
+    private String followingNextCursor;
+
+    @Schema(description = "Number of posts made by the user", example = "42")
+    private long postCount;
+
+    @Schema(description = "Number of followers of the user", example = "42")
+    private long followerCount;
+
+    @Schema(description = "Number of users that the user follows", example = "42")
+    private long followingCount;
 }
\ No newline at end of file
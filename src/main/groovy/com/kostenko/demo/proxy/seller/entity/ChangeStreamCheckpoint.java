@@ -0,0 +1,43 @@
+package com.kostenko.demo.proxy.seller.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Position of a change stream consumer, from which it resumes after a restart,
+ * together with the lease of the instance consuming the stream.
+ */
+@Document
+@Data
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ChangeStreamCheckpoint {
+    /**
+     * Name of the consumer.
+     */
+    @Id
+    private String id;
+
+    /**
+     * Resume token of the last processed change, as extended JSON.
+     */
+    private String resumeToken;
+
+    private Instant updatedAt;
+
+    /**
+     * Instance holding the lease, null while nobody consumes.
+     */
+    private String owner;
+
+    /**
+     * Time after which the lease is free to be taken over by another instance.
+     */
+    private Instant leaseUntil;
+}
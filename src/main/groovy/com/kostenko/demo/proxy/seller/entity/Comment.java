@@ -4,12 +4,22 @@ import lombok.*;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
-import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 
+/**
+ * Comment on a post. Comments are stored only in their own collection and referenced by ids,
+ * so neither the post nor the author grows with the number of comments.
+ */
 @Document
+@CompoundIndexes({
+        @CompoundIndex(name = "post_createdAt_id", def = "{'postId': 1, 'createdAt': 1, '_id': 1}"),
+        @CompoundIndex(name = "user_createdAt_id", def = "{'userId': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "user_id", def = "{'userId': 1, '_id': 1}")
+})
 @Data
 @Getter
 @Setter
@@ -22,15 +32,19 @@ public class Comment {
 
     private String content;
 
-    @DBRef
-    private User user;
+    /**
+     * Id of the comment author.
+     */
+    private String userId;
 
-    @DBRef
-    private Post commentCreator;
+    /**
+     * Id of the commented post.
+     */
+    private String postId;
 
     @CreatedDate
     private Instant createdAt;
 
     @LastModifiedDate
     private Instant updatedAt;
-}
\ No newline at end of file
+}
@@ -0,0 +1,10 @@
+package com.kostenko.demo.proxy.seller.entity;
+
+/**
+ * Kind of activity a {@link TimelineEntry} points to.
+ */
+public enum FeedEntryType {
+    POST,
+    LIKE,
+    COMMENT
+}
@@ -0,0 +1,42 @@
+package com.kostenko.demo.proxy.seller.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Edge of the follow graph. Stored in its own collection instead of follower and following arrays
+ * on {@link User}, so that loading a user doesn't depend on the size of his social graph.
+ */
+@Document
+@CompoundIndexes({
+        @CompoundIndex(name = "follower_createdAt", def = "{'followerId': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "followee_createdAt", def = "{'followeeId': 1, 'createdAt': -1, '_id': -1}")
+})
+@Data
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class Follow {
+    /**
+     * Composed of both user ids, so that the same edge can't be stored twice.
+     */
+    @Id
+    private String id;
+
+    private String followerId;
+
+    private String followeeId;
+
+    private Instant createdAt;
+
+    public static String idOf(String followerId, String followeeId) {
+        return followerId + "_" + followeeId;
+    }
+}
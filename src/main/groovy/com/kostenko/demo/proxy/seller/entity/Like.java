@@ -1,15 +1,25 @@
 package com.kostenko.demo.proxy.seller.entity;
 
 import lombok.*;
-import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.annotation.LastModifiedDate;
-import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 
+/**
+ * Edge between a user and a liked post. Stored in its own collection instead of like arrays
+ * on {@link Post} and {@link User}, so that popular posts don't grow with every like.
+ * A unique index on the user and post ids prevents the same post from being liked twice by one user.
+ */
 @Document
+@CompoundIndexes({
+        @CompoundIndex(name = "user_post", def = "{'userId': 1, 'postId': 1}", unique = true),
+        @CompoundIndex(name = "post_createdAt", def = "{'postId': 1, 'createdAt': -1}"),
+        @CompoundIndex(name = "user_createdAt_id", def = "{'userId': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "user_id", def = "{'userId': 1, '_id': 1}")
+})
 @Data
 @Getter
 @Setter
@@ -17,18 +27,15 @@ import java.time.Instant;
 @NoArgsConstructor
 @Builder
 public class Like {
+    /**
+     * ObjectId like the ids of posts and comments, so that the newsfeed orders all of them by the same key.
+     */
     @Id
     private String id;
 
-    @DBRef
-    private User likeCreator;
+    private String userId;
 
-    @DBRef
-    private Post post;
+    private String postId;
 
-    @CreatedDate
     private Instant createdAt;
-
-    @LastModifiedDate
-    private Instant updatedAt;
-}
\ No newline at end of file
+}
@@ -0,0 +1,46 @@
+package com.kostenko.demo.proxy.seller.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+
+/**
+ * Counter updates following a write, stored next to it and applied later in bulk by
+ * {@link com.kostenko.demo.proxy.seller.service.CounterOutbox}.
+ */
+@Document
+@Data
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class OutboxEntry {
+    @Id
+    private String id;
+
+    private List<Increment> increments;
+
+    /**
+     * Increment of a single counter field of a document.
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Increment {
+        private String collection;
+
+        /**
+         * Indexed for reconciliation, which subtracts increments still waiting from the recounted values.
+         */
+        @Indexed
+        private String documentId;
+
+        private String field;
+
+        private int delta;
+    }
+}
@@ -4,15 +4,21 @@ import lombok.*;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 import java.util.Objects;
-import java.util.Set;
 
 
 @Document
+@CompoundIndexes({
+        @CompoundIndex(name = "postCreator_createdAt_id", def = "{'postCreator.$id': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "postCreator_id", def = "{'postCreator.$id': 1, '_id': 1}")
+})
 @Data
 @Getter
 @Setter
@@ -28,21 +34,28 @@ public class Post {
     @DBRef(lazy = true)
     private User postCreator;
 
-    @DBRef
-    private Set<Comment> comments;
-
-    @DBRef
-    private Set<Like> likes;
-
     @CreatedDate
+    @Indexed
     private Instant createdAt;
 
     @LastModifiedDate
     private Instant updatedAt;
 
-    public int getLikeCount() {
-        return likes != null ? likes.size() : 0;
-    }
+    /**
+     * Number of likes, maintained with atomic increments so that likes don't have to be loaded to count them.
+     */
+    private int likeCount;
+
+    /**
+     * Number of comments, maintained with atomic increments so that comments don't have to be loaded to count them.
+     */
+    private int commentCount;
+
+    /**
+     * Incremented by every write changing how the post is shown, used as the version of pages listing it.
+     * Maintained by {@link com.kostenko.demo.proxy.seller.service.PageVersions}.
+     */
+    private long pageVersion;
 
     @Override
     public boolean equals(Object o) {
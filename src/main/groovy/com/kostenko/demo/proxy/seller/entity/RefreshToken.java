@@ -2,13 +2,15 @@ package com.kostenko.demo.proxy.seller.entity;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 
 
 @Document
+@CompoundIndex(name = "userId_expiryDate", def = "{'userId': 1, 'expiryDate': -1}")
 @Data
 @Getter
 @Setter
@@ -19,10 +21,14 @@ public class RefreshToken {
     @Id
     private String id;
 
+    @Indexed(unique = true)
     private String token;
 
+    /**
+     * Expired tokens are removed by MongoDB itself through the TTL index on this field.
+     */
+    @Indexed(expireAfterSeconds = 0)
     private Instant expiryDate;
 
-    @DBRef
-    private User user;
+    private String userId;
 }
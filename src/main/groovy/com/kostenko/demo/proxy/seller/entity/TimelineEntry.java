@@ -0,0 +1,69 @@
+package com.kostenko.demo.proxy.seller.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.ReadOnlyProperty;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Lightweight entry of a materialized user timeline. One entry is written per follower
+ * when a followed user creates a post, likes or comments, so the newsfeed is read with
+ * a single indexed query on {@code ownerId} instead of walking the follow graph.
+ * A timeline holds at most one entry per activity, so projecting the same activity again is a no-op.
+ */
+@Document
+@CompoundIndexes({
+        @CompoundIndex(name = "owner_createdAt_reference", def = "{'ownerId': 1, 'createdAt': -1, 'referenceId': -1}"),
+        @CompoundIndex(name = "owner_id", def = "{'ownerId': 1, '_id': 1}"),
+        @CompoundIndex(name = "owner_author", def = "{'ownerId': 1, 'authorId': 1}"),
+        @CompoundIndex(name = "owner_reference_type", def = "{'ownerId': 1, 'referenceId': 1, 'type': 1}", unique = true)
+})
+@Data
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class TimelineEntry {
+    @Id
+    private String id;
+
+    /**
+     * Id of the user whose timeline contains this entry.
+     */
+    private String ownerId;
+
+    /**
+     * Id of the followed user who performed the activity.
+     */
+    private String authorId;
+
+    private FeedEntryType type;
+
+    @Indexed
+    private String postId;
+
+    /**
+     * Id of the post, like or comment the entry refers to, depending on {@link #type}. Orders entries
+     * created in the same millisecond, as all of them are ObjectIds.
+     */
+    @Indexed
+    private String referenceId;
+
+    /**
+     * Creation time of the referenced activity, not of the entry itself.
+     */
+    private Instant createdAt;
+
+    /**
+     * Username of the author, joined by feed engines which compute entries on the database side.
+     * Never stored in timelines.
+     */
+    @ReadOnlyProperty
+    private String authorUsername;
+}
@@ -4,6 +4,7 @@ import lombok.*;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -22,30 +23,42 @@ public class User implements UserDetails {
     @Id
     private String id;
 
+    @Indexed(unique = true)
     private String username;
 
     private String password;
 
-    @DBRef(lazy = true)
-    private Set<Post> posts;
+    /**
+     * Number of own posts, maintained together with {@link Post} documents.
+     */
+    private long postCount;
 
     @DBRef(lazy = true)
     private Set<Post> favoritePosts;
 
-    @DBRef
-    private Set<User> followers;
-
-    @DBRef
-    private Set<User> following;
+    /**
+     * Number of followers, maintained together with {@link Follow} edges.
+     */
+    @Indexed
+    private long followerCount;
 
-    @DBRef
-    private Set<Comment> comments;
+    /**
+     * Number of followed users, maintained together with {@link Follow} edges.
+     */
+    private long followingCount;
 
-    @DBRef
-    private Set<Like> likes;
+    /**
+     * Set while activity of the user is pulled into newsfeeds instead of being fanned out, null otherwise.
+     * Maintained by {@link com.kostenko.demo.proxy.seller.service.AuthorClassifier}.
+     */
+    @Indexed(sparse = true)
+    private Boolean pulled;
 
-    @DBRef
-    private Set<RefreshToken> refreshTokens;
+    /**
+     * Incremented by every write changing the public page of the user, used as the version of the page.
+     * Maintained by {@link com.kostenko.demo.proxy.seller.service.PageVersions}.
+     */
+    private long pageVersion;
 
     @DBRef
     private Set<Authority> authorities;
@@ -2,6 +2,7 @@ package com.kostenko.demo.proxy.seller.error;
 
 import com.kostenko.demo.proxy.seller.dto.ApplicationErrorDTO;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -55,4 +56,15 @@ public class GlobalExceptionHandler {
                 HttpStatus.BAD_REQUEST
         );
     }
-}
\ No newline at end of file
+
+
+    @ExceptionHandler
+    public ResponseEntity<ApplicationErrorDTO> catchQueryTimeoutException(QueryTimeoutException e) {
+        log.error(e.getMessage(), e);
+
+        return new ResponseEntity<>(
+                new ApplicationErrorDTO(HttpStatus.SERVICE_UNAVAILABLE.value(), e.getMessage()),
+                HttpStatus.SERVICE_UNAVAILABLE
+        );
+    }
+}
@@ -0,0 +1,136 @@
+package com.kostenko.demo.proxy.seller.mapper;
+
+import com.kostenko.demo.proxy.seller.dto.*;
+import com.kostenko.demo.proxy.seller.entity.*;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hand-written mapper from entities to DTOs, used on hot paths instead of the reflective
+ * {@link org.modelmapper.ModelMapper}. Every method reads only the properties the target DTO exposes,
+ * so no other {@code @DBRef} relation of the entity gets resolved while mapping.
+ * <p>
+ * Methods mapping a post take the change of its likeCount not persisted yet, which callers read
+ * from {@link com.kostenko.demo.proxy.seller.service.HotLikeCounters#pending(String)}.
+ */
+@Component
+public class DtoMapper {
+
+    /**
+     * Maps a post without its likes and comments, their numbers are carried by the counters
+     * and the comments themselves are served by the post comments endpoint.
+     *
+     * @param post         The post to map.
+     * @param pendingLikes Change of likeCount of the post not persisted yet.
+     * @return {@link PostDTO} of the post.
+     */
+    public PostDTO toPostDTO(Post post, long pendingLikes) {
+        return toPostDTO(post, post.getPostCreator(), pendingLikes);
+    }
+
+
+    /**
+     * Maps a post with an author loaded by the caller, for posts read without their {@code postCreator} reference.
+     *
+     * @param post         The post to map.
+     * @param postCreator  The author of the post, null if he doesn't exist anymore.
+     * @param pendingLikes Change of likeCount of the post not persisted yet.
+     * @return {@link PostDTO} of the post.
+     */
+    public PostDTO toPostDTO(Post post, User postCreator, long pendingLikes) {
+        PostDTO postDTO = new PostDTO();
+        postDTO.setId(post.getId());
+        postDTO.setContent(post.getContent());
+        postDTO.setPostCreator(toSimpleUserDTO(postCreator));
+        postDTO.setCreatedAt(post.getCreatedAt());
+        postDTO.setUpdatedAt(post.getUpdatedAt());
+        postDTO.setLikeCount((int) (post.getLikeCount() + pendingLikes));
+        postDTO.setCommentCount(post.getCommentCount());
+        return postDTO;
+    }
+
+
+    public SimplePostDTO toSimplePostDTO(Post post, long pendingLikes) {
+        if (post == null) {
+            return null;
+        }
+
+        SimplePostDTO postDTO = new SimplePostDTO();
+        postDTO.setId(post.getId());
+        postDTO.setContent(post.getContent());
+        postDTO.setCreatedAt(post.getCreatedAt());
+        postDTO.setUpdatedAt(post.getUpdatedAt());
+        postDTO.setLikeCount((int) (post.getLikeCount() + pendingLikes));
+        postDTO.setCommentCount(post.getCommentCount());
+        return postDTO;
+    }
+
+
+    public SimpleUserDTO toSimpleUserDTO(User user) {
+        if (user == null) {
+            return null;
+        }
+        return new SimpleUserDTO(user.getId(), user.getUsername());
+    }
+
+
+    /**
+     * Maps a comment together with the commented post and the author, which are loaded by the caller.
+     *
+     * @param comment      The comment to map.
+     * @param post         The commented post, null if it doesn't exist anymore.
+     * @param author       The author of the comment, null if he doesn't exist anymore.
+     * @param pendingLikes Change of likeCount of the post not persisted yet.
+     * @return {@link CommentDTO} of the comment.
+     */
+    public CommentDTO toCommentDTO(Comment comment, Post post, User author, long pendingLikes) {
+        CommentDTO commentDTO = new CommentDTO();
+        commentDTO.setId(comment.getId());
+        commentDTO.setContent(comment.getContent());
+        commentDTO.setPostDTO(toSimplePostDTO(post, pendingLikes));
+        commentDTO.setPostCreator(toSimpleUserDTO(author));
+        commentDTO.setCreatedAt(comment.getCreatedAt());
+        commentDTO.setUpdatedAt(comment.getUpdatedAt());
+        return commentDTO;
+    }
+
+
+    /**
+     * Maps a like edge together with the post and the user it connects, which are loaded by the caller.
+     *
+     * @param like         The like to map.
+     * @param post         The liked post, null if it doesn't exist anymore.
+     * @param likeCreator  The user who liked the post, null if he doesn't exist anymore.
+     * @param pendingLikes Change of likeCount of the post not persisted yet.
+     * @return {@link LikeDTO} of the like.
+     */
+    public LikeDTO toLikeDTO(Like like, Post post, User likeCreator, long pendingLikes) {
+        LikeDTO likeDTO = new LikeDTO();
+        likeDTO.setId(like.getId());
+        likeDTO.setPost(toSimplePostDTO(post, pendingLikes));
+        likeDTO.setLikeCreator(toSimpleUserDTO(likeCreator));
+        return likeDTO;
+    }
+
+
+    /**
+     * Maps the user and his counters. Posts, comments, likes, followers and followed users
+     * are not stored on the user and have to be set by the caller.
+     *
+     * @param user The user to map.
+     * @return {@link UserPageDTO} of the user.
+     */
+    public UserPageDTO toUserPageDTO(User user) {
+        UserPageDTO userPage = new UserPageDTO();
+        userPage.setId(user.getId());
+        userPage.setUsername(user.getUsername());
+        userPage.setPostCount(user.getPostCount());
+        userPage.setFollowerCount(user.getFollowerCount());
+        userPage.setFollowingCount(user.getFollowingCount());
+        return userPage;
+    }
+
+
+    public UserResponse toUserResponse(User user) {
+        return new UserResponse(user.getId(), user.getUsername());
+    }
+}
@@ -1,12 +1,20 @@
 package com.kostenko.demo.proxy.seller.repository;
 
 import com.kostenko.demo.proxy.seller.entity.Comment;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 @RepositoryRestResource(exported = false)
 public interface CommentRepository extends MongoRepository<Comment, String> {
 
-}
\ No newline at end of file
+    List<Comment> findAllByUserIdOrderByCreatedAtDesc(String userId, Pageable pageable);
+
+    long countByPostId(String postId);
+
+    void deleteAllByPostId(String postId);
+}
@@ -0,0 +1,14 @@
+package com.kostenko.demo.proxy.seller.repository;
+
+import com.kostenko.demo.proxy.seller.entity.Follow;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository for managing {@link com.kostenko.demo.proxy.seller.entity.Follow} edges in MongoDB.
+ */
+@Repository
+@RepositoryRestResource(exported = false)
+public interface FollowRepository extends MongoRepository<Follow, String> {
+}
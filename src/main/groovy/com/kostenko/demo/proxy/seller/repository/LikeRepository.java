@@ -1,12 +1,19 @@
 package com.kostenko.demo.proxy.seller.repository;
 
 import com.kostenko.demo.proxy.seller.entity.Like;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 @RepositoryRestResource(exported = false)
 public interface LikeRepository extends MongoRepository<Like, String> {
-    Like findByLikeCreatorIdAndPostId(String userId, String postId);
-}
\ No newline at end of file
+    List<Like> findAllByUserIdOrderByCreatedAtDesc(String userId, Pageable pageable);
+
+    long countByPostId(String postId);
+
+    void deleteAllByPostId(String postId);
+}
@@ -3,11 +3,21 @@ package com.kostenko.demo.proxy.seller.repository;
 import com.kostenko.demo.proxy.seller.entity.Post;
 import com.kostenko.demo.proxy.seller.entity.User;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 @RepositoryRestResource(exported = false)
 public interface PostRepository extends MongoRepository<Post, String> {
     void deleteAllByPostCreator(User user);
-}
\ No newline at end of file
+
+    /**
+     * Finds posts without their {@code postCreator} reference, for callers which know the authors already.
+     */
+    @Query(value = "{ '_id': { '$in': ?0 } }", fields = "{ 'postCreator': 0 }")
+    List<Post> findWithoutCreatorByIdIn(Collection<String> ids);
+}
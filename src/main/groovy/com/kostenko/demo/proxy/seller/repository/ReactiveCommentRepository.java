@@ -0,0 +1,18 @@
+package com.kostenko.demo.proxy.seller.repository;
+
+import com.kostenko.demo.proxy.seller.entity.Comment;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+/**
+ * Non-blocking access to comments.
+ */
+@Repository
+@RepositoryRestResource(exported = false)
+public interface ReactiveCommentRepository extends ReactiveMongoRepository<Comment, String> {
+
+    Flux<Comment> findAllByUserIdOrderByCreatedAtDesc(String userId, Pageable pageable);
+}
@@ -0,0 +1,26 @@
+package com.kostenko.demo.proxy.seller.repository;
+
+import com.kostenko.demo.proxy.seller.entity.Post;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+
+/**
+ * Non-blocking access to posts. The reactive driver can't resolve {@code @DBRef}s,
+ * so posts are read without their {@code postCreator} reference.
+ */
+@Repository
+@RepositoryRestResource(exported = false)
+public interface ReactivePostRepository extends ReactiveMongoRepository<Post, String> {
+
+    @Query(value = "{ '_id': ?0 }", fields = "{ 'postCreator': 0 }")
+    Mono<Post> findWithoutCreatorById(String id);
+
+    @Query(value = "{ '_id': { '$in': ?0 } }", fields = "{ 'postCreator': 0 }")
+    Flux<Post> findWithoutCreatorByIdIn(Collection<String> ids);
+}
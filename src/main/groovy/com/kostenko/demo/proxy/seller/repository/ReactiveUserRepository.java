@@ -0,0 +1,26 @@
+package com.kostenko.demo.proxy.seller.repository;
+
+import com.kostenko.demo.proxy.seller.entity.User;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+
+/**
+ * Non-blocking access to users. The reactive driver can't resolve {@code @DBRef}s,
+ * so users are read only through projections without references.
+ */
+@Repository
+@RepositoryRestResource(exported = false)
+public interface ReactiveUserRepository extends ReactiveMongoRepository<User, String> {
+
+    @Query(value = "{ '_id': ?0 }", fields = "{ 'username': 1, 'postCount': 1, 'followerCount': 1, 'followingCount': 1 }")
+    Mono<User> findSummaryById(String id);
+
+    @Query(value = "{ '_id': { '$in': ?0 } }", fields = "{ 'username': 1 }")
+    Flux<User> findUsernamesByIdIn(Collection<String> ids);
+}
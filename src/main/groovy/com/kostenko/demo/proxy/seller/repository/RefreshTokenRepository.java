@@ -14,4 +14,6 @@ public interface RefreshTokenRepository extends MongoRepository<RefreshToken, St
 
     Optional<RefreshToken> findByToken(String token);
 
+    void deleteAllByUserId(String userId);
+
 }
@@ -0,0 +1,24 @@
+package com.kostenko.demo.proxy.seller.repository;
+
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository for managing {@link com.kostenko.demo.proxy.seller.entity.TimelineEntry} entities in MongoDB.
+ */
+@Repository
+@RepositoryRestResource(exported = false)
+public interface TimelineEntryRepository extends MongoRepository<TimelineEntry, String> {
+
+    void deleteAllByOwnerId(String ownerId);
+
+    void deleteAllByAuthorId(String authorId);
+
+    void deleteAllByOwnerIdAndAuthorId(String ownerId, String authorId);
+
+    void deleteAllByPostId(String postId);
+
+    void deleteAllByReferenceId(String referenceId);
+}
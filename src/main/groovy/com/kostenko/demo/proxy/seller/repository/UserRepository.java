@@ -2,9 +2,14 @@ package com.kostenko.demo.proxy.seller.repository;
 
 import com.kostenko.demo.proxy.seller.entity.User;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 /**
  * Repository for managing {@link com.kostenko.demo.proxy.seller.entity.User} entities in MongoDB.
  */
@@ -27,4 +32,23 @@ public interface UserRepository extends MongoRepository<User, String> {
      * @return true if a user with the specified username exists, false otherwise.
      */
     boolean existsByUsername(String username);
+
+    /**
+     * Retrieves the user reading only the fields shown on his public page,
+     * so neither the password nor any of the references are loaded.
+     *
+     * @param id The id of the user to retrieve.
+     * @return The user with only id, username and counters populated.
+     */
+    @Query(value = "{ '_id': ?0 }", fields = "{ 'username': 1, 'postCount': 1, 'followerCount': 1, 'followingCount': 1 }")
+    Optional<User> findSummaryById(String id);
+
+    /**
+     * Retrieves users with the specified ids, reading only their usernames.
+     *
+     * @param ids The ids of the users to retrieve.
+     * @return Users with only id and username populated.
+     */
+    @Query(value = "{ '_id': { '$in': ?0 } }", fields = "{ 'username': 1 }")
+    List<User> findUsernamesByIdIn(Collection<String> ids);
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.FeedEntryType;
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry;
+
+import java.time.Instant;
+
+/**
+ * Application event published when a user creates a post, likes a post or comments on it.
+ *
+ * @param type        Kind of the activity.
+ * @param authorId    Id of the user who performed the activity.
+ * @param postId      Id of the post the activity is about.
+ * @param referenceId Id of the created post, like or comment.
+ * @param createdAt   Creation time of the activity.
+ */
+public record ActivityEvent(FeedEntryType type, String authorId, String postId, String referenceId, Instant createdAt) {
+
+    /**
+     * @return The activity as a timeline entry of nobody in particular, identified by the referenced document.
+     */
+    public TimelineEntry toEntry() {
+        return TimelineEntry.builder()
+                .id(referenceId)
+                .authorId(authorId)
+                .type(type)
+                .postId(postId)
+                .referenceId(referenceId)
+                .createdAt(createdAt)
+                .build();
+    }
+}
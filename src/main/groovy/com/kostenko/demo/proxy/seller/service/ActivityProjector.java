@@ -0,0 +1,136 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.FeedEntryType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Maintains state derived from posts, likes and comments: timelines of followers, cached pages
+ * and {@link ActivityEvent}s for live newsfeed streams.
+ * <p>
+ * Write paths report their changes here. By default the derived state is updated right away,
+ * with changeStream.enabled it is left to {@link ChangeStreamConsumer}, which projects the same changes
+ * asynchronously from the MongoDB change stream, so write endpoints return as soon as their own document is stored.
+ * Changes reported within a transaction are projected once it commits, so that neither a rolled back write
+ * is projected nor a page cached again from the state before the commit.
+ */
+@Service
+public class ActivityProjector {
+
+    /**
+     * Service maintaining materialized newsfeed timelines of followers.
+     */
+    private final TimelineService timelineService;
+    /**
+     * Cache of public user pages and post comments.
+     */
+    private final PageCacheService pageCacheService;
+    /**
+     * Versions of pages showing the activity.
+     */
+    private final PageVersions pageVersions;
+    /**
+     * Publisher of {@link ActivityEvent}s streamed to connected followers.
+     */
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Whether changes are projected from the change stream instead of the write paths.
+     */
+    @Value("${changeStream.enabled}")
+    private boolean deferred;
+
+    @Autowired
+    public ActivityProjector(TimelineService timelineService,
+                             PageCacheService pageCacheService,
+                             PageVersions pageVersions,
+                             ApplicationEventPublisher eventPublisher) {
+        this.timelineService = timelineService;
+        this.pageCacheService = pageCacheService;
+        this.pageVersions = pageVersions;
+        this.eventPublisher = eventPublisher;
+    }
+
+
+    /**
+     * Reports a new post, like or comment.
+     *
+     * @param event The new activity.
+     */
+    public void created(ActivityEvent event) {
+        if (!deferred) {
+            Transactions.afterCommit(() -> project(event));
+        }
+    }
+
+
+    /**
+     * Reports a removed like.
+     *
+     * @param userId The unique identifier of the user who liked the post.
+     * @param likeId The unique identifier of the removed like.
+     */
+    public void likeRemoved(String userId, String likeId) {
+        Transactions.afterCommit(() -> {
+            if (!deferred) {
+                projectLikeRemoval(likeId);
+            }
+            // The change stream doesn't carry the user of a removed like
+            pageVersions.touchUsers(List.of(userId));
+            pageCacheService.invalidateUserPage(userId);
+        });
+    }
+
+
+    /**
+     * Reports a deleted post.
+     *
+     * @param authorId The unique identifier of the author of the post.
+     * @param postId   The unique identifier of the deleted post.
+     */
+    public void postDeleted(String authorId, String postId) {
+        Transactions.afterCommit(() -> {
+            if (!deferred) {
+                projectPostDeletion(postId);
+            }
+            // The change stream doesn't carry the author of a deleted post
+            pageVersions.touchUsers(List.of(authorId));
+            pageCacheService.invalidateUserPage(authorId);
+        });
+    }
+
+
+    /**
+     * Copies the activity into timelines of followers, evicts pages showing it and publishes it to live streams.
+     */
+    void project(ActivityEvent event) {
+        timelineService.fanOut(event.type(), event.authorId(), event.postId(), event.referenceId(), event.createdAt());
+        pageVersions.touchUsers(List.of(event.authorId()));
+        pageCacheService.invalidateUserPage(event.authorId());
+        if (event.type() == FeedEntryType.COMMENT) {
+            // The comment is listed before its commentCount is dispatched from the outbox
+            pageVersions.touchPosts(List.of(event.postId()));
+            pageCacheService.invalidatePostComments(event.postId());
+        }
+        eventPublisher.publishEvent(event);
+    }
+
+
+    void projectLikeRemoval(String likeId) {
+        timelineService.removeReference(likeId);
+    }
+
+
+    /**
+     * Removes the post and activity on it from timelines. The page of the author is versioned and evicted
+     * by the caller, the change stream doesn't carry the author of a deleted post.
+     */
+    void projectPostDeletion(String postId) {
+        timelineService.removePost(postId);
+        pageCacheService.invalidatePostComments(postId);
+    }
+}
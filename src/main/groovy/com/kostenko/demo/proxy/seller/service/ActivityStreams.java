@@ -0,0 +1,196 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.Comment;
+import com.kostenko.demo.proxy.seller.entity.FeedEntryType;
+import com.kostenko.demo.proxy.seller.entity.Like;
+import com.kostenko.demo.proxy.seller.entity.Post;
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry;
+import com.kostenko.demo.proxy.seller.entity.User;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.LazyLoadingProxy;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Reads the activity of users at read time as streams of timeline entries, newest first for pages
+ * of the newsfeed or in the order of insertion for activity newer than since, and merges such streams into newsfeed pages.
+ * Authors are split into batches, and for every batch a cursor over posts, likes and comments is opened.
+ * Merging stops as soon as the page is full, so only about one page per cursor is ever read.
+ */
+@Service
+public class ActivityStreams {
+
+    /**
+     * Order of activity, oldest first with the id of the referenced document as a tiebreak.
+     * Hexadecimal strings of ObjectIds compare the same way as the ObjectIds in the database.
+     */
+    protected static final Comparator<TimelineEntry> OLDEST_FIRST = Comparator
+            .comparing(TimelineEntry::getCreatedAt)
+            .thenComparing(TimelineEntry::getReferenceId);
+    /**
+     * Order of the newsfeed, newest first with the id of the referenced document as a tiebreak.
+     */
+    protected static final Comparator<TimelineEntry> NEWEST_FIRST = OLDEST_FIRST.reversed();
+    /**
+     * Order of insertion, by the ObjectIds of the entries.
+     */
+    protected static final Comparator<TimelineEntry> INSERTED_FIRST = Comparator.comparing(TimelineEntry::getId);
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Number of authors read with a single cursor.
+     */
+    @Value("${feed.merge.batchSize}")
+    private int batchSize;
+
+    @Autowired
+    public ActivityStreams(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+
+    /**
+     * Opens cursors over posts, likes and comments of the specified authors in the given order, starting after the page cursor.
+     * Entries are built as if they were stored in the timeline of the owner, with the id of the referenced document.
+     * The caller must close the returned streams.
+     *
+     * @param ownerId   The unique identifier of the user whose newsfeed is read.
+     * @param authorIds The unique identifiers of the authors.
+     * @param cursor    Position after which entries are returned, null for the first page.
+     * @param direction Order of the entries, {@link Sort.Direction#DESC} for the newest entries first.
+     * @param limit     Maximum number of entries in the page.
+     * @return Streams of at most {@code limit + 1} entries each.
+     */
+    public List<Stream<TimelineEntry>> open(String ownerId, List<String> authorIds, PageCursor cursor, Sort.Direction direction, int limit) {
+        return open(ownerId, authorIds, (authorField, batch) -> PageCursor.pageQuery(Criteria.where(authorField).in(batch), cursor, direction, limit));
+    }
+
+
+    /**
+     * Opens cursors over posts, likes and comments of the specified authors inserted after the given id,
+     * in the order of insertion. The caller must close the returned streams.
+     *
+     * @param ownerId   The unique identifier of the user whose newsfeed is read.
+     * @param authorIds The unique identifiers of the authors.
+     * @param since     The id after which documents are returned.
+     * @param limit     Maximum number of entries.
+     * @return Streams of at most {@code limit + 1} entries each.
+     */
+    public List<Stream<TimelineEntry>> openSince(String ownerId, List<String> authorIds, ObjectId since, int limit) {
+        return open(ownerId, authorIds, (authorField, batch) -> Query.query(Criteria.where(authorField).in(batch).and("_id").gt(since))
+                .with(Sort.by(Sort.Direction.ASC, "_id"))
+                .limit(limit + 1));
+    }
+
+
+    private List<Stream<TimelineEntry>> open(String ownerId, List<String> authorIds, BiFunction<String, List<String>, Query> queryOf) {
+        List<Stream<TimelineEntry>> streams = new ArrayList<>();
+        try {
+            for (int from = 0; from < authorIds.size(); from += batchSize) {
+                List<String> batch = authorIds.subList(from, Math.min(from + batchSize, authorIds.size()));
+                streams.add(open(Post.class, queryOf.apply("postCreator.id", batch),
+                        post -> toEntry(ownerId, FeedEntryType.POST, creatorIdOf(post), post.getId(), post.getId(), post.getCreatedAt())));
+                streams.add(open(Like.class, queryOf.apply("userId", batch),
+                        like -> toEntry(ownerId, FeedEntryType.LIKE, like.getUserId(), like.getPostId(), like.getId(), like.getCreatedAt())));
+                streams.add(open(Comment.class, queryOf.apply("userId", batch),
+                        comment -> toEntry(ownerId, FeedEntryType.COMMENT, comment.getUserId(), comment.getPostId(), comment.getId(), comment.getCreatedAt())));
+            }
+            return streams;
+        } catch (RuntimeException e) {
+            streams.forEach(Stream::close);
+            throw e;
+        }
+    }
+
+
+    /**
+     * Merges streams ordered in the given direction into a single list of at most {@code size} entries.
+     */
+    public static List<TimelineEntry> merge(List<Stream<TimelineEntry>> streams, Sort.Direction direction, int size) {
+        return merge(streams, direction.isAscending() ? OLDEST_FIRST : NEWEST_FIRST, size);
+    }
+
+
+    /**
+     * Merges streams ordered by the given comparator into a single list of at most {@code size} entries.
+     */
+    public static List<TimelineEntry> merge(List<Stream<TimelineEntry>> streams, Comparator<TimelineEntry> order, int size) {
+        PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, streams.size()), Comparator.comparing(Head::entry, order));
+        for (Stream<TimelineEntry> stream : streams) {
+            Iterator<TimelineEntry> iterator = stream.iterator();
+            if (iterator.hasNext()) {
+                heads.add(new Head(iterator.next(), iterator));
+            }
+        }
+
+        List<TimelineEntry> page = new ArrayList<>(size);
+        while (page.size() < size && !heads.isEmpty()) {
+            Head head = heads.poll();
+            page.add(head.entry());
+            if (head.rest().hasNext()) {
+                heads.add(new Head(head.rest().next(), head.rest()));
+            }
+        }
+        return page;
+    }
+
+
+    private <T> Stream<TimelineEntry> open(Class<T> type, Query query, Function<T, TimelineEntry> toEntry) {
+        query.cursorBatchSize(query.getLimit());
+        query.fields().exclude("content");
+
+        return mongoTemplate.stream(query, type).map(toEntry);
+    }
+
+
+    private static TimelineEntry toEntry(String ownerId,
+                                         FeedEntryType type,
+                                         String authorId,
+                                         String postId,
+                                         String referenceId,
+                                         Instant createdAt) {
+        return TimelineEntry.builder()
+                .id(referenceId)
+                .ownerId(ownerId)
+                .authorId(authorId)
+                .type(type)
+                .postId(postId)
+                .referenceId(referenceId)
+                .createdAt(createdAt)
+                .build();
+    }
+
+
+    /**
+     * Reads the author id from the {@code postCreator} reference without resolving it.
+     */
+    static String creatorIdOf(Post post) {
+        User postCreator = post.getPostCreator();
+        if (postCreator instanceof LazyLoadingProxy proxy) {
+            return proxy.toDBRef().getId().toString();
+        }
+        return postCreator == null ? null : postCreator.getId();
+    }
+
+
+    /**
+     * Next entry of a cursor together with the rest of it.
+     */
+    private record Head(TimelineEntry entry, Iterator<TimelineEntry> rest) {
+    }
+}
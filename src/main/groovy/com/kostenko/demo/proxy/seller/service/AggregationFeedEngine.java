@@ -0,0 +1,150 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.*;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Feed engine computing a newsfeed page with a single aggregation on the database side.
+ * Posts, likes and comments of followed users are matched and pre-sorted in their own collections,
+ * combined with {@code $unionWith}, sorted and limited to the page, and the authors' usernames
+ * are joined with {@code $lookup}, so that the assembler doesn't need to load them.
+ * Every source is ordered by its ObjectId {@code _id} as a tiebreak, and so are the combined entries,
+ * whose ids are kept until the final projection. Activity newer than since is ordered by the ObjectIds only.
+ * Used when feed.engine is aggregation.
+ */
+@Service
+@ConditionalOnProperty(name = "feed.engine", havingValue = "aggregation")
+public class AggregationFeedEngine implements FeedEngine {
+
+    /**
+     * Service managing the follow graph.
+     */
+    private final FollowService followService;
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public AggregationFeedEngine(FollowService followService, MongoTemplate mongoTemplate) {
+        this.followService = followService;
+        this.mongoTemplate = mongoTemplate;
+    }
+
+
+    @Override
+    public List<TimelineEntry> readPage(String ownerId, PageCursor cursor, Sort.Direction direction, int limit) {
+        Document after = new Document();
+        if (cursor != null) {
+            String operator = direction.isAscending() ? "$gt" : "$lt";
+            Date createdAt = Date.from(cursor.getCreatedAt());
+            after.append("$or", List.of(
+                    new Document("createdAt", new Document(operator, createdAt)),
+                    new Document("createdAt", createdAt).append("_id", new Document(operator, new ObjectId(cursor.getId())))));
+        }
+
+        int order = direction.isAscending() ? 1 : -1;
+        return read(ownerId, after, new Document("createdAt", order).append("_id", order), limit);
+    }
+
+
+    @Override
+    public List<TimelineEntry> readSince(String ownerId, ObjectId since, int limit) {
+        return read(ownerId, new Document("_id", new Document("$gt", since)), new Document("_id", 1), limit);
+    }
+
+
+    /**
+     * Reads the entries of followed users matching the given criteria, in the given order of the sources,
+     * which is applied to the combined entries as well.
+     */
+    private List<TimelineEntry> read(String ownerId, Document after, Document order, int limit) {
+        List<String> followeeIds = followService.findFolloweeIds(ownerId);
+        if (followeeIds.isEmpty()) {
+            return List.of();
+        }
+
+        // postCreator is a DBRef, whose $id can be matched, but not referenced in expressions
+        List<Document> posts = source(
+                new Document("postCreator.$id", new Document("$in", toObjectIds(followeeIds))), after, order, limit,
+                new Document("type", new Document("$literal", FeedEntryType.POST.name()))
+                        .append("authorRef", new Document("$arrayElemAt", List.of(new Document("$objectToArray", "$postCreator"), 1)))
+                        .append("postId", new Document("$toString", "$_id"))
+                        .append("referenceId", new Document("$toString", "$_id")));
+        posts.add(new Document("$set", new Document("authorRef", "$authorRef.v")));
+
+        List<Document> likes = source(
+                new Document("userId", new Document("$in", followeeIds)), after, order, limit,
+                new Document("type", new Document("$literal", FeedEntryType.LIKE.name()))
+                        .append("authorRef", new Document("$toObjectId", "$userId"))
+                        .append("postId", "$postId")
+                        .append("referenceId", new Document("$toString", "$_id")));
+
+        List<Document> comments = source(
+                new Document("userId", new Document("$in", followeeIds)), after, order, limit,
+                new Document("type", new Document("$literal", FeedEntryType.COMMENT.name()))
+                        .append("authorRef", new Document("$toObjectId", "$userId"))
+                        .append("postId", "$postId")
+                        .append("referenceId", new Document("$toString", "$_id")));
+
+        List<AggregationOperation> stages = new ArrayList<>();
+        posts.forEach(stage -> stages.add(Aggregation.stage(stage)));
+        stages.add(Aggregation.stage(unionWith(Like.class, likes)));
+        stages.add(Aggregation.stage(unionWith(Comment.class, comments)));
+        // The ObjectIds of the sources are kept until the final projection, so they order the combined entries as well
+        stages.add(Aggregation.stage(new Document("$sort", order)));
+        stages.add(Aggregation.limit(limit + 1));
+        stages.add(Aggregation.lookup(mongoTemplate.getCollectionName(User.class), "authorRef", "_id", "author"));
+        stages.add(Aggregation.stage(new Document("$project", new Document("_id", "$referenceId")
+                .append("ownerId", new Document("$literal", ownerId))
+                .append("authorId", new Document("$toString", "$authorRef"))
+                .append("authorUsername", new Document("$arrayElemAt", List.of("$author.username", 0)))
+                .append("type", 1)
+                .append("postId", 1)
+                .append("referenceId", 1)
+                .append("createdAt", 1))));
+
+        return mongoTemplate.aggregate(Aggregation.newAggregation(stages),
+                        mongoTemplate.getCollectionName(Post.class), TimelineEntry.class)
+                .getMappedResults();
+    }
+
+
+    /**
+     * Builds stages reading one page of a single collection: matching, starting after the cursor
+     * in the given order, and projecting the fields of a timeline entry.
+     */
+    private static List<Document> source(Document match, Document after, Document order, int limit, Document projection) {
+        match.putAll(after);
+
+        List<Document> stages = new ArrayList<>();
+        stages.add(new Document("$match", match));
+        stages.add(new Document("$sort", order));
+        stages.add(new Document("$limit", limit + 1));
+        stages.add(new Document("$project", projection.append("createdAt", 1)));
+        return stages;
+    }
+
+
+    private Document unionWith(Class<?> type, List<Document> pipeline) {
+        return new Document("$unionWith", new Document("coll", mongoTemplate.getCollectionName(type))
+                .append("pipeline", pipeline));
+    }
+
+
+    private static List<ObjectId> toObjectIds(List<String> ids) {
+        return ids.stream()
+                .filter(ObjectId::isValid)
+                .map(ObjectId::new)
+                .toList();
+    }
+}
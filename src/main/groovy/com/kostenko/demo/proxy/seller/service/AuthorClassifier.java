@@ -0,0 +1,143 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kostenko.demo.proxy.seller.entity.Follow;
+import com.kostenko.demo.proxy.seller.entity.User;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Classifies authors for the hybrid newsfeed. Activity of authors with at least feed.hybrid.followerThreshold
+ * followers isn't fanned out to timelines, it is pulled and merged into the newsfeed at read time instead,
+ * so a single post of a popular author doesn't write an entry for each of his followers.
+ * <p>
+ * The set of such authors is small and is reloaded every feed.hybrid.refresh seconds,
+ * so writes and reads classify authors the same way between reloads.
+ * <p>
+ * The classification is stored in {@link User#getPulled()}, so that a reload tells which authors dropped
+ * below the threshold since the previous one, on any instance. Activity of such an author from the time
+ * it was pulled is missing in timelines, so an {@link AuthorDemotedEvent} is published for it
+ * by the single instance which demotes it.
+ */
+@Slf4j
+@Service
+public class AuthorClassifier {
+
+    private static final String PULLED_AUTHORS_KEY = "pulledAuthors";
+    private final MongoTemplate mongoTemplate;
+    /**
+     * Publisher of {@link AuthorDemotedEvent}s.
+     */
+    private final ApplicationEventPublisher eventPublisher;
+    private final Cache<String, Set<String>> pulledAuthors;
+
+    /**
+     * Minimum number of followers of an author whose activity is pulled, 0 disables the hybrid newsfeed.
+     */
+    private final long followerThreshold;
+
+    /**
+     * Constructs an AuthorClassifier.
+     *
+     * @param mongoTemplate     Template for custom MongoDB queries.
+     * @param eventPublisher    Publisher of demotions of authors.
+     * @param followerThreshold Minimum number of followers of an author whose activity is pulled, 0 to disable.
+     * @param refresh           Time in seconds after which the set of such authors is reloaded.
+     */
+    @Autowired
+    public AuthorClassifier(MongoTemplate mongoTemplate,
+                            ApplicationEventPublisher eventPublisher,
+                            @Value("${feed.hybrid.followerThreshold}") long followerThreshold,
+                            @Value("${feed.hybrid.refresh}") long refresh) {
+        this.mongoTemplate = mongoTemplate;
+        this.eventPublisher = eventPublisher;
+        this.followerThreshold = followerThreshold;
+        this.pulledAuthors = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(refresh))
+                .build();
+    }
+
+
+    /**
+     * @param authorId The unique identifier of the author.
+     * @return true if activity of the author is pulled at read time instead of being fanned out.
+     */
+    public boolean isPulled(String authorId) {
+        return findPulledAuthorIds().contains(authorId);
+    }
+
+
+    /**
+     * Returns ids of users followed by the specified user whose activity is pulled at read time.
+     *
+     * @param ownerId The unique identifier of the follower.
+     * @return Ids of followed users whose activity isn't stored in the timeline of the follower.
+     */
+    public List<String> findPulledFolloweeIds(String ownerId) {
+        Set<String> authorIds = findPulledAuthorIds();
+        if (authorIds.isEmpty()) {
+            return List.of();
+        }
+
+        List<String> followIds = authorIds.stream()
+                .map(authorId -> Follow.idOf(ownerId, authorId))
+                .toList();
+        Query query = Query.query(Criteria.where("_id").in(followIds));
+        query.fields().include("followeeId");
+
+        return mongoTemplate.find(query, Follow.class).stream()
+                .map(Follow::getFolloweeId)
+                .toList();
+    }
+
+
+    private Set<String> findPulledAuthorIds() {
+        if (followerThreshold <= 0) {
+            return Set.of();
+        }
+
+        return pulledAuthors.get(PULLED_AUTHORS_KEY, key -> reclassify());
+    }
+
+
+    /**
+     * Promotes authors who reached the threshold, demotes those who dropped below it, and reads the pulled ones.
+     */
+    private Set<String> reclassify() {
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where("followerCount").gte(followerThreshold).and("pulled").ne(true)),
+                new Update().set("pulled", true),
+                User.class);
+
+        Criteria dropped = Criteria.where("pulled").is(true).and("followerCount").lt(followerThreshold);
+        Query demoted = Query.query(dropped);
+        demoted.fields().include("_id");
+        for (User author : mongoTemplate.find(demoted, User.class)) {
+            // Of instances reloading at once, only the one which clears the flag publishes the demotion
+            Query query = Query.query(Criteria.where("_id").is(author.getId()).andOperator(dropped));
+            if (mongoTemplate.updateFirst(query, new Update().unset("pulled"), User.class).getModifiedCount() > 0) {
+                log.info("Author {} dropped below {} followers, activity is fanned out again", author.getId(), followerThreshold);
+                eventPublisher.publishEvent(new AuthorDemotedEvent(author.getId()));
+            }
+        }
+
+        Query pulled = Query.query(Criteria.where("pulled").is(true));
+        pulled.fields().include("_id");
+        return mongoTemplate.find(pulled, User.class).stream()
+                .map(User::getId)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+}
@@ -0,0 +1,10 @@
+package com.kostenko.demo.proxy.seller.service;
+
+/**
+ * Application event published when activity of an author stops being pulled into newsfeeds
+ * and is fanned out to timelines again.
+ *
+ * @param authorId Id of the demoted author.
+ */
+public record AuthorDemotedEvent(String authorId) {
+}
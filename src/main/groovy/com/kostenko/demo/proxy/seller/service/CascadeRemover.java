@@ -0,0 +1,102 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Removes documents depending on a deleted user or post. A popular post or an active user can have more
+ * dependent documents than a single transaction may write within its size and time limits, so they are removed
+ * in batches, each in a short transaction of its own.
+ */
+@Service
+public class CascadeRemover {
+
+    /**
+     * Maximum number of documents removed by one transaction.
+     */
+    static final int BATCH_SIZE = 500;
+    private final MongoTemplate mongoTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public CascadeRemover(MongoTemplate mongoTemplate, PlatformTransactionManager transactionManager) {
+        this.mongoTemplate = mongoTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+
+    /**
+     * Removes all documents matching the criteria in batches.
+     *
+     * @param criteria Criteria of the removed documents.
+     * @param entity   Type of the removed documents.
+     * @param idOf     Reads the unique identifier of a document.
+     * @return Number of removed documents.
+     */
+    public <T> long removeAll(Criteria criteria, Class<T> entity, Function<T, String> idOf) {
+        return removeAll(criteria, entity, idOf, batch -> {
+        });
+    }
+
+
+    /**
+     * Removes all documents matching the criteria in batches. Each batch is passed to the callback in the transaction
+     * removing it, so that writes derived from the removed documents, such as counter decrements recorded
+     * in the outbox, commit together with their removal. A batch which was partly removed meanwhile by another
+     * request is rolled back and read again, so no document is passed to the callback twice.
+     *
+     * @param criteria  Criteria of the removed documents.
+     * @param entity    Type of the removed documents.
+     * @param idOf      Reads the unique identifier of a document.
+     * @param onRemoval Callback receiving every batch before it is removed.
+     * @return Number of removed documents.
+     */
+    public <T> long removeAll(Criteria criteria, Class<T> entity, Function<T, String> idOf, Consumer<List<T>> onRemoval) {
+        long total = 0;
+        while (true) {
+            Integer removed = transactionTemplate.execute(status -> removeBatch(criteria, entity, idOf, onRemoval, status));
+            if (removed == null || removed == 0) {
+                return total;
+            }
+            if (removed > 0) {
+                total += removed;
+            }
+        }
+    }
+
+
+    /**
+     * Reads the next batch, passes it to the callback and removes it.
+     *
+     * @return Number of removed documents, 0 if none are left, -1 if the batch was rolled back.
+     */
+    private <T> int removeBatch(Criteria criteria,
+                                Class<T> entity,
+                                Function<T, String> idOf,
+                                Consumer<List<T>> onRemoval,
+                                TransactionStatus status) {
+        List<T> batch = mongoTemplate.find(Query.query(criteria).limit(BATCH_SIZE), entity);
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        onRemoval.accept(batch);
+        List<String> ids = batch.stream().map(idOf).toList();
+        long removed = mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), entity).getDeletedCount();
+        if (removed != ids.size()) {
+            status.setRollbackOnly();
+            return -1;
+        }
+        return batch.size();
+    }
+}
@@ -0,0 +1,365 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.*;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Projects changes of posts, likes, comments and users from the MongoDB change stream into derived state
+ * through {@link ActivityProjector}, instead of the write paths doing it. Used when changeStream.enabled is true,
+ * which requires MongoDB running as a replica set.
+ * <p>
+ * Changes are read in batches of up to changeStream.batchSize on a dedicated thread, and the resume token
+ * of the last processed change is stored in the {@link ChangeStreamCheckpoint} collection after every batch,
+ * so that the consumer continues where it stopped after a restart. Changes of a batch interrupted by a crash
+ * are projected again, which is harmless as timelines don't accept the same entry twice.
+ * <p>
+ * A change which can't be projected stops the batch: the checkpoint is stored up to the change before it,
+ * and the stream is reopened from there after a backoff growing up to {@value #MAX_RETRY_DELAY_MILLIS} ms,
+ * so no change is skipped.
+ * <p>
+ * Only one instance consumes at a time. The consumer holds a lease on the checkpoint for changeStream.lease
+ * seconds, renews it while consuming, and stores the checkpoint only while it still owns it.
+ * Other instances wait and take over once the lease expires.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "changeStream.enabled", havingValue = "true")
+public class ChangeStreamConsumer {
+
+    protected static final String CHECKPOINT_ID = "derivedState";
+    /**
+     * Error code of a resume token which is no longer in the oplog.
+     */
+    private static final int HISTORY_LOST_ERROR_CODE = 286;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+    private final MongoTemplate mongoTemplate;
+    /**
+     * Maintainer of state derived from posts, likes and comments.
+     */
+    private final ActivityProjector activityProjector;
+    /**
+     * Cache of public user pages and post comments.
+     */
+    private final PageCacheService pageCacheService;
+    /**
+     * Owner of the lease held by this instance.
+     */
+    private final String instanceId = UUID.randomUUID().toString();
+    private volatile boolean running;
+    private Thread worker;
+    private long retryDelay = RETRY_DELAY_MILLIS;
+    private Instant leaseRenewed = Instant.EPOCH;
+
+    /**
+     * Maximum number of changes projected before the checkpoint is stored.
+     */
+    @Value("${changeStream.batchSize}")
+    private int batchSize;
+
+    /**
+     * Seconds for which the consuming instance holds the checkpoint.
+     */
+    @Value("${changeStream.lease}")
+    private long lease;
+
+    @Autowired
+    public ChangeStreamConsumer(MongoTemplate mongoTemplate,
+                                ActivityProjector activityProjector,
+                                PageCacheService pageCacheService) {
+        this.mongoTemplate = mongoTemplate;
+        this.activityProjector = activityProjector;
+        this.pageCacheService = pageCacheService;
+    }
+
+
+    /**
+     * Starts consuming once the application is ready, indexes included.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        worker = new Thread(this::run, "change-stream-consumer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+
+    /**
+     * Stops consuming and releases the lease, so that another instance takes over right away.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            worker.join(MAX_RETRY_DELAY_MILLIS);
+        }
+        mongoTemplate.updateFirst(owned(), new Update().unset("owner").unset("leaseUntil"), ChangeStreamCheckpoint.class);
+    }
+
+
+    private void run() {
+        while (running) {
+            try {
+                if (!acquireLease()) {
+                    pause(TimeUnit.SECONDS.toMillis(lease) / 2);
+                    continue;
+                }
+                try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = open()) {
+                    consume(cursor);
+                }
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() != HISTORY_LOST_ERROR_CODE) {
+                    retryLater("Change stream failed, reopening", e);
+                    continue;
+                }
+                // Changes missed in the meantime are left to the reconciliation jobs
+                log.error("Change stream checkpoint is no longer in the oplog, resuming from the current position", e);
+                mongoTemplate.updateFirst(owned(), new Update().unset("resumeToken"), ChangeStreamCheckpoint.class);
+            } catch (LeaseLostException e) {
+                log.warn("Change stream lease was taken over by another instance");
+            } catch (RuntimeException e) {
+                if (running) {
+                    retryLater("Change stream failed, reopening from the checkpoint", e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Takes the lease if it is free, expired or already held by this instance. The checkpoint document is created
+     * with the first lease, a lease held by another instance fails its upsert on the duplicate id.
+     */
+    private boolean acquireLease() {
+        Instant now = Instant.now();
+        Query query = Query.query(Criteria.where("_id").is(CHECKPOINT_ID).orOperator(
+                Criteria.where("leaseUntil").is(null),
+                Criteria.where("leaseUntil").lt(now),
+                Criteria.where("owner").is(instanceId)));
+        Update update = new Update().set("owner", instanceId).set("leaseUntil", now.plusSeconds(lease));
+        try {
+            mongoTemplate.upsert(query, update, ChangeStreamCheckpoint.class);
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+        leaseRenewed = now;
+        return true;
+    }
+
+
+    /**
+     * Extends the lease once a third of it has passed.
+     *
+     * @throws LeaseLostException - if another instance took the lease over.
+     */
+    private void renewLease() {
+        Instant now = Instant.now();
+        if (now.isBefore(leaseRenewed.plusSeconds(lease / 3))) {
+            return;
+        }
+        if (mongoTemplate.updateFirst(owned(), new Update().set("leaseUntil", now.plusSeconds(lease)),
+                ChangeStreamCheckpoint.class).getMatchedCount() == 0) {
+            throw new LeaseLostException();
+        }
+        leaseRenewed = now;
+    }
+
+
+    /**
+     * Stores the resume token, as long as this instance still holds the lease.
+     *
+     * @throws LeaseLostException - if another instance took the lease over.
+     */
+    private void checkpoint(BsonDocument resumeToken) {
+        Update update = new Update().set("resumeToken", resumeToken.toJson()).set("updatedAt", Instant.now());
+        if (mongoTemplate.updateFirst(owned(), update, ChangeStreamCheckpoint.class).getMatchedCount() == 0) {
+            throw new LeaseLostException();
+        }
+    }
+
+
+    private Query owned() {
+        return Query.query(Criteria.where("_id").is(CHECKPOINT_ID).and("owner").is(instanceId));
+    }
+
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> open() {
+        List<String> collections = List.of(
+                mongoTemplate.getCollectionName(Post.class),
+                mongoTemplate.getCollectionName(Like.class),
+                mongoTemplate.getCollectionName(Comment.class),
+                mongoTemplate.getCollectionName(User.class));
+
+        ChangeStreamIterable<Document> stream = mongoTemplate.getDb()
+                .watch(List.of(Aggregates.match(Filters.and(
+                        Filters.in("ns.coll", collections),
+                        Filters.in("operationType", "insert", "update", "replace", "delete")))))
+                .batchSize(batchSize)
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+
+        ChangeStreamCheckpoint checkpoint = mongoTemplate.findById(CHECKPOINT_ID, ChangeStreamCheckpoint.class);
+        if (checkpoint != null && checkpoint.getResumeToken() != null) {
+            stream = stream.resumeAfter(BsonDocument.parse(checkpoint.getResumeToken()));
+        }
+        return stream.cursor();
+    }
+
+
+    private void consume(MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor) {
+        BsonDocument checkpointed = null;
+        while (running) {
+            renewLease();
+
+            List<ChangeStreamDocument<Document>> batch = new ArrayList<>();
+            ChangeStreamDocument<Document> change;
+            while (batch.size() < batchSize && (change = cursor.tryNext()) != null) {
+                batch.add(change);
+            }
+
+            BsonDocument projected = null;
+            for (ChangeStreamDocument<Document> processed : batch) {
+                try {
+                    project(processed);
+                } catch (RuntimeException e) {
+                    if (projected != null) {
+                        checkpoint(projected);
+                    }
+                    throw new IllegalStateException(String.format("Change %s of %s couldn't be projected",
+                            processed.getDocumentKey(), processed.getNamespace()), e);
+                }
+                projected = processed.getResumeToken();
+            }
+
+            // An idle stream still advances its token, storing it keeps the checkpoint inside the oplog window
+            BsonDocument resumeToken = batch.isEmpty() ? cursor.getResumeToken() : projected;
+            if (resumeToken != null && !resumeToken.equals(checkpointed)) {
+                checkpoint(resumeToken);
+                checkpointed = resumeToken;
+            }
+            retryDelay = RETRY_DELAY_MILLIS;
+        }
+    }
+
+
+    private void project(ChangeStreamDocument<Document> change) {
+        String collection = change.getNamespace().getCollectionName();
+        switch (change.getOperationType()) {
+            case INSERT -> projectInsert(collection, change.getFullDocument());
+            case DELETE -> projectDelete(collection, idOf(change.getDocumentKey()));
+            case UPDATE, REPLACE -> projectUpdate(collection, change);
+            default -> {
+            }
+        }
+    }
+
+
+    private void projectInsert(String collection, Document document) {
+        if (collection.equals(mongoTemplate.getCollectionName(Post.class))) {
+            Post post = mongoTemplate.getConverter().read(Post.class, document);
+            activityProjector.project(new ActivityEvent(FeedEntryType.POST, ActivityStreams.creatorIdOf(post),
+                    post.getId(), post.getId(), post.getCreatedAt()));
+        } else if (collection.equals(mongoTemplate.getCollectionName(Like.class))) {
+            Like like = mongoTemplate.getConverter().read(Like.class, document);
+            activityProjector.project(new ActivityEvent(FeedEntryType.LIKE, like.getUserId(),
+                    like.getPostId(), like.getId(), like.getCreatedAt()));
+        } else if (collection.equals(mongoTemplate.getCollectionName(Comment.class))) {
+            Comment comment = mongoTemplate.getConverter().read(Comment.class, document);
+            activityProjector.project(new ActivityEvent(FeedEntryType.COMMENT, comment.getUserId(),
+                    comment.getPostId(), comment.getId(), comment.getCreatedAt()));
+        }
+    }
+
+
+    private void projectDelete(String collection, String id) {
+        if (collection.equals(mongoTemplate.getCollectionName(Post.class))) {
+            activityProjector.projectPostDeletion(id);
+        } else if (collection.equals(mongoTemplate.getCollectionName(Like.class))) {
+            activityProjector.projectLikeRemoval(id);
+        } else if (collection.equals(mongoTemplate.getCollectionName(User.class))) {
+            pageCacheService.invalidateUserPage(id);
+        }
+    }
+
+
+    /**
+     * Counters of users, including postCount of the author of a new or deleted post, are changed in place,
+     * so every update of a user evicts the user's page.
+     */
+    private void projectUpdate(String collection, ChangeStreamDocument<Document> change) {
+        if (!collection.equals(mongoTemplate.getCollectionName(User.class))) {
+            return;
+        }
+
+        // The username is shown on pages of other users as well
+        boolean usernameChanged = change.getUpdateDescription() == null
+                || change.getUpdateDescription().getUpdatedFields() == null
+                || change.getUpdateDescription().getUpdatedFields().containsKey("username");
+        if (usernameChanged) {
+            pageCacheService.invalidateAll();
+        } else {
+            pageCacheService.invalidateUserPage(idOf(change.getDocumentKey()));
+        }
+    }
+
+
+    private static String idOf(BsonDocument documentKey) {
+        BsonValue id = documentKey.get("_id");
+        return id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.asString().getValue();
+    }
+
+
+    /**
+     * Waits before the stream is reopened, twice as long as the previous time up to {@link #MAX_RETRY_DELAY_MILLIS}.
+     */
+    private void retryLater(String message, RuntimeException e) {
+        log.warn("{}, retrying in {} ms", message, retryDelay, e);
+        pause(retryDelay);
+        retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+    }
+
+
+    private void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+
+    /**
+     * Thrown when the checkpoint turns out to be owned by another instance.
+     */
+    private static class LeaseLostException extends RuntimeException {
+    }
+}
@@ -1,23 +1,28 @@
 package com.kostenko.demo.proxy.seller.service;
 
 import com.kostenko.demo.proxy.seller.dto.CommentDTO;
+import com.kostenko.demo.proxy.seller.dto.CommentPageDTO;
 import com.kostenko.demo.proxy.seller.entity.Comment;
+import com.kostenko.demo.proxy.seller.entity.FeedEntryType;
+import com.kostenko.demo.proxy.seller.entity.OutboxEntry;
 import com.kostenko.demo.proxy.seller.entity.Post;
 import com.kostenko.demo.proxy.seller.entity.User;
 import com.kostenko.demo.proxy.seller.error.ResourceNotFoundException;
+import com.kostenko.demo.proxy.seller.mapper.DtoMapper;
 import com.kostenko.demo.proxy.seller.repository.CommentRepository;
 import com.kostenko.demo.proxy.seller.repository.PostRepository;
 import com.kostenko.demo.proxy.seller.repository.UserRepository;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 
@@ -36,22 +41,58 @@ public class CommentService {
      */
     private final CommentRepository commentRepository;
     /**
-     * Mapper for converting entities to DTOs and vice versa.
+     * Mapper for converting entities to DTOs.
      */
-    private final ModelMapper modelMapper;
+    private final DtoMapper dtoMapper;
     private final MongoTemplate mongoTemplate;
+    /**
+     * Cache of the first pages of post comments.
+     */
+    private final PageCacheService pageCacheService;
+    /**
+     * Maintainer of timelines, cached pages and live streams derived from comments.
+     */
+    private final ActivityProjector activityProjector;
+    /**
+     * Outbox of comment counters of posts.
+     */
+    private final CounterOutbox counterOutbox;
+    /**
+     * In-memory like counters of hot posts, whose changes are added to the persisted likeCount of mapped posts.
+     */
+    private final HotLikeCounters hotLikeCounters;
+    /**
+     * Versions of posts, which version the pages of their comments.
+     */
+    private final PageVersions pageVersions;
+    /**
+     * Removes comments of deleted users in batches.
+     */
+    private final CascadeRemover cascadeRemover;
 
     @Autowired
     public CommentService(PostRepository postRepository,
                           UserRepository userRepository,
                           CommentRepository commentRepository,
-                          ModelMapper modelMapper,
-                          MongoTemplate mongoTemplate) {
+                          DtoMapper dtoMapper,
+                          MongoTemplate mongoTemplate,
+                          PageCacheService pageCacheService,
+                          ActivityProjector activityProjector,
+                          CounterOutbox counterOutbox,
+                          HotLikeCounters hotLikeCounters,
+                          PageVersions pageVersions,
+                          CascadeRemover cascadeRemover) {
         this.postRepository = postRepository;
         this.userRepository = userRepository;
         this.commentRepository = commentRepository;
-        this.modelMapper = modelMapper;
+        this.dtoMapper = dtoMapper;
         this.mongoTemplate = mongoTemplate;
+        this.pageCacheService = pageCacheService;
+        this.activityProjector = activityProjector;
+        this.counterOutbox = counterOutbox;
+        this.hotLikeCounters = hotLikeCounters;
+        this.pageVersions = pageVersions;
+        this.cascadeRemover = cascadeRemover;
     }
 
 
@@ -70,7 +111,7 @@ public class CommentService {
                                     String content,
                                     String postId) {
 
-        User commentAuthor = userRepository.findById(userId)
+        User commentAuthor = userRepository.findSummaryById(userId)
                 .orElseThrow(() -> new ResourceNotFoundException(String.format(UserService.ID_NOT_FOUND_MESSAGE, userId)));
 
         Post commentedPost = postRepository.findById(postId)
@@ -78,40 +119,107 @@ public class CommentService {
 
         Comment comment = Comment.builder()
                 .content(content)
-                .user(commentAuthor)
-                .commentCreator(commentedPost)
+                .userId(userId)
+                .postId(postId)
                 .build();
 
         commentRepository.save(comment);
+        counterOutbox.record(counterOutbox.increment(Post.class, postId, "commentCount", 1));
 
-        addCommentToUser(userId, comment);
-        addCommentToPost(postId, comment);
+        activityProjector.created(new ActivityEvent(FeedEntryType.COMMENT, userId, postId, comment.getId(), comment.getCreatedAt()));
 
+        return dtoMapper.toCommentDTO(comment, commentedPost, commentAuthor, hotLikeCounters.pending(postId));
+    }
 
-        return modelMapper.map(comment, CommentDTO.class);
+
+    /**
+     * Removes the comments a deleted user left on posts in batches. Each batch is removed together with
+     * the commentCount decrements of the commented posts, whose comment pages stop listing it right away
+     * instead of once the counters are dispatched.
+     *
+     * @param userId The unique identifier of the deleted user.
+     */
+    public void removeUser(String userId) {
+        cascadeRemover.removeAll(Criteria.where("userId").is(userId), Comment.class, Comment::getId, comments -> {
+            counterOutbox.record(comments.stream()
+                    .map(comment -> counterOutbox.increment(Post.class, comment.getPostId(), "commentCount", -1))
+                    .toArray(OutboxEntry.Increment[]::new));
+
+            List<String> postIds = comments.stream().map(Comment::getPostId).distinct().toList();
+            pageVersions.touchPosts(postIds);
+            Transactions.afterCommit(() -> postIds.forEach(pageCacheService::invalidatePostComments));
+        });
     }
 
 
-    protected void addCommentToUser(String userId, Comment comment) {
-        Query query = Query.query(Criteria.where("_id").is(userId));
-        Update update = new Update().addToSet("comments", comment);
-        mongoTemplate.updateFirst(query, update, User.class);
+    /**
+     * Returns a page of comments on the post, oldest first. Comments are read through
+     * the {@code postId, createdAt, _id} index, so every page costs the same regardless of its position.
+     * The first page of the default size is served from {@link PageCacheService}.
+     *
+     * @param postId   The unique identifier of the commented post.
+     * @param cursor   Cursor returned with the previous page, null for the first page.
+     * @param pageSize Maximum number of comments in the page, defaults to {@link PageCursor#DEFAULT_PAGE_SIZE}.
+     * @return {@link CommentPageDTO} with the cursor of the next page.
+     * @throws ResourceNotFoundException - if the post with the given postId is not found in the database.
+     * @throws IllegalArgumentException  - if the cursor is malformed or the page size is out of bounds.
+     */
+    public CommentPageDTO getPostComments(String postId, String cursor, Integer pageSize) {
+        return versionedPostComments(postId, cursor, pageSize).body().get();
     }
 
 
-    protected void addCommentToPost(String postId, Comment comment) {
-        Query query = Query.query(Criteria.where("_id").is(postId));
-        Update update = new Update().addToSet("comments", comment);
-        mongoTemplate.updateFirst(query, update, Post.class);
+    /**
+     * Returns a page of comments on the post together with its version, which is the {@link PageVersions} of the post
+     * read before the page is built or taken from the cache, along with likes of the post not persisted yet.
+     * The version changes with every new comment, with the counters of the post and with usernames of commenters.
+     *
+     * @param postId   The unique identifier of the commented post.
+     * @param cursor   Cursor returned with the previous page, null for the first page.
+     * @param pageSize Maximum number of comments in the page, defaults to {@link PageCursor#DEFAULT_PAGE_SIZE}.
+     * @return {@link Versioned} {@link CommentPageDTO} with the cursor of the next page.
+     * @throws ResourceNotFoundException - if the post with the given postId is not found in the database.
+     * @throws IllegalArgumentException  - if the cursor is malformed or the page size is out of bounds.
+     */
+    public Versioned<CommentPageDTO> versionedPostComments(String postId, String cursor, Integer pageSize) {
+        // A malformed request is rejected before its version could match
+        int limit = PageCursor.pageSize(pageSize);
+        PageCursor pageCursor = PageCursor.decode(cursor);
+
+        String etag = Versioned.etagOf(postId, pageVersions.ofPost(postId), hotLikeCounters.pending(postId));
+        if (pageCursor == null && limit == PageCursor.DEFAULT_PAGE_SIZE) {
+            return new Versioned<>(etag, () -> pageCacheService.getPostComments(postId, etag, id -> loadPostComments(id, null, limit)));
+        }
+        return new Versioned<>(etag, () -> loadPostComments(postId, pageCursor, limit));
     }
 
 
-    public Set<CommentDTO> getPostComments(String postId) {
+    private CommentPageDTO loadPostComments(String postId, PageCursor pageCursor, int limit) {
         Post post = postRepository.findById(postId)
                 .orElseThrow(() -> new ResourceNotFoundException(String.format(PostService.ID_NOT_FOUND_MESSAGE, postId)));
-        return post
-                .getComments()
-                .stream().map(element -> modelMapper.map(element, CommentDTO.class))
-                .collect(Collectors.toSet());
+
+        Query query = PageCursor.pageQuery(Criteria.where("postId").is(postId), pageCursor, Sort.Direction.ASC, limit);
+
+        List<Comment> comments = mongoTemplate.find(query, Comment.class);
+        String nextCursor = null;
+        if (comments.size() > limit) {
+            comments = comments.subList(0, limit);
+            Comment last = comments.get(limit - 1);
+            nextCursor = new PageCursor(last.getCreatedAt(), last.getId()).encode();
+        }
+
+        List<String> authorIds = comments.stream().map(Comment::getUserId).distinct().toList();
+        Map<String, User> authors = authorIds.isEmpty()
+                ? Map.of()
+                : userRepository.findUsernamesByIdIn(authorIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+
+        return CommentPageDTO.builder()
+                .comments(comments.stream()
+                        .map(comment -> dtoMapper.toCommentDTO(comment, post, authors.get(comment.getUserId()), hotLikeCounters.pending(post.getId())))
+                        .toList())
+                .totalCount(post.getCommentCount())
+                .nextCursor(nextCursor)
+                .build();
     }
 }
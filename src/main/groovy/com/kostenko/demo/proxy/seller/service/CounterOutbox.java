@@ -0,0 +1,418 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.OutboxEntry;
+import com.kostenko.demo.proxy.seller.entity.Post;
+import com.kostenko.demo.proxy.seller.entity.User;
+import com.mongodb.TransactionOptions;
+import com.mongodb.WriteConcern;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.MongoTransactionManager;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outbox of denormalized counters: likeCount and commentCount of posts, postCount, followerCount
+ * and followingCount of users. Write paths store the increments following their write as an {@link OutboxEntry}
+ * in the transaction of the write itself, instead of updating the counted documents one by one, and a scheduled
+ * dispatch applies them with a bulk write per collection, summing increments of the same counter.
+ * A burst of likes or follows of a single post or user thus becomes one update of its document per dispatch.
+ * <p>
+ * Increments recorded within one transaction are merged in memory into a single entry stored right before it commits.
+ * Likes of hot posts are coalesced across requests by {@link HotLikeCounters} before they reach the outbox.
+ * <p>
+ * Commits of entries wake the dispatch of their instance up: it starts within outbox.dispatchDelay milliseconds,
+ * or right away once outbox.flushSize entries were committed. While the outbox is found empty, e.g. without writes
+ * on this instance, it is polled with a delay doubling up to outbox.maxIdleDelay milliseconds. Every batch is read, applied and removed
+ * in one transaction committed with outbox.writeConcern, so increments are applied exactly once: a dispatch
+ * of another instance touching the same entries or counters aborts on the write conflict and its entries
+ * are picked up again by a later dispatch. Counters lag behind the writes by up to outbox.dispatchDelay, entries
+ * of a dispatch which failed are retried within outbox.maxIdleDelay.
+ * The number of entries and of updated documents per batch are recorded in the outbox.batch.entries
+ * and outbox.batch.documents metrics.
+ */
+@Slf4j
+@Service
+public class CounterOutbox {
+
+    private final MongoTemplate mongoTemplate;
+    /**
+     * Template of the transactions applying batches, committed with the write concern configured for them.
+     */
+    private final TransactionTemplate transactionTemplate;
+    /**
+     * Executor of dispatches triggered by the number of recorded entries, Spring Boot's application task executor.
+     */
+    private final AsyncTaskExecutor taskExecutor;
+    /**
+     * Cache of public pages showing the counters.
+     */
+    private final PageCacheService pageCacheService;
+    private final DistributionSummary batchEntries;
+    private final DistributionSummary batchDocuments;
+    /**
+     * Entries committed by this instance since the last dispatch started.
+     */
+    private final AtomicInteger recorded = new AtomicInteger();
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+    /**
+     * Current delay between polls of an idle outbox in milliseconds, 0 while entries are being applied.
+     */
+    private long idleDelay;
+    /**
+     * Time in milliseconds before which an idle outbox isn't polled unless an entry is committed.
+     */
+    private volatile long idleUntil;
+
+    /**
+     * Milliseconds between checks whether a dispatch is due.
+     */
+    @Value("${outbox.dispatchDelay}")
+    private long dispatchDelay;
+
+    /**
+     * Maximum delay in milliseconds between polls of an outbox found empty.
+     */
+    @Value("${outbox.maxIdleDelay}")
+    private long maxIdleDelay;
+
+    /**
+     * Maximum number of entries applied by one transaction.
+     */
+    @Value("${outbox.batchSize}")
+    private int batchSize;
+
+    /**
+     * Number of committed entries which starts a dispatch before outbox.dispatchDelay elapses.
+     */
+    @Value("${outbox.flushSize}")
+    private int flushSize;
+
+    @Autowired
+    public CounterOutbox(MongoTemplate mongoTemplate,
+                         @Qualifier("applicationTaskExecutor") AsyncTaskExecutor taskExecutor,
+                         PageCacheService pageCacheService,
+                         MeterRegistry meterRegistry,
+                         @Value("${outbox.writeConcern}") String writeConcern) {
+        this.mongoTemplate = mongoTemplate;
+        this.taskExecutor = taskExecutor;
+        this.pageCacheService = pageCacheService;
+        WriteConcern commitWriteConcern = WriteConcern.valueOf(writeConcern);
+        if (commitWriteConcern == null) {
+            throw new IllegalArgumentException("Unknown outbox.writeConcern: " + writeConcern);
+        }
+        if (!commitWriteConcern.isAcknowledged()) {
+            // The entries would be reported as applied and removed without knowing whether the commit succeeded
+            throw new IllegalArgumentException("outbox.writeConcern must be acknowledged: " + writeConcern);
+        }
+        // Operations inside a transaction can't set their own write concern, only its commit can
+        MongoTransactionManager transactionManager = new MongoTransactionManager(mongoTemplate.getMongoDatabaseFactory(),
+                TransactionOptions.builder().writeConcern(commitWriteConcern).build());
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchEntries = DistributionSummary.builder("outbox.batch.entries")
+                .description("Outbox entries applied by a single batch")
+                .register(meterRegistry);
+        this.batchDocuments = DistributionSummary.builder("outbox.batch.documents")
+                .description("Documents updated by the bulk writes of a single batch")
+                .register(meterRegistry);
+    }
+
+
+    /**
+     * Stores increments of counters following a write, in the transaction of the write.
+     * Increments recorded by the same transaction are stored as one entry when it commits.
+     *
+     * @param increments Increments of counter fields of documents.
+     */
+    @SuppressWarnings("unchecked")
+    public void record(OutboxEntry.Increment... increments) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            if (store(List.of(increments))) {
+                committed();
+            }
+            return;
+        }
+
+        List<OutboxEntry.Increment> pending = (List<OutboxEntry.Increment>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            List<OutboxEntry.Increment> transactionIncrements = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(this, transactionIncrements);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    store(transactionIncrements);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResource(CounterOutbox.this);
+                    if (status == STATUS_COMMITTED) {
+                        committed();
+                    }
+                }
+            });
+            pending = transactionIncrements;
+        }
+        pending.addAll(List.of(increments));
+    }
+
+
+    /**
+     * Builds an increment of a counter field of the document of the given entity.
+     *
+     * @param entity     Class of the counted document.
+     * @param documentId The unique identifier of the counted document.
+     * @param field      Name of the counter field.
+     * @param delta      Value added to the counter.
+     * @return Increment to be recorded.
+     */
+    public OutboxEntry.Increment increment(Class<?> entity, String documentId, String field, int delta) {
+        return new OutboxEntry.Increment(mongoTemplate.getCollectionName(entity), documentId, field, delta);
+    }
+
+
+    /**
+     * Starts a dispatch when entries were committed by this instance since the last one,
+     * or when the delay of polling an idle outbox elapsed. Runs every outbox.dispatchDelay milliseconds.
+     */
+    @Scheduled(fixedDelayString = "${outbox.dispatchDelay}")
+    public void poll() {
+        if (recorded.get() > 0 || System.currentTimeMillis() >= idleUntil) {
+            dispatch();
+        }
+    }
+
+
+    /**
+     * Applies waiting entries in batches until none is left, unless a dispatch of this instance is running already.
+     * A dispatch which applied nothing doubles the delay before the outbox is polled again.
+     */
+    public void dispatch() {
+        if (!dispatching.compareAndSet(false, true)) {
+            return;
+        }
+
+        int applied = 0;
+        try {
+            recorded.set(0);
+            int entries;
+            do {
+                entries = dispatchBatch();
+                applied += entries;
+            } while (entries == batchSize);
+        } catch (RuntimeException e) {
+            // e.g. a write conflict with a dispatch of another instance, nothing of the batch was applied
+            log.warn("Counter outbox dispatch failed, its entries are applied by the next one", e);
+        } finally {
+            if (applied == 0) {
+                idleDelay = Math.min(Math.max(idleDelay * 2, dispatchDelay), maxIdleDelay);
+                idleUntil = System.currentTimeMillis() + idleDelay;
+            } else {
+                idleDelay = 0;
+                idleUntil = 0;
+            }
+            dispatching.set(false);
+        }
+    }
+
+
+    /**
+     * Applies and removes a batch of the oldest waiting entries in a single transaction, which increments
+     * the {@link PageVersions} of updated documents and of authors of updated posts as well,
+     * then evicts cached pages showing the updated counters.
+     *
+     * @return Number of entries in the batch.
+     */
+    protected int dispatchBatch() {
+        Map<String, Map<String, Map<String, Integer>>> deltas = new HashMap<>();
+        Batch batch = transactionTemplate.execute(status -> {
+            Query oldest = new Query().with(Sort.by("_id")).limit(batchSize);
+            List<OutboxEntry> entries = mongoTemplate.find(oldest, OutboxEntry.class);
+            if (entries.isEmpty()) {
+                return new Batch(0, 0, List.of());
+            }
+
+            sum(entries, deltas);
+            int documents = apply(deltas);
+            List<String> authors = touchAuthors(deltas);
+
+            List<String> ids = entries.stream().map(OutboxEntry::getId).toList();
+            long removed = mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), OutboxEntry.class).getDeletedCount();
+            if (removed != ids.size()) {
+                // Rolls the increments back together with the removal
+                throw new IllegalStateException("Outbox entries removed by a concurrent dispatch");
+            }
+            return new Batch(entries.size(), documents, authors);
+        });
+        if (batch == null || batch.entries() == 0) {
+            return 0;
+        }
+
+        batchEntries.record(batch.entries());
+        batchDocuments.record(batch.documents());
+        invalidatePages(deltas, batch.authors());
+        return batch.entries();
+    }
+
+
+    /**
+     * Wakes the dispatch up after an entry was committed.
+     */
+    private void committed() {
+        if (recorded.incrementAndGet() >= flushSize && !dispatching.get()) {
+            taskExecutor.execute(this::dispatch);
+        }
+    }
+
+
+    /**
+     * Stores the increments as one entry.
+     *
+     * @return false if the increments cancel out and nothing was stored.
+     */
+    private boolean store(List<OutboxEntry.Increment> increments) {
+        List<OutboxEntry.Increment> coalesced = coalesce(increments);
+        if (coalesced.isEmpty()) {
+            return false;
+        }
+        mongoTemplate.insert(OutboxEntry.builder().increments(coalesced).build());
+        return true;
+    }
+
+
+    /**
+     * Merges increments of the same counter, dropping those which cancel out.
+     */
+    private static List<OutboxEntry.Increment> coalesce(List<OutboxEntry.Increment> increments) {
+        Map<List<String>, Integer> deltas = new LinkedHashMap<>();
+        for (OutboxEntry.Increment increment : increments) {
+            deltas.merge(List.of(increment.getCollection(), increment.getDocumentId(), increment.getField()),
+                    increment.getDelta(), Integer::sum);
+        }
+
+        List<OutboxEntry.Increment> coalesced = new ArrayList<>();
+        deltas.forEach((counter, delta) -> {
+            if (delta != 0) {
+                coalesced.add(new OutboxEntry.Increment(counter.get(0), counter.get(1), counter.get(2), delta));
+            }
+        });
+        return coalesced;
+    }
+
+
+    /**
+     * Sums increments of the entries by collection, document and field.
+     */
+    private static void sum(List<OutboxEntry> entries, Map<String, Map<String, Map<String, Integer>>> deltas) {
+        for (OutboxEntry entry : entries) {
+            for (OutboxEntry.Increment increment : entry.getIncrements()) {
+                deltas.computeIfAbsent(increment.getCollection(), collection -> new HashMap<>())
+                        .computeIfAbsent(increment.getDocumentId(), documentId -> new HashMap<>())
+                        .merge(increment.getField(), increment.getDelta(), Integer::sum);
+            }
+        }
+    }
+
+
+    /**
+     * Applies summed increments with one unordered bulk write per collection.
+     *
+     * @return Number of updated documents.
+     */
+    private int apply(Map<String, Map<String, Map<String, Integer>>> deltas) {
+        int total = 0;
+        for (Map.Entry<String, Map<String, Map<String, Integer>>> collection : deltas.entrySet()) {
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection.getKey());
+            int updates = 0;
+            for (Map.Entry<String, Map<String, Integer>> document : collection.getValue().entrySet()) {
+                Update update = new Update();
+                document.getValue().forEach((field, delta) -> {
+                    // e.g. a like removed in the same batch it was added
+                    if (delta != 0) {
+                        update.inc(field, delta);
+                    }
+                });
+                if (!update.getUpdateObject().isEmpty()) {
+                    update.inc(PageVersions.FIELD, 1);
+                    operations.updateOne(Query.query(Criteria.where("_id").is(document.getKey())), update);
+                    updates++;
+                }
+            }
+            if (updates > 0) {
+                operations.execute();
+                total += updates;
+            }
+        }
+        return total;
+    }
+
+
+    /**
+     * Increments versions of pages of authors of the posts whose counters changed, which list the posts.
+     *
+     * @return Unique identifiers of the authors.
+     */
+    private List<String> touchAuthors(Map<String, Map<String, Map<String, Integer>>> deltas) {
+        Map<String, Map<String, Integer>> posts = deltas.getOrDefault(mongoTemplate.getCollectionName(Post.class), Map.of());
+        if (posts.isEmpty()) {
+            return List.of();
+        }
+
+        Query query = Query.query(Criteria.where("_id").in(posts.keySet()));
+        query.fields().include("postCreator");
+        List<String> authors = mongoTemplate.find(query, Post.class).stream()
+                .map(ActivityStreams::creatorIdOf)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (!authors.isEmpty()) {
+            mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(authors)),
+                    new Update().inc(PageVersions.FIELD, 1), User.class);
+        }
+        return authors;
+    }
+
+
+    /**
+     * Evicts pages of users whose counters changed, and of posts whose counters changed along with
+     * the pages of their authors. Pages of other users listing the posts expire after pageCache.expiry.
+     */
+    private void invalidatePages(Map<String, Map<String, Map<String, Integer>>> deltas, List<String> authors) {
+        deltas.getOrDefault(mongoTemplate.getCollectionName(User.class), Map.of()).keySet()
+                .forEach(pageCacheService::invalidateUserPage);
+
+        deltas.getOrDefault(mongoTemplate.getCollectionName(Post.class), Map.of()).keySet()
+                .forEach(pageCacheService::invalidatePostComments);
+        authors.forEach(pageCacheService::invalidateUserPage);
+    }
+
+
+    /**
+     * Numbers of entries and of updated documents of an applied batch, with the authors of its updated posts.
+     */
+    private record Batch(int entries, int documents, List<String> authors) {
+    }
+}
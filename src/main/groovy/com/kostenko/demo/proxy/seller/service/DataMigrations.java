@@ -0,0 +1,327 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.Comment;
+import com.kostenko.demo.proxy.seller.entity.Follow;
+import com.kostenko.demo.proxy.seller.entity.Like;
+import com.kostenko.demo.proxy.seller.entity.Post;
+import com.kostenko.demo.proxy.seller.entity.RefreshToken;
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry;
+import com.kostenko.demo.proxy.seller.entity.User;
+import com.mongodb.DBRef;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+
+/**
+ * Brings documents stored by earlier versions of the application to the current schema at startup.
+ * Every migration selects only documents which still need it, so it is a no-op once done
+ * and can safely run on several instances at once. Documents are rewritten in place of the old ones,
+ * so migrations are expected to run before changeStream.enabled is turned on.
+ */
+@Component
+@Slf4j
+public class DataMigrations {
+
+    /**
+     * Number of documents migrated per query.
+     */
+    protected static final int BATCH_SIZE = 500;
+    /**
+     * Name of the unique index of likes declared on {@link Like}.
+     */
+    private static final String LIKE_UNIQUE_INDEX = "user_post";
+    /**
+     * Name of the unique index of timeline entries declared on {@link TimelineEntry}.
+     */
+    private static final String TIMELINE_UNIQUE_INDEX = "owner_reference_type";
+    private final MongoTemplate mongoTemplate;
+    /**
+     * Service filling timelines of followers with posts of the users they follow.
+     */
+    private final TimelineService timelineService;
+
+    @Autowired
+    public DataMigrations(MongoTemplate mongoTemplate, TimelineService timelineService) {
+        this.mongoTemplate = mongoTemplate;
+        this.timelineService = timelineService;
+    }
+
+
+    /**
+     * Runs the migrations, called by {@link com.kostenko.demo.proxy.seller.configuration.MongoConfig}
+     * at startup before the indexes are ensured.
+     */
+    public void migrate() {
+        migrateLikeReferences();
+        removeDuplicates(Like.class, LIKE_UNIQUE_INDEX, "userId", "postId");
+        backfillCounter(Post.class, "likeCount", Like.class, "postId");
+        migrateCommentReferences();
+        backfillCounter(Post.class, "commentCount", Comment.class, "postId");
+        removeDuplicates(TimelineEntry.class, TIMELINE_UNIQUE_INDEX, "ownerId", "referenceId", "type");
+        backfillCounter(User.class, "postCount", Post.class, "postCreator.id");
+        migrateFollows();
+        backfillCounter(User.class, "followerCount", Follow.class, "followeeId");
+        backfillCounter(User.class, "followingCount", Follow.class, "followerId");
+        migrateRefreshTokenReferences();
+    }
+
+
+    /**
+     * Replaces the {@code likeCreator} and {@code post} references of likes stored before {@link Like} became
+     * an edge with the ids of the user and the post. Every like is rewritten by a single update,
+     * so a migration interrupted halfway continues with the likes left. The like arrays of posts and users
+     * aren't read anymore and are dropped.
+     */
+    protected void migrateLikeReferences() {
+        int migrated = migrateReferences(Like.class, (like, update) -> update
+                .set("userId", referencedId(like.get("likeCreator")))
+                .set("postId", referencedId(like.get("post"))), "likeCreator", "post");
+        for (Class<?> entity : List.of(Post.class, User.class)) {
+            mongoTemplate.updateMulti(Query.query(Criteria.where("likes").exists(true)), new Update().unset("likes"), entity);
+        }
+
+        if (migrated > 0) {
+            log.info("References of {} likes migrated to user and post ids", migrated);
+        }
+    }
+
+
+    /**
+     * Replaces the {@code user} and {@code commentCreator} references of comments stored before
+     * {@link Comment} got its own collection with the ids of the author and the commented post, which is what
+     * {@code commentCreator} referred to. Comment arrays of posts and users are dropped.
+     */
+    protected void migrateCommentReferences() {
+        int migrated = migrateReferences(Comment.class, (comment, update) -> update
+                .set("userId", referencedId(comment.get("user")))
+                .set("postId", referencedId(comment.get("commentCreator"))), "user", "commentCreator");
+        for (Class<?> entity : List.of(Post.class, User.class)) {
+            mongoTemplate.updateMulti(Query.query(Criteria.where("comments").exists(true)), new Update().unset("comments"), entity);
+        }
+
+        if (migrated > 0) {
+            log.info("References of {} comments migrated to user and post ids", migrated);
+        }
+    }
+
+
+    /**
+     * Stores a {@link Follow} edge for every reference in the {@code followers} and {@code following} arrays
+     * of users stored before the follow graph got its own collection, and drops the arrays. Edges are upserted,
+     * so a migration interrupted halfway is continued without duplicates. Timelines of the followers get
+     * the recent posts of the followed users, as they would on a new follow. References to users which
+     * no longer exist are skipped.
+     */
+    protected void migrateFollows() {
+        String collection = mongoTemplate.getCollectionName(User.class);
+        Query query = Query.query(new Criteria().orOperator(
+                Criteria.where("followers").exists(true),
+                Criteria.where("following").exists(true))).limit(BATCH_SIZE);
+        query.fields().include("followers", "following");
+
+        int migrated = 0;
+        List<Document> users;
+        while (!(users = mongoTemplate.find(query, Document.class, collection)).isEmpty()) {
+            for (Document user : users) {
+                String userId = idOf(user.get("_id"));
+                for (Object followee : user.getList("following", Object.class, List.of())) {
+                    migrateFollow(userId, referencedId(followee));
+                }
+                for (Object follower : user.getList("followers", Object.class, List.of())) {
+                    migrateFollow(referencedId(follower), userId);
+                }
+                mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(user.get("_id"))),
+                        new Update().unset("followers").unset("following"),
+                        collection);
+                migrated++;
+            }
+        }
+
+        if (migrated > 0) {
+            log.info("Followers and followed users of {} users migrated to follow edges", migrated);
+        }
+    }
+
+
+    private void migrateFollow(String followerId, String followeeId) {
+        if (followerId == null || followeeId == null || followerId.equals(followeeId)) {
+            return;
+        }
+        boolean exist = mongoTemplate.count(Query.query(Criteria.where("_id").in(followerId, followeeId)), User.class) == 2;
+        if (!exist) {
+            return;
+        }
+
+        Update update = new Update()
+                .setOnInsert("followerId", followerId)
+                .setOnInsert("followeeId", followeeId)
+                .setOnInsert("createdAt", Instant.now());
+        if (mongoTemplate.upsert(Query.query(Criteria.where("_id").is(Follow.idOf(followerId, followeeId))), update, Follow.class)
+                .getUpsertedId() != null) {
+            timelineService.backfill(followerId, followeeId);
+        }
+    }
+
+
+    /**
+     * Replaces the {@code user} reference of refresh tokens issued before {@link RefreshToken} got
+     * {@code userId}, so that they stay valid, and drops the token arrays of users.
+     */
+    protected void migrateRefreshTokenReferences() {
+        int migrated = migrateReferences(RefreshToken.class,
+                (token, update) -> update.set("userId", referencedId(token.get("user"))), "user");
+        mongoTemplate.updateMulti(Query.query(Criteria.where("refreshTokens").exists(true)),
+                new Update().unset("refreshTokens"), User.class);
+
+        if (migrated > 0) {
+            log.info("References of {} refresh tokens migrated to user ids", migrated);
+        }
+    }
+
+
+    /**
+     * Rewrites documents of the entity which still hold {@code @DBRef} fields of earlier versions, in batches.
+     * The fields are unset by the same update which sets their replacement, so every document is migrated once.
+     *
+     * @param entity     Class of the migrated documents.
+     * @param migration  Adds the replacement of the references of the document to its update.
+     * @param references Reference fields unset by the migration, the first one is present in every document
+     *                   still to be migrated.
+     * @return Number of migrated documents.
+     */
+    private int migrateReferences(Class<?> entity, BiFunction<Document, Update, Update> migration, String... references) {
+        String collection = mongoTemplate.getCollectionName(entity);
+        Criteria pending = Criteria.where(references[0]).exists(true);
+        Query query = Query.query(pending).limit(BATCH_SIZE);
+
+        int migrated = 0;
+        List<Document> documents;
+        while (!(documents = mongoTemplate.find(query, Document.class, collection)).isEmpty()) {
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+            for (Document document : documents) {
+                Update update = migration.apply(document, new Update());
+                for (String reference : references) {
+                    update.unset(reference);
+                }
+                // Another instance may have migrated the document meanwhile
+                operations.updateOne(Query.query(Criteria.where("_id").is(document.get("_id")).andOperator(pending)), update);
+            }
+            migrated += operations.execute().getModifiedCount();
+        }
+        return migrated;
+    }
+
+
+    /**
+     * Reads the id of the document a {@code @DBRef} of an earlier version points to.
+     *
+     * @param reference The stored reference, either decoded by the driver or as a plain document.
+     * @return Id of the referenced document, null if there is no reference.
+     */
+    private static String referencedId(Object reference) {
+        if (reference instanceof DBRef dbRef) {
+            return idOf(dbRef.getId());
+        }
+        if (reference instanceof Document document) {
+            return idOf(document.get("$id"));
+        }
+        return null;
+    }
+
+
+    /**
+     * Converts a stored id to the form entities use, the hex string of an ObjectId.
+     */
+    private static String idOf(Object id) {
+        if (id instanceof ObjectId objectId) {
+            return objectId.toHexString();
+        }
+        return id == null ? null : id.toString();
+    }
+
+
+    /**
+     * Keeps a single document per value of the fields, so that the unique index on them can be created.
+     * Skipped once the index exists.
+     *
+     * @param entity Class of the documents.
+     * @param index  Name of the unique index declared on the entity.
+     * @param fields Fields of the unique index.
+     */
+    protected void removeDuplicates(Class<?> entity, String index, String... fields) {
+        boolean indexed = mongoTemplate.indexOps(entity).getIndexInfo().stream()
+                .anyMatch(indexInfo -> indexInfo.getName().equals(index));
+        if (indexed) {
+            return;
+        }
+
+        Aggregation duplicates = Aggregation.newAggregation(
+                        Aggregation.group(fields).push("_id").as("ids").count().as("count"),
+                        Aggregation.match(Criteria.where("count").gt(1)))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+        long removed = 0;
+        try (Stream<Document> groups = mongoTemplate.aggregateStream(duplicates, entity, Document.class)) {
+            Iterator<Document> iterator = groups.iterator();
+            while (iterator.hasNext()) {
+                List<?> ids = iterator.next().getList("ids", Object.class);
+                removed += mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids.subList(1, ids.size()))),
+                        entity).getDeletedCount();
+            }
+        }
+
+        if (removed > 0) {
+            log.info("{} duplicate documents of {} removed", removed, entity.getSimpleName());
+        }
+    }
+
+
+    /**
+     * Counts documents referencing documents of the entity which were stored before the counter field
+     * was introduced. A document whose counter was already created by an increment is left
+     * to the reconciliation of counters.
+     *
+     * @param entity    Class of the documents holding the counter.
+     * @param field     Name of the counter field.
+     * @param counted   Class of the counted documents.
+     * @param reference Field of the counted documents holding the id of the document.
+     */
+    protected void backfillCounter(Class<?> entity, String field, Class<?> counted, String reference) {
+        String collection = mongoTemplate.getCollectionName(entity);
+        Criteria missing = Criteria.where(field).exists(false);
+        Query query = Query.query(missing).limit(BATCH_SIZE);
+        query.fields().include("_id");
+
+        int backfilled = 0;
+        List<Document> documents;
+        while (!(documents = mongoTemplate.find(query, Document.class, collection)).isEmpty()) {
+            for (Document document : documents) {
+                Object id = document.get("_id");
+                long count = mongoTemplate.count(Query.query(Criteria.where(reference).is(id.toString())), counted);
+                mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(id).andOperator(missing)),
+                        new Update().set(field, count),
+                        collection);
+                backfilled++;
+            }
+        }
+
+        if (backfilled > 0) {
+            log.info("{} of {} documents of {} backfilled", field, backfilled, entity.getSimpleName());
+        }
+    }
+}
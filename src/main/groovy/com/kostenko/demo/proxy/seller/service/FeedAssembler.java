@@ -0,0 +1,268 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.dto.NewsfeedDTO;
+import com.kostenko.demo.proxy.seller.entity.Comment;
+import com.kostenko.demo.proxy.seller.entity.FeedEntryType;
+import com.kostenko.demo.proxy.seller.entity.Like;
+import com.kostenko.demo.proxy.seller.entity.Post;
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry;
+import com.kostenko.demo.proxy.seller.entity.User;
+import com.kostenko.demo.proxy.seller.mapper.DtoMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Field;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Resolves timeline entries into a {@link NewsfeedDTO}. Referenced documents are loaded in batches of ids,
+ * which run in parallel on the application task executor, at most feed.assembly.maxConcurrency of them
+ * at once per request, and the whole assembly has to finish within feed.assembly.timeout.
+ * Every query carries the time left until the deadline as its maxTimeMS, so the server stops queries
+ * of an abandoned assembly instead of letting them hold executor threads.
+ * <p>
+ * With spring.threads.virtual.enabled on Java 21 the application task executor runs every batch
+ * on its own virtual thread, otherwise on the bounded platform thread pool.
+ */
+@Service
+public class FeedAssembler {
+
+    protected static final String TIMEOUT_MESSAGE = "Newsfeed couldn't be assembled in %d ms.";
+    private static final Consumer<Field> ALL_FIELDS = fields -> {
+    };
+    private final MongoTemplate mongoTemplate;
+    /**
+     * Mapper for converting entities to DTOs.
+     */
+    private final DtoMapper dtoMapper;
+    /**
+     * Executor running batches of queries, Spring Boot's application task executor.
+     */
+    private final AsyncTaskExecutor taskExecutor;
+    /**
+     * In-memory like counters of hot posts, whose changes are added to the persisted likeCount of mapped posts.
+     */
+    private final HotLikeCounters hotLikeCounters;
+
+    /**
+     * Maximum number of ids loaded with a single query.
+     */
+    @Value("${feed.assembly.batchSize}")
+    private int batchSize;
+
+    /**
+     * Maximum number of queries a single request runs at once.
+     */
+    @Value("${feed.assembly.maxConcurrency}")
+    private int maxConcurrency;
+
+    /**
+     * Deadline of the whole assembly in milliseconds.
+     */
+    @Value("${feed.assembly.timeout}")
+    private long timeout;
+
+    @Autowired
+    public FeedAssembler(MongoTemplate mongoTemplate,
+                         DtoMapper dtoMapper,
+                         @Qualifier("applicationTaskExecutor") AsyncTaskExecutor taskExecutor,
+                         HotLikeCounters hotLikeCounters) {
+        this.mongoTemplate = mongoTemplate;
+        this.dtoMapper = dtoMapper;
+        this.taskExecutor = taskExecutor;
+        this.hotLikeCounters = hotLikeCounters;
+    }
+
+
+    /**
+     * Resolves timeline entries into DTOs keeping the order of the entries. Likes and comments are loaded first,
+     * then all posts and users referenced by them and by the entries.
+     *
+     * @param entries Timeline entries to resolve.
+     * @return {@link NewsfeedDTO} without the cursor of the next page.
+     * @throws QueryTimeoutException - if the newsfeed can't be assembled before the deadline.
+     */
+    public NewsfeedDTO assemble(List<TimelineEntry> entries) {
+        Batches batches = new Batches(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+
+        try {
+            CompletableFuture<Map<String, Like>> likesFuture =
+                    batches.findAllById(Like.class, FeedEntries.referencesOf(entries, FeedEntryType.LIKE), ALL_FIELDS, Like::getId);
+            CompletableFuture<Map<String, Comment>> commentsFuture =
+                    batches.findAllById(Comment.class, FeedEntries.referencesOf(entries, FeedEntryType.COMMENT), ALL_FIELDS, Comment::getId);
+            Map<String, Like> likes = batches.await(likesFuture);
+            Map<String, Comment> comments = batches.await(commentsFuture);
+
+            List<String> postIds = Stream.of(
+                            FeedEntries.referencesOf(entries, FeedEntryType.POST).stream(),
+                            likes.values().stream().map(Like::getPostId),
+                            comments.values().stream().map(Comment::getPostId))
+                    .flatMap(Function.identity())
+                    .distinct()
+                    .toList();
+            // Usernames already joined to the entries by the feed engine aren't loaded again
+            Map<String, User> users = knownAuthorsOf(entries);
+            // Authors of posts are taken from the entries, so that postCreator references aren't resolved one by one
+            List<String> userIds = Stream.of(
+                            entries.stream().filter(entry -> entry.getType() == FeedEntryType.POST).map(TimelineEntry::getAuthorId),
+                            likes.values().stream().map(Like::getUserId),
+                            comments.values().stream().map(Comment::getUserId))
+                    .flatMap(Function.identity())
+                    .filter(userId -> !users.containsKey(userId))
+                    .distinct()
+                    .toList();
+
+            CompletableFuture<Map<String, Post>> postsFuture =
+                    batches.findAllById(Post.class, postIds, fields -> fields.exclude("postCreator"), Post::getId);
+            CompletableFuture<Map<String, User>> usersFuture =
+                    batches.findAllById(User.class, userIds, fields -> fields.include("username"), User::getId);
+            Map<String, Post> posts = batches.await(postsFuture);
+            users.putAll(batches.await(usersFuture));
+
+            return NewsfeedDTO.builder()
+                    .posts(FeedEntries.mapInOrder(entries, FeedEntryType.POST, posts,
+                            (entry, post) -> dtoMapper.toPostDTO(post, users.get(entry.getAuthorId()), hotLikeCounters.pending(post.getId()))))
+                    .likes(FeedEntries.mapInOrder(entries, FeedEntryType.LIKE, likes,
+                            (entry, like) -> dtoMapper.toLikeDTO(like, posts.get(like.getPostId()), users.get(like.getUserId()), hotLikeCounters.pending(like.getPostId()))))
+                    .comments(FeedEntries.mapInOrder(entries, FeedEntryType.COMMENT, comments,
+                            (entry, comment) -> dtoMapper.toCommentDTO(comment, posts.get(comment.getPostId()), users.get(comment.getUserId()), hotLikeCounters.pending(comment.getPostId()))))
+                    .build();
+        } finally {
+            batches.cancelAll();
+        }
+    }
+
+
+    private static Map<String, User> knownAuthorsOf(List<TimelineEntry> entries) {
+        Map<String, User> authors = new HashMap<>();
+        for (TimelineEntry entry : entries) {
+            if (entry.getAuthorUsername() != null) {
+                User author = new User();
+                author.setId(entry.getAuthorId());
+                author.setUsername(entry.getAuthorUsername());
+                authors.put(author.getId(), author);
+            }
+        }
+        return authors;
+    }
+
+
+    /**
+     * Queries of a single assembly, sharing its concurrency limit and deadline.
+     */
+    private class Batches {
+
+        private final long deadline;
+        private final Semaphore permits = new Semaphore(maxConcurrency);
+        private final List<Future<?>> started = new ArrayList<>();
+
+        private Batches(long deadline) {
+            this.deadline = deadline;
+        }
+
+
+        /**
+         * Starts loading documents by ids, split into batches of feed.assembly.batchSize ids.
+         * Blocks while the request already runs feed.assembly.maxConcurrency queries.
+         */
+        private <T> CompletableFuture<Map<String, T>> findAllById(Class<T> type,
+                                                                  List<String> ids,
+                                                                  Consumer<Field> projection,
+                                                                  Function<T, String> idExtractor) {
+            List<CompletableFuture<List<T>>> futures = new ArrayList<>();
+            for (int from = 0; from < ids.size(); from += batchSize) {
+                Query query = Query.query(Criteria.where("_id").in(ids.subList(from, Math.min(from + batchSize, ids.size()))));
+                projection.accept(query.fields());
+                acquire();
+
+                CompletableFuture<List<T>> future = taskExecutor.submitCompletable(() -> find(query, type));
+                future.whenComplete((result, e) -> permits.release());
+                started.add(future);
+                futures.add(future);
+            }
+
+            return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                    .thenApply(ignored -> futures.stream()
+                            .flatMap(future -> future.join().stream())
+                            .collect(Collectors.toMap(idExtractor, Function.identity(), (first, second) -> first)));
+        }
+
+
+        private <T> T await(CompletableFuture<T> future) {
+            try {
+                return future.get(remaining(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                throw new QueryTimeoutException(String.format(TIMEOUT_MESSAGE, timeout), e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new QueryTimeoutException(String.format(TIMEOUT_MESSAGE, timeout), e);
+            }
+        }
+
+
+        /**
+         * Runs the query with the time left until the deadline, which may have passed while it waited for a thread.
+         */
+        private <T> List<T> find(Query query, Class<T> type) {
+            long remaining = remaining();
+            if (remaining == 0) {
+                throw new QueryTimeoutException(String.format(TIMEOUT_MESSAGE, timeout));
+            }
+            // A maxTimeMS of 0 would mean no limit at all
+            Duration maxTime = Duration.ofMillis(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            return mongoTemplate.find(query.maxTime(maxTime), type);
+        }
+
+
+        private void acquire() {
+            try {
+                if (!permits.tryAcquire(remaining(), TimeUnit.NANOSECONDS)) {
+                    throw new QueryTimeoutException(String.format(TIMEOUT_MESSAGE, timeout));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new QueryTimeoutException(String.format(TIMEOUT_MESSAGE, timeout), e);
+            }
+        }
+
+
+        private long remaining() {
+            return Math.max(0, deadline - System.nanoTime());
+        }
+
+
+        /**
+         * Cancels queries which haven't started when the assembly is abandoned. Cancelling doesn't interrupt
+         * running ones, those are stopped by the server once their maxTimeMS elapses.
+         */
+        private void cancelAll() {
+            started.forEach(future -> future.cancel(true));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+
+/**
+ * Strategy producing pages of the newsfeed as timeline entries.
+ * The implementation is selected with the feed.engine property.
+ */
+public interface FeedEngine {
+
+    /**
+     * Returns a page of the newsfeed of the specified user, ordered by creation time and id of the entries.
+     *
+     * @param ownerId   The unique identifier of the user whose newsfeed is read.
+     * @param cursor    Position after which entries are returned, null for the first page.
+     * @param direction Order of the entries, {@link Sort.Direction#DESC} for pages of the newsfeed.
+     * @param limit     Maximum number of entries in the page.
+     * @return Up to {@code limit + 1} entries, so the caller can tell whether a next page exists.
+     */
+    List<TimelineEntry> readPage(String ownerId, PageCursor cursor, Sort.Direction direction, int limit);
+
+
+    /**
+     * Returns activity which got into the newsfeed of the specified user after the given id, in the order of insertion.
+     * Entries are ordered by their ObjectIds: ids of timeline entries, or of the posts, likes and comments
+     * read in their place.
+     *
+     * @param ownerId The unique identifier of the user whose newsfeed is read.
+     * @param since   The id after which entries are returned, the start of the overlap window of a since cursor.
+     * @param limit   Maximum number of entries in the page.
+     * @return Up to {@code limit + 1} entries, so the caller can tell whether more activity is waiting.
+     */
+    List<TimelineEntry> readSince(String ownerId, ObjectId since, int limit);
+}
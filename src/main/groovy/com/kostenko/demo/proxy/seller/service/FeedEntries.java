@@ -0,0 +1,58 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.FeedEntryType;
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * Helpers resolving timeline entries into a newsfeed.
+ */
+final class FeedEntries {
+
+    private FeedEntries() {
+    }
+
+
+    /**
+     * @param entries Timeline entries of a newsfeed page.
+     * @param type    The kind of activity.
+     * @return Distinct ids of the documents of the given kind referenced by the entries, in the order of the entries.
+     */
+    static List<String> referencesOf(List<TimelineEntry> entries, FeedEntryType type) {
+        return entries.stream()
+                .filter(entry -> entry.getType() == type)
+                .map(TimelineEntry::getReferenceId)
+                .distinct()
+                .toList();
+    }
+
+
+    /**
+     * Maps the resolved documents of the given kind in the order of the entries referencing them.
+     * Entries whose document no longer exists are skipped.
+     *
+     * @param entries  Timeline entries of a newsfeed page.
+     * @param type     The kind of activity.
+     * @param resolved Documents of the given kind by their ids.
+     * @param mapper   Mapper of an entry and its document to a DTO.
+     * @return DTOs in the order of the entries.
+     */
+    static <T, D> Set<D> mapInOrder(List<TimelineEntry> entries,
+                                    FeedEntryType type,
+                                    Map<String, T> resolved,
+                                    BiFunction<TimelineEntry, T, D> mapper) {
+        Set<D> result = new LinkedHashSet<>();
+        for (TimelineEntry entry : entries) {
+            T element = entry.getType() == type ? resolved.get(entry.getReferenceId()) : null;
+            if (element != null) {
+                result.add(mapper.apply(entry, element));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,11 @@
+package com.kostenko.demo.proxy.seller.service;
+
+/**
+ * Application event published when a user starts or stops following another one.
+ *
+ * @param followerId Id of the user who follows.
+ * @param followeeId Id of the followed user.
+ * @param following  true if the follow edge was created, false if it was removed.
+ */
+public record FollowEvent(String followerId, String followeeId, boolean following) {
+}
@@ -0,0 +1,304 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.dto.FollowPageDTO;
+import com.kostenko.demo.proxy.seller.dto.SimpleUserDTO;
+import com.kostenko.demo.proxy.seller.entity.Follow;
+import com.kostenko.demo.proxy.seller.entity.OutboxEntry;
+import com.kostenko.demo.proxy.seller.entity.User;
+import com.kostenko.demo.proxy.seller.error.ResourceNotFoundException;
+import com.kostenko.demo.proxy.seller.repository.FollowRepository;
+import com.kostenko.demo.proxy.seller.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Service managing the follow graph stored as {@link Follow} edges, together with
+ * follower and following counters kept on {@link User}.
+ */
+@Service
+public class FollowService {
+
+    /**
+     * Repository for managing {@link com.kostenko.demo.proxy.seller.entity.Follow} edges in MongoDB.
+     */
+    private final FollowRepository followRepository;
+    /**
+     * Repository for managing {@link com.kostenko.demo.proxy.seller.entity.User} entities in MongoDB.
+     */
+    private final UserRepository userRepository;
+    private final MongoTemplate mongoTemplate;
+    /**
+     * Outbox of follower and following counters of users.
+     */
+    private final CounterOutbox counterOutbox;
+    /**
+     * Publisher of {@link FollowEvent}s.
+     */
+    private final ApplicationEventPublisher eventPublisher;
+    /**
+     * Removes edges of deleted users in batches.
+     */
+    private final CascadeRemover cascadeRemover;
+
+    @Autowired
+    public FollowService(FollowRepository followRepository,
+                         UserRepository userRepository,
+                         MongoTemplate mongoTemplate,
+                         CounterOutbox counterOutbox,
+                         ApplicationEventPublisher eventPublisher,
+                         CascadeRemover cascadeRemover) {
+        this.followRepository = followRepository;
+        this.userRepository = userRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.counterOutbox = counterOutbox;
+        this.eventPublisher = eventPublisher;
+        this.cascadeRemover = cascadeRemover;
+    }
+
+
+    /**
+     * Stores a follow edge and updates the counters of both users. Following the same user twice is a no-op.
+     *
+     * @param followerId The unique identifier of the user who follows.
+     * @param followeeId The unique identifier of the followed user.
+     * @return true if the edge is new, false if the user was already followed.
+     */
+    public boolean follow(String followerId, String followeeId) {
+        // An upsert instead of an insert, so that following twice doesn't abort the transaction of the caller
+        Query query = Query.query(Criteria.where("_id").is(Follow.idOf(followerId, followeeId)));
+        Update update = new Update()
+                .setOnInsert("followerId", followerId)
+                .setOnInsert("followeeId", followeeId)
+                .setOnInsert("createdAt", Instant.now());
+        if (mongoTemplate.upsert(query, update, Follow.class).getUpsertedId() == null) {
+            return false;
+        }
+
+        incrementCounters(followerId, followeeId, 1);
+        eventPublisher.publishEvent(new FollowEvent(followerId, followeeId, true));
+        return true;
+    }
+
+
+    /**
+     * Removes a follow edge and updates the counters of both users. Unfollowing a user who isn't followed is a no-op.
+     *
+     * @param followerId The unique identifier of the user who follows.
+     * @param followeeId The unique identifier of the followed user.
+     * @return true if the edge existed, false otherwise.
+     */
+    public boolean unfollow(String followerId, String followeeId) {
+        Query query = Query.query(Criteria.where("_id").is(Follow.idOf(followerId, followeeId)));
+        if (mongoTemplate.remove(query, Follow.class).getDeletedCount() == 0) {
+            return false;
+        }
+
+        incrementCounters(followerId, followeeId, -1);
+        eventPublisher.publishEvent(new FollowEvent(followerId, followeeId, false));
+        return true;
+    }
+
+
+    public boolean isFollowing(String followerId, String followeeId) {
+        return followRepository.existsById(Follow.idOf(followerId, followeeId));
+    }
+
+
+    /**
+     * Returns ids of all users followed by the specified user.
+     */
+    public List<String> findFolloweeIds(String followerId) {
+        Query query = Query.query(Criteria.where("followerId").is(followerId));
+        query.fields().include("followeeId");
+
+        return mongoTemplate.find(query, Follow.class).stream()
+                .map(Follow::getFolloweeId)
+                .toList();
+    }
+
+
+    /**
+     * Streams ids of all followers of the specified user in batches, without loading them all in memory at once.
+     *
+     * @param followeeId The unique identifier of the followed user.
+     * @param batchSize  Maximum number of ids passed to the consumer at once.
+     * @param consumer   Consumer of follower id batches.
+     */
+    public void forEachFollowerBatch(String followeeId, int batchSize, Consumer<List<String>> consumer) {
+        Query query = Query.query(Criteria.where("followeeId").is(followeeId))
+                .cursorBatchSize(batchSize);
+        query.fields().include("followerId");
+
+        List<String> batch = new ArrayList<>(batchSize);
+        try (Stream<Follow> follows = mongoTemplate.stream(query, Follow.class)) {
+            Iterator<Follow> iterator = follows.iterator();
+            while (iterator.hasNext()) {
+                batch.add(iterator.next().getFollowerId());
+                if (batch.size() == batchSize) {
+                    consumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+    }
+
+
+    /**
+     * Returns a page of followers of the specified user, most recent first.
+     *
+     * @param userId   The unique identifier of the user.
+     * @param cursor   Cursor returned with the previous page, null for the first page.
+     * @param pageSize Maximum number of users in the page.
+     * @return {@link FollowPageDTO} with followers and their total count.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     */
+    public FollowPageDTO getFollowers(String userId, String cursor, Integer pageSize) {
+        return getPage("followeeId", Follow::getFollowerId, User::getFollowerCount, userId, cursor, pageSize);
+    }
+
+
+    /**
+     * Returns a page of users followed by the specified user, most recent first.
+     *
+     * @param userId   The unique identifier of the user.
+     * @param cursor   Cursor returned with the previous page, null for the first page.
+     * @param pageSize Maximum number of users in the page.
+     * @return {@link FollowPageDTO} with followed users and their total count.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     */
+    public FollowPageDTO getFollowing(String userId, String cursor, Integer pageSize) {
+        return getPage("followerId", Follow::getFolloweeId, User::getFollowingCount, userId, cursor, pageSize);
+    }
+
+
+    /**
+     * Removes all edges of the specified user in batches. The counters of the users on the other side
+     * are decremented through the outbox in the transaction removing each batch, and every removed edge
+     * is published as an unfollow, so that listeners drop what the user's followers were shown of him.
+     */
+    public void removeUser(String userId) {
+        cascadeRemover.removeAll(Criteria.where("followerId").is(userId), Follow.class, Follow::getId,
+                edges -> unfollowed(edges, Follow::getFolloweeId, "followerCount"));
+        cascadeRemover.removeAll(Criteria.where("followeeId").is(userId), Follow.class, Follow::getId,
+                edges -> unfollowed(edges, Follow::getFollowerId, "followingCount"));
+    }
+
+
+    /**
+     * Resolves user ids into {@link SimpleUserDTO}s reading only usernames, keeping the order of the ids.
+     */
+    public List<SimpleUserDTO> toSimpleUsers(List<String> userIds) {
+        if (userIds.isEmpty()) {
+            return List.of();
+        }
+
+        Map<String, User> users = userRepository.findUsernamesByIdIn(userIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+
+        return userIds.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .map(user -> new SimpleUserDTO(user.getId(), user.getUsername()))
+                .toList();
+    }
+
+
+    /**
+     * Reads a page of followers of a user already loaded by the caller, whose followerCount is the total count.
+     */
+    FollowPageDTO findFollowers(User user, int limit) {
+        return findPage("followeeId", Follow::getFollowerId, user.getFollowerCount(), user.getId(), null, limit);
+    }
+
+
+    /**
+     * Reads a page of users followed by a user already loaded by the caller, whose followingCount is the total count.
+     */
+    FollowPageDTO findFollowing(User user, int limit) {
+        return findPage("followerId", Follow::getFolloweeId, user.getFollowingCount(), user.getId(), null, limit);
+    }
+
+
+    private FollowPageDTO getPage(String ownerField,
+                                  Function<Follow, String> otherSide,
+                                  Function<User, Long> counter,
+                                  String userId,
+                                  String cursor,
+                                  Integer pageSize) {
+        int limit = PageCursor.pageSize(pageSize);
+        PageCursor pageCursor = PageCursor.decode(cursor);
+
+        Query userQuery = Query.query(Criteria.where("_id").is(userId));
+        userQuery.fields().include("followerCount").include("followingCount");
+        User user = mongoTemplate.findOne(userQuery, User.class);
+        if (user == null) {
+            throw new ResourceNotFoundException(String.format(UserService.ID_NOT_FOUND_MESSAGE, userId));
+        }
+
+        return findPage(ownerField, otherSide, counter.apply(user), userId, pageCursor, limit);
+    }
+
+
+    private FollowPageDTO findPage(String ownerField,
+                                   Function<Follow, String> otherSide,
+                                   long totalCount,
+                                   String userId,
+                                   PageCursor pageCursor,
+                                   int limit) {
+        Query query = PageCursor.pageQuery(Criteria.where(ownerField).is(userId), pageCursor, Sort.Direction.DESC, limit);
+
+        List<Follow> follows = mongoTemplate.find(query, Follow.class);
+        String nextCursor = null;
+        if (follows.size() > limit) {
+            follows = follows.subList(0, limit);
+            Follow last = follows.get(limit - 1);
+            nextCursor = new PageCursor(last.getCreatedAt(), last.getId()).encode();
+        }
+
+        return FollowPageDTO.builder()
+                .users(toSimpleUsers(follows.stream().map(otherSide).toList()))
+                .totalCount(totalCount)
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+
+    /**
+     * Decrements the counter of the users on the other side of the removed edges and publishes their removal.
+     */
+    private void unfollowed(List<Follow> edges, Function<Follow, String> otherSide, String counter) {
+        counterOutbox.record(edges.stream()
+                .map(edge -> counterOutbox.increment(User.class, otherSide.apply(edge), counter, -1))
+                .toArray(OutboxEntry.Increment[]::new));
+        edges.forEach(edge -> eventPublisher.publishEvent(
+                new FollowEvent(edge.getFollowerId(), edge.getFolloweeId(), false)));
+    }
+
+
+    private void incrementCounters(String followerId, String followeeId, int delta) {
+        counterOutbox.record(
+                counterOutbox.increment(User.class, followerId, "followingCount", delta),
+                counterOutbox.increment(User.class, followeeId, "followerCount", delta));
+    }
+}
@@ -0,0 +1,197 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.OutboxEntry;
+import com.kostenko.demo.proxy.seller.entity.Post;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory like counters of hot posts. A post liked or unliked at least likeCounters.hotThreshold times
+ * within likeCounters.flushInterval milliseconds is promoted: changes of its likeCount are summed
+ * in a {@link LongAdder} instead of being recorded in {@link CounterOutbox} one by one, and the sum is recorded
+ * once per interval. A hot post receiving less than half of the threshold within an interval is demoted.
+ * Counters are summed and demoted under a write lock, so a change is either summed by a flush or left to the caller.
+ * <p>
+ * Pending changes live only in the memory of the instance which received the likes, so services add
+ * {@link #pending(String)} to the persisted likeCount of the posts they map. Posts are hot per instance:
+ * each instance keeps its own share of the changes of a post liked through several of them.
+ * <p>
+ * Bounds of the in-memory changes:
+ * <ul>
+ *     <li>A crash loses up to likeCounters.flushInterval milliseconds of changes of the hot posts of the instance,
+ *     likeCount stays off by them until {@link PostCounterReconciler} recounts the post
+ *     at the next postCounters.reconcileCron.</li>
+ *     <li>The reconciler skips only posts hot on the instance running it. A post hot on another instance is recounted
+ *     including the likes whose changes that instance still holds, so once they are flushed likeCount is off
+ *     by them until the following reconciliation.</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class HotLikeCounters {
+
+    /**
+     * Outbox receiving the summed changes.
+     */
+    private final CounterOutbox counterOutbox;
+    /**
+     * Likes and unlikes of every post within the current interval, used to detect hot posts.
+     */
+    private final Map<String, LongAdder> recentChanges = new ConcurrentHashMap<>();
+    /**
+     * Changes of likeCount of hot posts not recorded in the outbox yet.
+     */
+    private final Map<String, LongAdder> pendingChanges = new ConcurrentHashMap<>();
+    /**
+     * Held for reading while a change is added to a counter, and for writing while counters are summed and demoted,
+     * so that no change reaches a counter after it was summed for the last time.
+     */
+    private final ReadWriteLock countersLock = new ReentrantReadWriteLock();
+
+    /**
+     * Changes of likeCount within an interval promoting a post, 0 disables the counters.
+     */
+    @Value("${likeCounters.hotThreshold}")
+    private long hotThreshold;
+
+    @Autowired
+    public HotLikeCounters(CounterOutbox counterOutbox) {
+        this.counterOutbox = counterOutbox;
+    }
+
+
+    /**
+     * Counts a like or an unlike of the post, and keeps the change of its likeCount in memory if the post is hot.
+     * The change is added once the transaction of the caller commits, so that neither a rolled back like stays
+     * counted nor {@link #pending(String)} shows a like which isn't committed yet.
+     *
+     * @param postId The unique identifier of the liked post.
+     * @param delta  Change of the likeCount of the post.
+     * @return true if the change is kept in memory, false if the caller has to record it.
+     */
+    public boolean add(String postId, int delta) {
+        if (hotThreshold == 0) {
+            return false;
+        }
+
+        recentChanges.computeIfAbsent(postId, id -> new LongAdder()).increment();
+        if (!pendingChanges.containsKey(postId)) {
+            return false;
+        }
+
+        Transactions.afterCommit(() -> addCommitted(postId, delta));
+        return true;
+    }
+
+
+    /**
+     * Returns the change of likeCount of the post kept in memory, to be added to the persisted value.
+     *
+     * @param postId The unique identifier of the post, null for a post which doesn't exist.
+     * @return Change not recorded yet, 0 unless the post is hot.
+     */
+    public long pending(String postId) {
+        LongAdder pending = postId == null ? null : pendingChanges.get(postId);
+        return pending == null ? 0 : pending.sum();
+    }
+
+
+    /**
+     * @param postId The unique identifier of the post.
+     * @return true if changes of likeCount of the post are kept in memory by this instance.
+     */
+    public boolean isHot(String postId) {
+        return pendingChanges.containsKey(postId);
+    }
+
+
+    /**
+     * Records the changes of hot posts in the outbox as a single entry, then promotes and demotes posts
+     * by their likes and unlikes within the ending interval.
+     */
+    @Scheduled(fixedDelayString = "${likeCounters.flushInterval}")
+    public void flush() {
+        Map<String, Long> interval = new HashMap<>();
+        for (Iterator<Map.Entry<String, LongAdder>> iterator = recentChanges.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, LongAdder> changes = iterator.next();
+            iterator.remove();
+            interval.put(changes.getKey(), changes.getValue().sum());
+        }
+
+        List<OutboxEntry.Increment> increments = new ArrayList<>();
+        countersLock.writeLock().lock();
+        try {
+            for (Iterator<Map.Entry<String, LongAdder>> iterator = pendingChanges.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<String, LongAdder> pending = iterator.next();
+                String postId = pending.getKey();
+                collect(increments, postId, pending.getValue().sumThenReset());
+
+                if (interval.getOrDefault(postId, 0L) < hotThreshold / 2) {
+                    iterator.remove();
+                    log.debug("Post {} demoted from in-memory like counters", postId);
+                }
+            }
+        } finally {
+            countersLock.writeLock().unlock();
+        }
+
+        interval.forEach((postId, changes) -> {
+            if (changes >= hotThreshold && pendingChanges.putIfAbsent(postId, new LongAdder()) == null) {
+                log.debug("Post {} promoted to in-memory like counters, {} likes and unlikes per interval", postId, changes);
+            }
+        });
+
+        if (increments.isEmpty()) {
+            return;
+        }
+        try {
+            counterOutbox.record(increments.toArray(OutboxEntry.Increment[]::new));
+        } catch (RuntimeException e) {
+            // The counters were reset by the sum, the changes are kept for the next flush instead of being lost.
+            // A post demoted by this flush stays hot until then.
+            for (OutboxEntry.Increment increment : increments) {
+                pendingChanges.computeIfAbsent(increment.getDocumentId(), id -> new LongAdder()).add(increment.getDelta());
+            }
+            throw e;
+        }
+    }
+
+
+    /**
+     * Adds a committed change to the counter of the post, or records it if the post was demoted since it was liked.
+     */
+    private void addCommitted(String postId, int delta) {
+        countersLock.readLock().lock();
+        try {
+            LongAdder pending = pendingChanges.get(postId);
+            if (pending != null) {
+                pending.add(delta);
+                return;
+            }
+        } finally {
+            countersLock.readLock().unlock();
+        }
+
+        counterOutbox.record(counterOutbox.increment(Post.class, postId, "likeCount", delta));
+    }
+
+
+    private void collect(List<OutboxEntry.Increment> increments, String postId, long delta) {
+        if (delta != 0) {
+            increments.add(counterOutbox.increment(Post.class, postId, "likeCount", (int) delta));
+        }
+    }
+}
@@ -2,17 +2,19 @@ package com.kostenko.demo.proxy.seller.service;
 
 import com.kostenko.demo.proxy.seller.entity.User;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.security.Key;
+import javax.crypto.SecretKey;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Function;
 
 
@@ -23,6 +25,36 @@ public class JwtService {
     public static final String SECRET = "357638792F423F4428472B4B6250655368566D597133743677397A2443264629";
     @Value("${jwt.cookieExpiry}")
     private int cookieExpiry;
+    /**
+     * Key derived from {@link #SECRET} once at startup, used both for signing and verification.
+     */
+    private final SecretKey signKey;
+    /**
+     * Immutable and thread-safe parser, built once and shared by all requests.
+     */
+    private final JwtParser jwtParser;
+
+    public JwtService() {
+        this.signKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET));
+        this.jwtParser = Jwts.parser()
+                .verifyWith(signKey)
+                .build();
+    }
+
+    /**
+     * Verifies the signature and expiration of the token and parses its claims in a single pass.
+     * Intended to be called once per request, the returned claims can then be inspected without re-parsing.
+     *
+     * @param token The compact JWT string.
+     * @return Verified claims of the token, or an empty Optional if the token is malformed, forged or expired.
+     */
+    public Optional<Claims> verifyToken(String token) {
+        try {
+            return Optional.of(jwtParser.parseSignedClaims(token).getPayload());
+        } catch (JwtException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
 
     public String extractUserId(String token) {
         return extractClaim(token, Claims::getSubject);
@@ -38,21 +70,30 @@ public class JwtService {
     }
 
     private Claims extractAllClaims(String token) {
-        return Jwts
-                .parser()
-                .setSigningKey(getSignKey())
-                .build()
+        return jwtParser
                 .parseSignedClaims(token)
                 .getPayload();
     }
 
-    private Boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+    public Boolean validateToken(String token, User user) {
+        return verifyToken(token)
+                .map(claims -> validateToken(claims, user.getId()))
+                .orElse(false);
     }
 
-    public Boolean validateToken(String token, User user) {
-        final String userId = extractUserId(token);
-        return (userId.equals(user.getId()) && !isTokenExpired(token));
+    /**
+     * Checks already verified claims against the user, without parsing the token again.
+     *
+     * @param claims Claims returned by {@link #verifyToken(String)}.
+     * @param userId The unique identifier of the user the token must belong to.
+     * @return true if the token was issued for the user and isn't expired, false otherwise,
+     * including a token without an expiration.
+     */
+    public Boolean validateToken(Claims claims, String userId) {
+        Date expiration = claims.getExpiration();
+        return userId.equals(claims.getSubject())
+                && expiration != null
+                && !expiration.before(new Date());
     }
 
 
@@ -71,11 +112,6 @@ public class JwtService {
                 .subject(username)
                 .issuedAt(new Date(System.currentTimeMillis()))
                 .expiration(expiryDate)
-                .signWith(getSignKey(), SignatureAlgorithm.HS256).compact();
-    }
-
-    private Key getSignKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(SECRET);
-        return Keys.hmacShaKeyFor(keyBytes);
+                .signWith(signKey, Jwts.SIG.HS256).compact();
     }
 }
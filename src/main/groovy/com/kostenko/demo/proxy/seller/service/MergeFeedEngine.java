@@ -0,0 +1,57 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Feed engine building the newsfeed at read time from the activity of all followed users,
+ * merged by {@link ActivityStreams}. Used when feed.engine is merge.
+ */
+@Service
+@ConditionalOnProperty(name = "feed.engine", havingValue = "merge")
+public class MergeFeedEngine implements FeedEngine {
+
+    /**
+     * Service managing the follow graph.
+     */
+    private final FollowService followService;
+    /**
+     * Reader of the activity of followed users.
+     */
+    private final ActivityStreams activityStreams;
+
+    @Autowired
+    public MergeFeedEngine(FollowService followService, ActivityStreams activityStreams) {
+        this.followService = followService;
+        this.activityStreams = activityStreams;
+    }
+
+
+    @Override
+    public List<TimelineEntry> readPage(String ownerId, PageCursor cursor, Sort.Direction direction, int limit) {
+        List<Stream<TimelineEntry>> streams = activityStreams.open(ownerId, followService.findFolloweeIds(ownerId), cursor, direction, limit);
+        try {
+            return ActivityStreams.merge(streams, direction, limit + 1);
+        } finally {
+            streams.forEach(Stream::close);
+        }
+    }
+
+
+    @Override
+    public List<TimelineEntry> readSince(String ownerId, ObjectId since, int limit) {
+        List<Stream<TimelineEntry>> streams = activityStreams.openSince(ownerId, followService.findFolloweeIds(ownerId), since, limit);
+        try {
+            return ActivityStreams.merge(streams, ActivityStreams.INSERTED_FIRST, limit + 1);
+        } finally {
+            streams.forEach(Stream::close);
+        }
+    }
+}
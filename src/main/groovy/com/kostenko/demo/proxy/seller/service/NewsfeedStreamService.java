@@ -0,0 +1,421 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.dto.NewsfeedDTO;
+import com.kostenko.demo.proxy.seller.error.ResourceNotFoundException;
+import com.kostenko.demo.proxy.seller.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes new activity of followed users to connected clients as Server-Sent Events.
+ * Every {@link ActivityEvent} is assembled into a {@link NewsfeedDTO} once and offered to the connections
+ * of the author's followers, looked up in an index of connected users by the users they follow.
+ * The index is loaded when a user connects, updated on {@link FollowEvent}s and reloaded every
+ * feed.stream.followeesRefresh seconds, which bounds the delay of follows made on other instances.
+ * <p>
+ * Events are dispatched and sent on a dedicated pool of feed.stream.threads threads with a bounded queue,
+ * so slow clients never hold the threads assembling newsfeeds. Every connection has a buffer
+ * of feed.stream.bufferSize events. A client is disconnected when it doesn't keep up and fills its buffer,
+ * when a single send takes longer than feed.stream.sendTimeout milliseconds, or when the pool is saturated.
+ * It is expected to reconnect and catch up by polling the newsfeed with the id of the last received event as since.
+ * A send stalled on the socket keeps its thread until the write fails, but no more events are queued for it.
+ * Open connections are published as the {@code newsfeed.stream.connections} gauge
+ * and disconnected clients as the {@code newsfeed.stream.evictions} counter.
+ */
+@Slf4j
+@Service
+public class NewsfeedStreamService {
+
+    private final UserRepository userRepository;
+    private final FeedAssembler feedAssembler;
+    /**
+     * Service managing the follow graph, source of the index of connected followers.
+     */
+    private final FollowService followService;
+    /**
+     * Executor dispatching events and draining the buffers of connections.
+     */
+    private final ThreadPoolTaskExecutor streamExecutor;
+    private final Counter evictions;
+    private final AtomicInteger connections = new AtomicInteger();
+    /**
+     * Open connections by id of the connected user, who may have several of them.
+     */
+    private final Map<String, Set<Connection>> connectionsByUser = new ConcurrentHashMap<>();
+    /**
+     * Ids of the users followed by every connected user, changed only while holding {@link #indexLock}.
+     */
+    private final Map<String, Set<String>> followeesByUser = new HashMap<>();
+    /**
+     * Connected users by id of a user they follow, read without locking when events are dispatched.
+     */
+    private final Map<String, Set<String>> connectedFollowersByFollowee = new ConcurrentHashMap<>();
+    private final Object indexLock = new Object();
+
+    /**
+     * Maximum number of events waiting to be sent to a single connection.
+     */
+    @Value("${feed.stream.bufferSize}")
+    private int bufferSize;
+
+    /**
+     * Time in milliseconds after which a connection is closed, the client is expected to reconnect.
+     */
+    @Value("${feed.stream.timeout}")
+    private long timeout;
+
+    /**
+     * Time in milliseconds a single send may take before the connection is evicted.
+     */
+    @Value("${feed.stream.sendTimeout}")
+    private long sendTimeout;
+
+    @Autowired
+    public NewsfeedStreamService(UserRepository userRepository,
+                                 FeedAssembler feedAssembler,
+                                 FollowService followService,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${feed.stream.threads}") int threads,
+                                 @Value("${feed.stream.queueCapacity}") int queueCapacity) {
+        this.userRepository = userRepository;
+        this.feedAssembler = feedAssembler;
+        this.followService = followService;
+        this.streamExecutor = new ThreadPoolTaskExecutor();
+        streamExecutor.setCorePoolSize(threads);
+        streamExecutor.setMaxPoolSize(threads);
+        streamExecutor.setQueueCapacity(queueCapacity);
+        streamExecutor.setThreadNamePrefix("newsfeed-stream-");
+        streamExecutor.initialize();
+        this.evictions = Counter.builder("newsfeed.stream.evictions")
+                .description("Connections closed because the client didn't keep up with its newsfeed")
+                .register(meterRegistry);
+        Gauge.builder("newsfeed.stream.connections", connections, AtomicInteger::get)
+                .description("Open newsfeed streams")
+                .register(meterRegistry);
+    }
+
+
+    /**
+     * Opens a stream of new activity in the newsfeed of the specified user.
+     *
+     * @param userId The unique identifier of the user whose newsfeed is streamed.
+     * @return Emitter of the stream, which sends a {@link NewsfeedDTO} with a single post, like or comment per event.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     */
+    public SseEmitter subscribe(String userId) {
+        if (!userRepository.existsById(userId)) {
+            throw new ResourceNotFoundException(String.format(UserService.ID_NOT_FOUND_MESSAGE, userId));
+        }
+
+        Connection connection = new Connection(userId, new SseEmitter(timeout));
+        connection.emitter.onCompletion(() -> remove(connection));
+        connection.emitter.onTimeout(() -> remove(connection));
+        connection.emitter.onError(e -> remove(connection));
+
+        // Added atomically with respect to removal of the last connection of the user
+        connectionsByUser.compute(userId, (key, userConnections) -> {
+            Set<Connection> result = userConnections == null ? ConcurrentHashMap.newKeySet() : userConnections;
+            result.add(connection);
+            return result;
+        });
+        connections.incrementAndGet();
+        try {
+            indexFollowees(userId);
+        } catch (RuntimeException e) {
+            remove(connection);
+            throw e;
+        }
+        return connection.emitter;
+    }
+
+
+    /**
+     * Dispatches the activity to connected followers of its author once the creating transaction, if any, commits.
+     * Dispatching runs on the stream executor, so it never delays the request which published the event.
+     * If the executor is saturated, all connections are evicted, as none of them would receive the activity.
+     *
+     * @param event The new activity.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onActivity(ActivityEvent event) {
+        if (!connectedFollowersByFollowee.containsKey(event.authorId())) {
+            return;
+        }
+
+        try {
+            streamExecutor.execute(() -> dispatch(event));
+        } catch (TaskRejectedException e) {
+            log.warn("Activity {} couldn't be streamed, newsfeed streams are saturated", event.referenceId());
+            connectionsByUser.values().forEach(userConnections -> userConnections.forEach(Connection::evict));
+        }
+    }
+
+
+    /**
+     * Keeps the index of connected followers in line with follows made through this instance.
+     *
+     * @param event The created or removed follow edge.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFollow(FollowEvent event) {
+        synchronized (indexLock) {
+            Set<String> followeeIds = followeesByUser.get(event.followerId());
+            if (followeeIds == null) {
+                return;
+            }
+
+            if (event.following()) {
+                followeeIds.add(event.followeeId());
+                connectedFollowersByFollowee.computeIfAbsent(event.followeeId(), key -> ConcurrentHashMap.newKeySet())
+                        .add(event.followerId());
+            } else {
+                followeeIds.remove(event.followeeId());
+                unindex(event.followerId(), event.followeeId());
+            }
+        }
+    }
+
+
+    /**
+     * Reloads the followed users of every connected user, picking up follows made through other instances.
+     */
+    @Scheduled(fixedDelayString = "${feed.stream.followeesRefresh}", timeUnit = TimeUnit.SECONDS)
+    public void refreshFollowees() {
+        for (String userId : connectionsByUser.keySet()) {
+            try {
+                indexFollowees(userId);
+            } catch (RuntimeException e) {
+                log.warn("Followed users of connected user {} couldn't be reloaded", userId, e);
+            }
+        }
+    }
+
+
+    /**
+     * Evicts connections whose current send has been blocked for longer than feed.stream.sendTimeout.
+     */
+    @Scheduled(fixedDelayString = "${feed.stream.sendTimeout}")
+    public void evictStalled() {
+        long now = System.currentTimeMillis();
+        connectionsByUser.values().forEach(userConnections -> userConnections.stream()
+                .filter(connection -> connection.isStalled(now))
+                .forEach(Connection::evict));
+    }
+
+
+    @PreDestroy
+    public void stop() {
+        streamExecutor.shutdown();
+    }
+
+
+    private void dispatch(ActivityEvent event) {
+        try {
+            List<String> followerIds = List.copyOf(connectedFollowersByFollowee.getOrDefault(event.authorId(), Set.of()));
+            if (followerIds.isEmpty()) {
+                return;
+            }
+
+            // Entries inserted into timelines for the activity are newer than it, so a client may receive it again after reconnecting
+            String cursor = PageCursor.encodeSince(List.of(event.referenceId()));
+            NewsfeedDTO newsfeed = feedAssembler.assemble(List.of(event.toEntry()));
+            newsfeed.setLatestCursor(cursor);
+
+            Update update = new Update(cursor, event.type().name().toLowerCase(Locale.ROOT), newsfeed);
+            for (String followerId : followerIds) {
+                connectionsByUser.getOrDefault(followerId, Set.of()).forEach(connection -> connection.offer(update));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Activity {} couldn't be streamed to followers", event.referenceId(), e);
+        }
+    }
+
+
+    /**
+     * Loads the users followed by a connected user into the index, unless he disconnected meanwhile.
+     */
+    private void indexFollowees(String userId) {
+        Set<String> followeeIds = new HashSet<>(followService.findFolloweeIds(userId));
+        synchronized (indexLock) {
+            if (!connectionsByUser.containsKey(userId)) {
+                return;
+            }
+
+            Set<String> previous = followeesByUser.put(userId, followeeIds);
+            if (previous != null) {
+                previous.stream()
+                        .filter(followeeId -> !followeeIds.contains(followeeId))
+                        .forEach(followeeId -> unindex(userId, followeeId));
+            }
+            followeeIds.forEach(followeeId -> connectedFollowersByFollowee
+                    .computeIfAbsent(followeeId, key -> ConcurrentHashMap.newKeySet())
+                    .add(userId));
+        }
+    }
+
+
+    /**
+     * Removes a user who disconnected his last stream from the index, unless he connected again meanwhile.
+     */
+    private void unindexFollowees(String userId) {
+        synchronized (indexLock) {
+            if (connectionsByUser.containsKey(userId)) {
+                return;
+            }
+
+            Set<String> followeeIds = followeesByUser.remove(userId);
+            if (followeeIds != null) {
+                followeeIds.forEach(followeeId -> unindex(userId, followeeId));
+            }
+        }
+    }
+
+
+    private void unindex(String userId, String followeeId) {
+        connectedFollowersByFollowee.computeIfPresent(followeeId, (key, followerIds) -> {
+            followerIds.remove(userId);
+            return followerIds.isEmpty() ? null : followerIds;
+        });
+    }
+
+
+    private void remove(Connection connection) {
+        connectionsByUser.computeIfPresent(connection.userId, (userId, userConnections) -> {
+            if (userConnections.remove(connection)) {
+                connections.decrementAndGet();
+            }
+            return userConnections.isEmpty() ? null : userConnections;
+        });
+        if (!connectionsByUser.containsKey(connection.userId)) {
+            unindexFollowees(connection.userId);
+        }
+    }
+
+
+    /**
+     * Event to be sent, the builder of an SSE event can be used only once, so it is built per connection.
+     */
+    private record Update(String id, String name, NewsfeedDTO newsfeed) {
+    }
+
+
+    /**
+     * Open stream of a single client with its bounded buffer. At most one task drains the buffer at a time.
+     */
+    private class Connection {
+
+        private final String userId;
+        private final SseEmitter emitter;
+        private final BlockingQueue<Update> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean evicted = new AtomicBoolean();
+        /**
+         * Start of the send in progress in epoch milliseconds, 0 if none is.
+         */
+        private volatile long sendingSince;
+
+        private Connection(String userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+        }
+
+
+        private void offer(Update update) {
+            if (!buffer.offer(update)) {
+                evict();
+                return;
+            }
+            drain();
+        }
+
+
+        private boolean isStalled(long now) {
+            long since = sendingSince;
+            return since != 0 && now - since > sendTimeout;
+        }
+
+
+        /**
+         * Stops streaming to the client. The emitter is completed by the send in progress, if any,
+         * as a send blocked on the socket holds the emitter until the write fails.
+         */
+        private void evict() {
+            if (!evicted.compareAndSet(false, true)) {
+                return;
+            }
+
+            evictions.increment();
+            remove(this);
+            buffer.clear();
+            if (draining.compareAndSet(false, true)) {
+                emitter.complete();
+            }
+        }
+
+
+        private void drain() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    streamExecutor.execute(this::send);
+                } catch (TaskRejectedException e) {
+                    draining.set(false);
+                    evict();
+                }
+            }
+        }
+
+
+        private void send() {
+            try {
+                Update update;
+                while (!evicted.get() && (update = buffer.poll()) != null) {
+                    sendingSince = System.currentTimeMillis();
+                    emitter.send(SseEmitter.event()
+                            .id(update.id())
+                            .name(update.name())
+                            .data(update.newsfeed()));
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client is gone or the emitter is already completed
+                remove(this);
+                buffer.clear();
+                return;
+            } finally {
+                sendingSince = 0;
+                draining.set(false);
+            }
+
+            if (evicted.get()) {
+                emitter.complete();
+            } else if (!buffer.isEmpty()) {
+                // An update offered while the last one was being sent
+                drain();
+            }
+        }
+    }
+}
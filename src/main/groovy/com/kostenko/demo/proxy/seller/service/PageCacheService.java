@@ -0,0 +1,140 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kostenko.demo.proxy.seller.dto.CommentPageDTO;
+import com.kostenko.demo.proxy.seller.dto.UserPageDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Bounded, expiring read-through caches of public pages: user pages keyed by user id
+ * and first pages of post comments keyed by post id. Deeper comment pages aren't cached,
+ * they are rarely read and can't be invalidated by a single key.
+ * <p>
+ * Every page is cached together with the version it was built for, see {@link PageVersions}, and is rebuilt
+ * once the caller asks for another version, so a cached page never outlives a change made on another instance.
+ * Writes evict the pages they change directly as well, counters of posts shown on a cached page
+ * of another user are refreshed when the page expires after pageCache.expiry seconds.
+ * Hit and miss counts are published as {@code cache.gets} metrics of the {@code userPageCache}
+ * and {@code postCommentsCache} caches.
+ */
+@Service
+public class PageCacheService {
+
+    protected static final String USER_PAGE_CACHE_NAME = "userPageCache";
+    protected static final String POST_COMMENTS_CACHE_NAME = "postCommentsCache";
+    private final Cache<String, Page<UserPageDTO>> userPages;
+    private final Cache<String, Page<CommentPageDTO>> postComments;
+
+    /**
+     * Constructs a PageCacheService and registers its metrics.
+     *
+     * @param meterRegistry Registry the cache metrics are published to.
+     * @param maxSize       Maximum number of cached pages of each kind.
+     * @param expiry        Time in seconds after which a cached page is reloaded.
+     */
+    @Autowired
+    public PageCacheService(MeterRegistry meterRegistry,
+                            @Value("${pageCache.maxSize}") long maxSize,
+                            @Value("${pageCache.expiry}") long expiry) {
+        this.userPages = build(maxSize, expiry);
+        this.postComments = build(maxSize, expiry);
+        CaffeineCacheMetrics.monitor(meterRegistry, userPages, USER_PAGE_CACHE_NAME);
+        CaffeineCacheMetrics.monitor(meterRegistry, postComments, POST_COMMENTS_CACHE_NAME);
+    }
+
+
+    /**
+     * Returns the page of the specified user, loading it on a cache miss or if the cached page has another version.
+     * Failures of the loader, such as a missing user, are propagated and not cached.
+     *
+     * @param userId  The unique identifier of the user.
+     * @param version Version of the page read before it is loaded.
+     * @param loader  Function building the page from the database.
+     * @return {@link UserPageDTO} of the user.
+     */
+    public UserPageDTO getUserPage(String userId, String version, Function<String, UserPageDTO> loader) {
+        return get(userPages, userId, version, loader);
+    }
+
+
+    /**
+     * Returns the first page of comments on the specified post, loading it on a cache miss
+     * or if the cached page has another version.
+     *
+     * @param postId  The unique identifier of the commented post.
+     * @param version Version of the page read before it is loaded.
+     * @param loader  Function building the page from the database.
+     * @return {@link CommentPageDTO} with the first comments on the post.
+     */
+    public CommentPageDTO getPostComments(String postId, String version, Function<String, CommentPageDTO> loader) {
+        return get(postComments, postId, version, loader);
+    }
+
+
+    /**
+     * Evicts the page of the specified user, must be called whenever his posts, comments, likes or follow edges change.
+     *
+     * @param userId The unique identifier of the user.
+     */
+    public void invalidateUserPage(String userId) {
+        userPages.invalidate(userId);
+    }
+
+
+    /**
+     * Evicts the first page of comments on the specified post, must be called whenever the post or its comments change.
+     *
+     * @param postId The unique identifier of the post.
+     */
+    public void invalidatePostComments(String postId) {
+        postComments.invalidate(postId);
+    }
+
+
+    /**
+     * Evicts all cached pages, used on changes visible on pages of arbitrary users, such as a new username.
+     */
+    public void invalidateAll() {
+        userPages.invalidateAll();
+        postComments.invalidateAll();
+    }
+
+
+    /**
+     * Reads a hit without writing, so that reading a page doesn't postpone its expiry.
+     */
+    private static <T> T get(Cache<String, Page<T>> cache, String key, String version, Function<String, T> loader) {
+        Page<T> cached = cache.getIfPresent(key);
+        if (cached != null && cached.version().equals(version)) {
+            return cached.body();
+        }
+
+        return cache.asMap().compute(key, (k, current) -> current != null && current.version().equals(version)
+                ? current
+                : new Page<>(version, loader.apply(k))).body();
+    }
+
+
+    private static <T> Cache<String, T> build(long maxSize, long expiry) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(expiry))
+                .recordStats()
+                .build();
+    }
+
+
+    /**
+     * Cached page together with the version it was built for.
+     */
+    private record Page<T>(String version, T body) {
+    }
+}
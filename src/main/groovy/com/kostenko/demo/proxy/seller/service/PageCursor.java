@@ -0,0 +1,221 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Opaque position in a list ordered by creation time, with an id as a tiebreak for documents
+ * created in the same millisecond: the document id, or for newsfeed entries the id of the referenced post,
+ * like or comment, which is an ObjectId in every source of the newsfeed.
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode
+public class PageCursor {
+
+    /**
+     * Page size used when the client doesn't specify one.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    /**
+     * Upper bound for the page size a client can request.
+     */
+    public static final int MAX_PAGE_SIZE = 100;
+    protected static final String MALFORMED_CURSOR_MESSAGE = "Cursor \"%s\" is malformed.";
+    protected static final String PAGE_SIZE_MESSAGE = "Page size must be between 1 and " + MAX_PAGE_SIZE + ".";
+    /**
+     * Seconds before the newest delivered entry from which a polled newsfeed is read again, so that entries
+     * which became visible later than entries with greater ObjectIds aren't skipped.
+     */
+    public static final int SINCE_OVERLAP_SECONDS = 10;
+    private static final char SEPARATOR = ':';
+    private static final char SINCE_SEPARATOR = ',';
+
+    private final Instant createdAt;
+
+    private final String id;
+
+
+    /**
+     * Decodes a cursor previously returned to a client.
+     *
+     * @param cursor The encoded cursor, may be null.
+     * @return Decoded cursor, or null if no cursor is provided.
+     * @throws IllegalArgumentException - if the cursor can't be decoded.
+     */
+    public static PageCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(SEPARATOR);
+            return new PageCursor(
+                    Instant.ofEpochMilli(Long.parseLong(decoded.substring(0, separator))),
+                    decoded.substring(separator + 1));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(String.format(MALFORMED_CURSOR_MESSAGE, cursor), e);
+        }
+    }
+
+
+    /**
+     * Encodes the ids of the newest newsfeed entries a client has received, to be passed back as since.
+     * Unlike creation times, ObjectIds grow in the order the entries were inserted, so activity
+     * inserted into a timeline after a client polled is newer than its since, even if it was created earlier.
+     * ObjectIds are generated by application instances before the insert commits though, so an entry may become
+     * visible after one with a greater id was delivered. The cursor therefore keeps the delivered ids within
+     * {@link #SINCE_OVERLAP_SECONDS} of the newest one, up to {@link #MAX_PAGE_SIZE} of them: the window is read
+     * again on the next poll and only the entries not among them are delivered.
+     *
+     * @param ids ObjectIds of the delivered timeline entries, or of the posts, likes and comments read in their place.
+     * @return Cursor in a URL-safe form to be returned to a client.
+     */
+    public static String encodeSince(Collection<String> ids) {
+        List<ObjectId> delivered = ids.stream()
+                .distinct()
+                .map(ObjectId::new)
+                .sorted(Comparator.reverseOrder())
+                .toList();
+        long overlapStart = (long) delivered.get(0).getTimestamp() - SINCE_OVERLAP_SECONDS;
+
+        String raw = delivered.stream()
+                .filter(id -> id.getTimestamp() >= overlapStart)
+                .limit(MAX_PAGE_SIZE)
+                .map(ObjectId::toHexString)
+                .collect(Collectors.joining(String.valueOf(SINCE_SEPARATOR)));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Decodes a cursor returned by {@link #encodeSince(Collection)}. A page cursor, which clients received as since
+     * in earlier versions, is accepted as well and continues from the first ObjectId of its second.
+     *
+     * @param since The encoded cursor.
+     * @return The newest delivered ObjectId with the ids delivered within the overlap window.
+     * @throws IllegalArgumentException - if the cursor can't be decoded.
+     */
+    public static Since decodeSince(String since) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(since), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format(MALFORMED_CURSOR_MESSAGE, since), e);
+        }
+        List<String> ids = List.of(decoded.split(String.valueOf(SINCE_SEPARATOR)));
+        if (ids.stream().allMatch(ObjectId::isValid)) {
+            return new Since(new ObjectId(ids.get(0)), Set.copyOf(ids));
+        }
+
+        PageCursor cursor = decode(since);
+        if (cursor == null) {
+            throw new IllegalArgumentException(String.format(MALFORMED_CURSOR_MESSAGE, since));
+        }
+        return new Since(firstIdOf(cursor.getCreatedAt().getEpochSecond()), Set.of());
+    }
+
+
+    /**
+     * Validates a requested page size.
+     *
+     * @param pageSize Requested page size, may be null.
+     * @return The requested page size or {@link #DEFAULT_PAGE_SIZE} if none is specified.
+     * @throws IllegalArgumentException - if the page size is out of bounds.
+     */
+    public static int pageSize(Integer pageSize) {
+        if (pageSize == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(PAGE_SIZE_MESSAGE);
+        }
+        return pageSize;
+    }
+
+
+    /**
+     * Builds a query reading a page of documents ordered by {@code createdAt} and {@code _id} in the specified direction,
+     * starting after the cursor. One document more than the limit is requested, so the caller can tell
+     * whether a next page exists.
+     *
+     * @param criteria  Criteria selecting the list to page through.
+     * @param cursor    Position after which documents are returned, null for the first page.
+     * @param direction Direction of the order, descending for newest first.
+     * @param limit     Maximum number of documents in the page.
+     * @return Query returning up to {@code limit + 1} documents.
+     */
+    public static Query pageQuery(Criteria criteria, PageCursor cursor, Sort.Direction direction, int limit) {
+        return pageQuery(criteria, cursor, direction, limit, "_id");
+    }
+
+
+    /**
+     * Same as {@link #pageQuery(Criteria, PageCursor, Sort.Direction, int)}, with another field than {@code _id}
+     * as the tiebreak. The field has to be unique within the list and ordered the same way as the ids of cursors.
+     *
+     * @param tiebreak Name of the field ordering documents created in the same millisecond.
+     */
+    public static Query pageQuery(Criteria criteria, PageCursor cursor, Sort.Direction direction, int limit, String tiebreak) {
+        if (cursor != null) {
+            Criteria createdAt = Criteria.where("createdAt");
+            Criteria id = Criteria.where("createdAt").is(cursor.getCreatedAt()).and(tiebreak);
+            criteria = direction.isAscending()
+                    ? criteria.orOperator(createdAt.gt(cursor.getCreatedAt()), id.gt(cursor.getId()))
+                    : criteria.orOperator(createdAt.lt(cursor.getCreatedAt()), id.lt(cursor.getId()));
+        }
+
+        return Query.query(criteria)
+                .with(Sort.by(direction, "createdAt", tiebreak))
+                .limit(limit + 1);
+    }
+
+
+    /**
+     * @return Cursor in a URL-safe form to be returned to a client.
+     */
+    public String encode() {
+        String raw = String.valueOf(createdAt.toEpochMilli()) + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Returns the smallest ObjectId generated in the given second.
+     */
+    private static ObjectId firstIdOf(long epochSecond) {
+        return new ObjectId(String.format("%08x%016x", epochSecond, 0));
+    }
+
+
+    /**
+     * Decoded since cursor.
+     *
+     * @param latest  The newest ObjectId delivered to the client.
+     * @param seenIds Ids delivered within {@link #SINCE_OVERLAP_SECONDS} of the newest one, to be skipped when read again.
+     */
+    public record Since(ObjectId latest, Set<String> seenIds) {
+
+        /**
+         * @return The id after which activity is read again, {@link #SINCE_OVERLAP_SECONDS} before the newest one.
+         */
+        public ObjectId overlapStart() {
+            return firstIdOf(Math.max(0, (long) latest.getTimestamp() - SINCE_OVERLAP_SECONDS));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.Comment;
+import com.kostenko.demo.proxy.seller.entity.Follow;
+import com.kostenko.demo.proxy.seller.entity.Like;
+import com.kostenko.demo.proxy.seller.entity.Post;
+import com.kostenko.demo.proxy.seller.entity.User;
+import com.kostenko.demo.proxy.seller.error.ResourceNotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Versions of public pages kept in the {@code pageVersion} field of users and posts. Every write changing
+ * what a page shows increments the version, so the version is read with a single projection and compared
+ * with the one a client already has before the page is built.
+ * <p>
+ * Counters are versioned by {@link CounterOutbox} in the same update that applies them, other writes
+ * increment the versions once the change is stored.
+ */
+@Service
+public class PageVersions {
+
+    /**
+     * Field of {@link User} and {@link Post} documents holding the version.
+     */
+    public static final String FIELD = "pageVersion";
+    /**
+     * Maximum number of documents versioned by one update when a renamed user's references are followed.
+     */
+    private static final int BATCH_SIZE = 500;
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public PageVersions(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+
+    /**
+     * Reads the version of the public page of the user.
+     *
+     * @param userId The unique identifier of the user.
+     * @return Current version of the page.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     */
+    public long ofUser(String userId) {
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        query.fields().include(FIELD);
+        User user = mongoTemplate.findOne(query, User.class);
+        if (user == null) {
+            throw new ResourceNotFoundException(String.format(UserService.ID_NOT_FOUND_MESSAGE, userId));
+        }
+        return user.getPageVersion();
+    }
+
+
+    /**
+     * Reads the version of the post.
+     *
+     * @param postId The unique identifier of the post.
+     * @return Current version of the post.
+     * @throws ResourceNotFoundException - if the post with the given postId is not found in the database.
+     */
+    public long ofPost(String postId) {
+        Query query = Query.query(Criteria.where("_id").is(postId));
+        query.fields().include(FIELD);
+        Post post = mongoTemplate.findOne(query, Post.class);
+        if (post == null) {
+            throw new ResourceNotFoundException(String.format(PostService.ID_NOT_FOUND_MESSAGE, postId));
+        }
+        return post.getPageVersion();
+    }
+
+
+    /**
+     * Reads versions of the posts, posts which don't exist are left out.
+     *
+     * @param postIds Unique identifiers of the posts.
+     * @return Versions by post id.
+     */
+    public Map<String, Long> ofPosts(Collection<String> postIds) {
+        if (postIds.isEmpty()) {
+            return Map.of();
+        }
+
+        Query query = Query.query(Criteria.where("_id").in(postIds));
+        query.fields().include(FIELD);
+        return mongoTemplate.find(query, Post.class).stream()
+                .collect(Collectors.toMap(Post::getId, Post::getPageVersion));
+    }
+
+
+    /**
+     * Increments versions of pages of the users.
+     */
+    public void touchUsers(Collection<String> userIds) {
+        touch(userIds, User.class);
+    }
+
+
+    /**
+     * Increments versions of the posts.
+     */
+    public void touchPosts(Collection<String> postIds) {
+        touch(postIds, Post.class);
+    }
+
+
+    /**
+     * Increments versions of everything showing the username of a renamed user: pages of the users on both
+     * sides of his follow edges, his own posts and posts he liked or commented on. References are read
+     * in batches, so that a user with many of them isn't loaded at once.
+     *
+     * @param userId The unique identifier of the renamed user.
+     */
+    public void touchReferencesOf(String userId) {
+        mongoTemplate.updateMulti(Query.query(Criteria.where("postCreator.id").is(userId)),
+                new Update().inc(FIELD, 1), Post.class);
+
+        forEachBatch(Follow.class, "followeeId", userId, "followerId", Follow::getFollowerId, this::touchUsers);
+        forEachBatch(Follow.class, "followerId", userId, "followeeId", Follow::getFolloweeId, this::touchUsers);
+        forEachBatch(Like.class, "userId", userId, "postId", Like::getPostId, this::touchPosts);
+        forEachBatch(Comment.class, "userId", userId, "postId", Comment::getPostId, this::touchPosts);
+    }
+
+
+    private void touch(Collection<String> ids, Class<?> entity) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids)), new Update().inc(FIELD, 1), entity);
+    }
+
+
+    /**
+     * Streams the referenced ids of documents owned by the user, passing them to the consumer in batches.
+     */
+    private <T> void forEachBatch(Class<T> entity,
+                                  String ownerField,
+                                  String userId,
+                                  String referenceField,
+                                  Function<T, String> reference,
+                                  Consumer<List<String>> consumer) {
+        Query query = Query.query(Criteria.where(ownerField).is(userId))
+                .cursorBatchSize(BATCH_SIZE);
+        query.fields().include(referenceField);
+
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        try (Stream<T> documents = mongoTemplate.stream(query, entity)) {
+            Iterator<T> iterator = documents.iterator();
+            while (iterator.hasNext()) {
+                batch.add(reference.apply(iterator.next()));
+                if (batch.size() == BATCH_SIZE) {
+                    consumer.accept(batch.stream().distinct().toList());
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            consumer.accept(batch.stream().distinct().toList());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.Comment;
+import com.kostenko.demo.proxy.seller.entity.Follow;
+import com.kostenko.demo.proxy.seller.entity.Like;
+import com.kostenko.demo.proxy.seller.entity.OutboxEntry;
+import com.kostenko.demo.proxy.seller.entity.Post;
+import com.kostenko.demo.proxy.seller.entity.User;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Scheduled job repairing drift of the denormalized counters of posts, {@link Post#getLikeCount()}
+ * and {@link Post#getCommentCount()}, and of users, {@link User#getPostCount()}, {@link User#getFollowerCount()}
+ * and {@link User#getFollowingCount()}, e.g. after a failure of a write which wasn't run in a transaction.
+ * <p>
+ * Every document is recounted in a transaction, so the counters, the counted documents and the increments
+ * still waiting in {@link CounterOutbox} are read from the same snapshot. A dispatch of the outbox
+ * updating the document meanwhile makes the repair abort on the write conflict instead of overwriting it.
+ */
+@Component
+@Slf4j
+public class PostCounterReconciler {
+
+    /**
+     * Number of documents fetched from the database at once.
+     */
+    protected static final int BATCH_SIZE = 500;
+    private static final List<Counter> POST_COUNTERS = List.of(
+            new Counter("likeCount", Like.class, "postId"),
+            new Counter("commentCount", Comment.class, "postId"));
+    private static final List<Counter> USER_COUNTERS = List.of(
+            new Counter("postCount", Post.class, "postCreator.id"),
+            new Counter("followerCount", Follow.class, "followeeId"),
+            new Counter("followingCount", Follow.class, "followerId"));
+    private final MongoTemplate mongoTemplate;
+    /**
+     * In-memory like counters of hot posts.
+     */
+    private final HotLikeCounters hotLikeCounters;
+    /**
+     * Template of the transactions recounting single documents.
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public PostCounterReconciler(MongoTemplate mongoTemplate,
+                                 HotLikeCounters hotLikeCounters,
+                                 PlatformTransactionManager transactionManager) {
+        this.mongoTemplate = mongoTemplate;
+        this.hotLikeCounters = hotLikeCounters;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+
+    /**
+     * Recounts counters of every post and user and overwrites counters which don't match.
+     * Runs on the schedule configured by postCounters.reconcileCron in application properties.
+     */
+    @Scheduled(cron = "${postCounters.reconcileCron}")
+    public void reconcile() {
+        int posts = reconcileAll(Post.class, POST_COUNTERS);
+        int users = reconcileAll(User.class, USER_COUNTERS);
+        log.info("Counters reconciled, {} posts and {} users repaired", posts, users);
+    }
+
+
+    /**
+     * Recounts counters of every document of the given entity.
+     *
+     * @return Number of repaired documents.
+     */
+    private int reconcileAll(Class<?> entity, List<Counter> counters) {
+        Query query = new Query().cursorBatchSize(BATCH_SIZE);
+        query.fields().include("_id");
+
+        int repaired = 0;
+        try (Stream<Document> documents = mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(entity))) {
+            Iterator<Document> iterator = documents.iterator();
+            while (iterator.hasNext()) {
+                String id = iterator.next().get("_id").toString();
+                // Like counters of hot posts have increments waiting in memory, they are expected to differ
+                if (entity == Post.class && hotLikeCounters.isHot(id)) {
+                    continue;
+                }
+
+                try {
+                    if (reconcile(entity, id, counters)) {
+                        repaired++;
+                    }
+                } catch (RuntimeException e) {
+                    // e.g. a write conflict with a dispatch of the outbox, the document is recounted by the next run
+                    log.debug("Counters of {} {} not reconciled", entity.getSimpleName(), id, e);
+                }
+            }
+        }
+        return repaired;
+    }
+
+
+    /**
+     * Recounts counters of a single document in a transaction.
+     *
+     * @param entity   Class of the document.
+     * @param id       The unique identifier of the document.
+     * @param counters Counter fields of the document.
+     * @return true if the counters had drifted and were repaired.
+     */
+    protected boolean reconcile(Class<?> entity, String id, List<Counter> counters) {
+        String collection = mongoTemplate.getCollectionName(entity);
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            Query byId = Query.query(Criteria.where("_id").is(id));
+            counters.forEach(counter -> byId.fields().include(counter.field()));
+            Document document = mongoTemplate.findOne(byId, Document.class, collection);
+            if (document == null) {
+                return false;
+            }
+
+            Map<String, Integer> pending = pendingIncrements(collection, id);
+            Update update = new Update();
+            for (Counter counter : counters) {
+                long expected = mongoTemplate.count(Query.query(Criteria.where(counter.reference()).is(id)), counter.counted())
+                        - pending.getOrDefault(counter.field(), 0);
+                Number actual = document.get(counter.field(), Number.class);
+                if (actual == null || actual.longValue() != expected) {
+                    log.warn("Counter {} of {} {} drifted: {} -> {}", counter.field(), entity.getSimpleName(), id, actual, expected);
+                    update.set(counter.field(), expected);
+                }
+            }
+
+            if (update.getUpdateObject().isEmpty()) {
+                return false;
+            }
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(id)), update, entity);
+            return true;
+        }));
+    }
+
+
+    /**
+     * Sums increments of counters of the document which are still waiting in the outbox, by field.
+     */
+    private Map<String, Integer> pendingIncrements(String collection, String documentId) {
+        Map<String, Integer> pending = new HashMap<>();
+        for (OutboxEntry entry : mongoTemplate.find(Query.query(Criteria.where("increments.documentId").is(documentId)), OutboxEntry.class)) {
+            for (OutboxEntry.Increment increment : entry.getIncrements()) {
+                if (increment.getCollection().equals(collection) && increment.getDocumentId().equals(documentId)) {
+                    pending.merge(increment.getField(), increment.getDelta(), Integer::sum);
+                }
+            }
+        }
+        return pending;
+    }
+
+
+    /**
+     * Counter field of a document, counting documents of another entity referencing it.
+     *
+     * @param field     Name of the counter field.
+     * @param counted   Class of the counted documents.
+     * @param reference Field of the counted documents holding the id of the document.
+     */
+    protected record Counter(String field, Class<?> counted, String reference) {
+    }
+}
@@ -1,28 +1,38 @@
 package com.kostenko.demo.proxy.seller.service;
 
-import com.kostenko.demo.proxy.seller.dto.*;
+import com.kostenko.demo.proxy.seller.dto.NewsfeedDTO;
+import com.kostenko.demo.proxy.seller.dto.PostCreationDTO;
+import com.kostenko.demo.proxy.seller.dto.PostDTO;
+import com.kostenko.demo.proxy.seller.dto.PostPageDTO;
 import com.kostenko.demo.proxy.seller.entity.Comment;
+import com.kostenko.demo.proxy.seller.entity.FeedEntryType;
 import com.kostenko.demo.proxy.seller.entity.Like;
+import com.kostenko.demo.proxy.seller.entity.OutboxEntry;
 import com.kostenko.demo.proxy.seller.entity.Post;
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry;
 import com.kostenko.demo.proxy.seller.entity.User;
 import com.kostenko.demo.proxy.seller.error.ResourceNotFoundException;
-import com.kostenko.demo.proxy.seller.repository.LikeRepository;
+import com.kostenko.demo.proxy.seller.mapper.DtoMapper;
 import com.kostenko.demo.proxy.seller.repository.PostRepository;
 import com.kostenko.demo.proxy.seller.repository.UserRepository;
-import org.modelmapper.ModelMapper;
+import org.bson.BsonValue;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.Comparator;
-import java.util.LinkedHashSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * Service class for managing posts, providing methods for post-related operations.
@@ -44,36 +54,93 @@ public class PostService {
      */
     private final UserRepository userRepository;
     /**
-     * Repository for managing {@link com.kostenko.demo.proxy.seller.entity.Like} entities in MongoDB.
+     * Service maintaining materialized newsfeed timelines of followers.
      */
-    private final LikeRepository likeRepository;
+    private final TimelineService timelineService;
     /**
-     * Mapper for converting entities to DTOs and vice versa.
+     * Engine producing pages of the newsfeed, selected with the feed.engine property.
      */
-    private final ModelMapper modelMapper;
+    private final FeedEngine feedEngine;
+    /**
+     * Assembler resolving timeline entries into the newsfeed.
+     */
+    private final FeedAssembler feedAssembler;
+    /**
+     * Mapper for converting entities to DTOs.
+     */
+    private final DtoMapper dtoMapper;
     private final MongoTemplate mongoTemplate;
+    /**
+     * Maintainer of timelines, cached pages and live streams derived from posts and likes.
+     */
+    private final ActivityProjector activityProjector;
+    /**
+     * Outbox of like counters of posts and post counters of users.
+     */
+    private final CounterOutbox counterOutbox;
+    /**
+     * In-memory like counters of hot posts.
+     */
+    private final HotLikeCounters hotLikeCounters;
+    /**
+     * Versions of posts and user pages, which version newsfeed pages.
+     */
+    private final PageVersions pageVersions;
+    /**
+     * Remover of likes and comments of deleted posts.
+     */
+    private final CascadeRemover cascadeRemover;
+    /**
+     * Template of the transaction removing a post together with its counter.
+     */
+    private final TransactionTemplate transactionTemplate;
 
 
     /**
      * Constructs a PostService with the specified repositories and model mapper.
      *
      * @param postRepository Repository for managing Post entities.
-     * @param userRepository Repository for managing User entities.
-     * @param modelMapper    Mapper for converting entities to DTOs and vice versa.
+     * @param userRepository    Repository for managing User entities.
+     * @param timelineService   Service maintaining materialized newsfeed timelines.
+     * @param feedEngine        Engine producing pages of the newsfeed.
+     * @param feedAssembler     Assembler resolving timeline entries into the newsfeed.
+     * @param dtoMapper         Mapper for converting entities to DTOs.
+     * @param activityProjector Maintainer of state derived from posts and likes.
+     * @param counterOutbox     Outbox of like and post counters.
+     * @param hotLikeCounters   In-memory like counters of hot posts.
+     * @param pageVersions      Versions of posts and user pages.
+     * @param cascadeRemover    Remover of likes and comments of deleted posts.
+     * @param transactionManager Manager of the transaction removing a post.
      */
 
     @Autowired
     public PostService(PostRepository postRepository,
                        UserRepository userRepository,
-                       LikeRepository likeRepository,
-                       ModelMapper modelMapper,
-                       MongoTemplate mongoTemplate
+                       TimelineService timelineService,
+                       FeedEngine feedEngine,
+                       FeedAssembler feedAssembler,
+                       DtoMapper dtoMapper,
+                       MongoTemplate mongoTemplate,
+                       ActivityProjector activityProjector,
+                       CounterOutbox counterOutbox,
+                       HotLikeCounters hotLikeCounters,
+                       PageVersions pageVersions,
+                       CascadeRemover cascadeRemover,
+                       PlatformTransactionManager transactionManager
     ) {
         this.postRepository = postRepository;
         this.userRepository = userRepository;
-        this.likeRepository = likeRepository;
-        this.modelMapper = modelMapper;
+        this.timelineService = timelineService;
+        this.feedEngine = feedEngine;
+        this.feedAssembler = feedAssembler;
+        this.dtoMapper = dtoMapper;
         this.mongoTemplate = mongoTemplate;
+        this.activityProjector = activityProjector;
+        this.counterOutbox = counterOutbox;
+        this.hotLikeCounters = hotLikeCounters;
+        this.pageVersions = pageVersions;
+        this.cascadeRemover = cascadeRemover;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     /**
@@ -87,7 +154,8 @@ public class PostService {
     @Transactional
     public PostDTO createPost(String userId,
                               String content) {
-        User postAuthor = userRepository.findById(userId)
+        // The post references its author by id, so only the fields shown in the response are read
+        User postAuthor = userRepository.findSummaryById(userId)
                 .orElseThrow(() -> new ResourceNotFoundException(String.format(UserService.ID_NOT_FOUND_MESSAGE, userId)));
 
         Post post = Post.builder()
@@ -96,12 +164,11 @@ public class PostService {
                 .build();
 
         postRepository.save(post);
+        counterOutbox.record(counterOutbox.increment(User.class, userId, "postCount", 1));
 
-        Query query = Query.query(Criteria.where("_id").is(userId));
-        Update update = new Update().addToSet("posts", post);
-        mongoTemplate.updateFirst(query, update, User.class);
+        activityProjector.created(new ActivityEvent(FeedEntryType.POST, userId, post.getId(), post.getId(), post.getCreatedAt()));
 
-        return modelMapper.map(post, PostDTO.class);
+        return dtoMapper.toPostDTO(post, 0);
     }
 
 
@@ -115,16 +182,25 @@ public class PostService {
 
         if (!post.getContent().equals(postDTO.getContent())) {
             post.setContent(postDTO.getContent());
+            post.setUpdatedAt(Instant.now());
+            // Only the content is written, a save would overwrite counters changed meanwhile
+            Update update = new Update()
+                    .set("content", post.getContent())
+                    .set("updatedAt", post.getUpdatedAt())
+                    .inc(PageVersions.FIELD, 1);
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(postId)), update, Post.class);
+            pageVersions.touchUsers(List.of(userId));
         }
-        postRepository.save(post);
 
-        return modelMapper.map(post, PostDTO.class);
+        return dtoMapper.toPostDTO(post, hotLikeCounters.pending(postId));
     }
 
 
     /**
      * The deletePost function deletes a post with certain id from the database.
-     * If post with requested id doesn't exist, silently ignores request
+     * If post with requested id doesn't exist, silently ignores request.
+     * The post is removed together with its counter in a transaction, its likes and comments are removed
+     * in batches after it commits, as a popular post has more of them than one transaction may remove.
      *
      * @param postId id of a post to be deleted
      * @param userId user requested deletion, must be an author in order to delete a post
@@ -141,7 +217,100 @@ public class PostService {
             throw new AccessDeniedException(UserService.ACCESS_DENIED_MESSAGE);
         }
 
-        postRepository.deleteById(postId);
+        // Of concurrent deletes of the post, only the one which removes it updates the counter
+        Boolean removed = transactionTemplate.execute(status -> {
+            if (mongoTemplate.remove(Query.query(Criteria.where("_id").is(postId)), Post.class).getDeletedCount() == 0) {
+                return false;
+            }
+            counterOutbox.record(counterOutbox.increment(User.class, userId, "postCount", -1));
+            return true;
+        });
+        if (!Boolean.TRUE.equals(removed)) {
+            return;
+        }
+
+        removeDependents(userId, postId);
+    }
+
+
+    /**
+     * Removes the likes a deleted user gave and the posts he made. Likes are removed in batches, each together
+     * with the likeCount decrements of the liked posts. Posts are read in batches and each is removed like
+     * by {@link #deletePost}, except that the postCount of the author, who is removed as well, isn't decremented.
+     *
+     * @param userId The unique identifier of the deleted user.
+     */
+    public void removeUser(String userId) {
+        cascadeRemover.removeAll(Criteria.where("userId").is(userId), Like.class, Like::getId,
+                likes -> counterOutbox.record(likes.stream()
+                        .map(like -> counterOutbox.increment(Post.class, like.getPostId(), "likeCount", -1))
+                        .toArray(OutboxEntry.Increment[]::new)));
+
+        Query query = Query.query(Criteria.where("postCreator.id").is(userId)).limit(CascadeRemover.BATCH_SIZE);
+        query.fields().include("_id");
+        for (List<Post> posts = mongoTemplate.find(query, Post.class); !posts.isEmpty(); posts = mongoTemplate.find(query, Post.class)) {
+            for (Post post : posts) {
+                if (mongoTemplate.remove(Query.query(Criteria.where("_id").is(post.getId())), Post.class).getDeletedCount() > 0) {
+                    removeDependents(userId, post.getId());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Removes what depends on a removed post: its timeline entries and cached pages, then its likes and comments
+     * in batches, as a popular post has more of them than one transaction may remove.
+     */
+    private void removeDependents(String authorId, String postId) {
+        activityProjector.postDeleted(authorId, postId);
+        cascadeRemover.removeAll(Criteria.where("postId").is(postId), Like.class, Like::getId);
+        cascadeRemover.removeAll(Criteria.where("postId").is(postId), Comment.class, Comment::getId);
+    }
+
+
+    /**
+     * Returns a page of posts made by the user, newest first. Posts are read without their author,
+     * which is the requested user anyway.
+     *
+     * @param userId   The unique identifier of the author.
+     * @param cursor   Cursor returned with the previous page, null for the first page.
+     * @param pageSize Maximum number of posts in the page, defaults to {@link PageCursor#DEFAULT_PAGE_SIZE}.
+     * @return {@link PostPageDTO} with posts and their total count.
+     * @throws IllegalArgumentException  - if the cursor is malformed or the page size is out of bounds.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     */
+    public PostPageDTO getUserPosts(String userId, String cursor, Integer pageSize) {
+        int limit = PageCursor.pageSize(pageSize);
+        PageCursor pageCursor = PageCursor.decode(cursor);
+
+        User user = userRepository.findSummaryById(userId)
+                .orElseThrow(() -> new ResourceNotFoundException(String.format(UserService.ID_NOT_FOUND_MESSAGE, userId)));
+
+        return findUserPosts(user, pageCursor, limit);
+    }
+
+
+    /**
+     * Reads a page of posts of a user already loaded by the caller, whose postCount is the total count.
+     */
+    PostPageDTO findUserPosts(User user, PageCursor cursor, int limit) {
+        Query query = PageCursor.pageQuery(Criteria.where("postCreator.id").is(user.getId()), cursor, Sort.Direction.DESC, limit);
+        query.fields().exclude("postCreator");
+
+        List<Post> posts = mongoTemplate.find(query, Post.class);
+        String nextCursor = null;
+        if (posts.size() > limit) {
+            posts = posts.subList(0, limit);
+            Post last = posts.get(limit - 1);
+            nextCursor = new PageCursor(last.getCreatedAt(), last.getId()).encode();
+        }
+
+        return PostPageDTO.builder()
+                .posts(posts.stream().map(post -> dtoMapper.toSimplePostDTO(post, hotLikeCounters.pending(post.getId()))).toList())
+                .totalCount(user.getPostCount())
+                .nextCursor(nextCursor)
+                .build();
     }
 
 
@@ -179,82 +348,209 @@ public class PostService {
     }
 
 
+    /**
+     * Likes a post on behalf of the user. The like is stored as an edge unique per user and post,
+     * so liking the same post twice, including concurrently, is a no-op and counts once.
+     *
+     * @param userId The unique identifier of the user who likes the post.
+     * @param postId The unique identifier of the liked post.
+     * @throws ResourceNotFoundException - if the post with the given postId is not found in the database.
+     */
     @Transactional
     public void addLikeToPost(String userId, String postId) {
-        Post postToLike = postRepository.findById(postId)
-                .orElseThrow(() -> new ResourceNotFoundException(String.format(ID_NOT_FOUND_MESSAGE, postId)));
-
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new ResourceNotFoundException(String.format(UserService.ID_NOT_FOUND_MESSAGE, userId)));
+        if (!postRepository.existsById(postId)) {
+            throw new ResourceNotFoundException(String.format(ID_NOT_FOUND_MESSAGE, postId));
+        }
 
-        Like like = Like.builder()
-                .post(postToLike)
-                .likeCreator(user)
-                .build();
+        Instant createdAt = Instant.now();
 
-        likeRepository.save(like);
+        // An upsert instead of an insert, a duplicate key error would abort the surrounding transaction.
+        // The inserted like gets userId and postId from the query and a generated ObjectId.
+        Query query = Query.query(Criteria.where("userId").is(userId).and("postId").is(postId));
+        Update update = new Update().setOnInsert("createdAt", createdAt);
+        BsonValue upsertedId = mongoTemplate.upsert(query, update, Like.class).getUpsertedId();
+        if (upsertedId == null) {
+            return;
+        }
+        String likeId = upsertedId.asObjectId().getValue().toHexString();
 
-        // Add like to post
-        Query query = Query.query(Criteria.where("_id").is(postId));
-        Update update = new Update().addToSet("likes", like.getId());
-        mongoTemplate.updateFirst(query, update, Post.class);
+        if (!hotLikeCounters.add(postId, 1)) {
+            counterOutbox.record(counterOutbox.increment(Post.class, postId, "likeCount", 1));
+        }
 
-        // Add like to User
-        query = Query.query(Criteria.where("_id").is(userId));
-        update = new Update().addToSet("likes", like.getId());
-        mongoTemplate.updateFirst(query, update, User.class);
+        activityProjector.created(new ActivityEvent(FeedEntryType.LIKE, userId, postId, likeId, createdAt));
     }
 
 
+    /**
+     * Removes the like of the user from a post. Removing a like which doesn't exist is a no-op.
+     *
+     * @param userId The unique identifier of the user who liked the post.
+     * @param postId The unique identifier of the liked post.
+     */
     @Transactional
     public void removeLikeFromPost(String userId, String postId) {
-        Like like = likeRepository.findByLikeCreatorIdAndPostId(userId, postId);
+        Query query = Query.query(Criteria.where("userId").is(userId).and("postId").is(postId));
+        Like like = mongoTemplate.findAndRemove(query, Like.class);
+        if (like == null) {
+            return;
+        }
 
-        // Remove like from post
-        Query query = Query.query(Criteria.where("_id").is(postId));
-        Update update = new Update().pull("likes", like.getId());
-        mongoTemplate.updateFirst(query, update, Post.class);
+        if (!hotLikeCounters.add(postId, -1)) {
+            counterOutbox.record(counterOutbox.increment(Post.class, postId, "likeCount", -1));
+        }
 
-        // Remove like from User
-        query = Query.query(Criteria.where("_id").is(userId));
-        update = new Update().pull("likes", like.getId());
-        mongoTemplate.updateFirst(query, update, User.class);
+        activityProjector.likeRemoved(userId, like.getId());
+    }
 
-        likeRepository.delete(like);
+    /**
+     * Builds a page of the newsfeed of the specified user, newest activity first.
+     * The first page comes with the cursor of the last inserted entry in it, to be passed as since.
+     *
+     * @param userId   The unique identifier of the user whose newsfeed is requested.
+     * @param cursor   Cursor returned with the previous page, null for the first page.
+     * @param pageSize Maximum number of posts, likes and comments in the page, defaults to {@link PageCursor#DEFAULT_PAGE_SIZE}.
+     * @return {@link NewsfeedDTO} page with the cursor of the next one.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     * @throws IllegalArgumentException  - if the cursor is malformed or the page size is out of bounds.
+     */
+    public NewsfeedDTO newsfeed(String userId, String cursor, Integer pageSize) {
+        return versionedNewsfeed(userId, cursor, pageSize).body().get();
     }
 
-    public NewsfeedDTO newsfeed(String userId) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new ResourceNotFoundException(String.format(UserService.ID_NOT_FOUND_MESSAGE, userId)));
 
-        Set<PostDTO> posts = user
-                .getFollowing()
-                .stream()
-                .flatMap(following -> following.getPosts().stream())
-                .sorted(Comparator.comparing(Post::getCreatedAt))
-                .map(post -> modelMapper.map(post, PostDTO.class))
-                .collect(Collectors.toCollection(LinkedHashSet::new));
-
-        Set<LikeDTO> likes = user
-                .getFollowing()
-                .stream()
-                .flatMap(following -> following.getLikes().stream())
-                .sorted(Comparator.comparing(Like::getCreatedAt))
-                .map(like -> modelMapper.map(like, LikeDTO.class))
-                .collect(Collectors.toCollection(LinkedHashSet::new));
-
-        Set<CommentDTO> comments = user
-                .getFollowing()
-                .stream()
-                .flatMap(following -> following.getComments().stream())
-                .sorted(Comparator.comparing(Comment::getCreatedAt))
-                .map(comment -> modelMapper.map(comment, CommentDTO.class))
-                .collect(Collectors.toCollection(LinkedHashSet::new));
-
-        return NewsfeedDTO.builder()
-                .posts(posts)
-                .likes(likes)
-                .comments(comments)
-                .build();
+    /**
+     * Reads the entries of a page of the newsfeed and versions them before the page is assembled.
+     *
+     * @param userId   The unique identifier of the user whose newsfeed is requested.
+     * @param cursor   Cursor returned with the previous page, null for the first page.
+     * @param pageSize Maximum number of posts, likes and comments in the page, defaults to {@link PageCursor#DEFAULT_PAGE_SIZE}.
+     * @return {@link Versioned} {@link NewsfeedDTO} page with the cursor of the next one.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     * @throws IllegalArgumentException  - if the cursor is malformed or the page size is out of bounds.
+     */
+    public Versioned<NewsfeedDTO> versionedNewsfeed(String userId, String cursor, Integer pageSize) {
+        int limit = PageCursor.pageSize(pageSize);
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        requireUser(userId);
+
+        List<TimelineEntry> entries = feedEngine.readPage(userId, pageCursor, Sort.Direction.DESC, limit);
+        String nextCursor = null;
+        if (entries.size() > limit) {
+            entries = entries.subList(0, limit);
+            nextCursor = cursorOf(entries.get(limit - 1));
+        }
+
+        // Entries inserted later than any on the first page are delivered to since, older ones are on the next pages
+        String latestCursor = null;
+        if (pageCursor == null && !entries.isEmpty()) {
+            latestCursor = PageCursor.encodeSince(entries.stream().map(TimelineEntry::getId).toList());
+        }
+
+        return versioned(entries, nextCursor, latestCursor);
+    }
+
+
+    /**
+     * Returns only the activity which got into the newsfeed of the specified user after the since cursor,
+     * in the order of insertion, so that a polling client reads just what it hasn't seen yet. Activity projected
+     * into the newsfeed late is delivered as well, even if it was created before the newest activity the client has,
+     * and so is activity which became visible up to {@link PageCursor#SINCE_OVERLAP_SECONDS} after activity
+     * with a greater ObjectId was delivered.
+     * If more activity is waiting than fits into the page, the cursor of the next page is returned,
+     * to be passed as since again.
+     *
+     * @param userId   The unique identifier of the user whose newsfeed is requested.
+     * @param since    Cursor of the newest activity the client has seen, its latestCursor.
+     * @param pageSize Maximum number of posts, likes and comments in the page, defaults to {@link PageCursor#DEFAULT_PAGE_SIZE}.
+     * @return {@link NewsfeedDTO} with the new activity.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     * @throws IllegalArgumentException  - if the cursor is malformed or the page size is out of bounds.
+     */
+    public NewsfeedDTO newsfeedSince(String userId, String since, Integer pageSize) {
+        return versionedNewsfeedSince(userId, since, pageSize).body().get();
+    }
+
+
+    /**
+     * Reads the entries delivered to since and versions them before the page is assembled.
+     *
+     * @param userId   The unique identifier of the user whose newsfeed is requested.
+     * @param since    Cursor of the newest activity the client has seen, its latestCursor.
+     * @param pageSize Maximum number of posts, likes and comments in the page, defaults to {@link PageCursor#DEFAULT_PAGE_SIZE}.
+     * @return {@link Versioned} {@link NewsfeedDTO} with the new activity.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     * @throws IllegalArgumentException  - if the cursor is malformed or the page size is out of bounds.
+     */
+    public Versioned<NewsfeedDTO> versionedNewsfeedSince(String userId, String since, Integer pageSize) {
+        int limit = PageCursor.pageSize(pageSize);
+        PageCursor.Since sinceCursor = PageCursor.decodeSince(since);
+        requireUser(userId);
+
+        // The overlap window is read again for entries which became visible late, those the client has are skipped
+        Set<String> seenIds = sinceCursor.seenIds();
+        List<TimelineEntry> entries = feedEngine.readSince(userId, sinceCursor.overlapStart(), limit + seenIds.size()).stream()
+                .filter(entry -> !seenIds.contains(entry.getId()))
+                .toList();
+        boolean more = entries.size() > limit;
+        if (more) {
+            entries = entries.subList(0, limit);
+        }
+
+        String latestCursor = since;
+        if (!entries.isEmpty()) {
+            List<String> delivered = new ArrayList<>(seenIds);
+            entries.forEach(entry -> delivered.add(entry.getId()));
+            latestCursor = PageCursor.encodeSince(delivered);
+        }
+        String nextCursor = more ? latestCursor : null;
+        return versioned(entries, nextCursor, latestCursor);
+    }
+
+
+    /**
+     * Versions a page of entries before any referenced document is loaded and assembled. The version is made of
+     * the entries with their cursors and of the {@link PageVersions} of the referenced posts, which change with
+     * their content, counters and usernames of their authors, likers and commenters, along with likes of the posts
+     * not persisted yet.
+     */
+    private Versioned<NewsfeedDTO> versioned(List<TimelineEntry> entries, String nextCursor, String latestCursor) {
+        List<String> postIds = entries.stream().map(TimelineEntry::getPostId).distinct().toList();
+        Map<String, Long> postVersions = pageVersions.ofPosts(postIds);
+
+        List<Object> parts = new ArrayList<>();
+        parts.add(nextCursor);
+        parts.add(latestCursor);
+        for (TimelineEntry entry : entries) {
+            parts.add(entry.getType());
+            parts.add(entry.getReferenceId());
+            parts.add(entry.getAuthorUsername());
+        }
+        for (String postId : postIds) {
+            parts.add(postVersions.get(postId));
+            parts.add(hotLikeCounters.pending(postId));
+        }
+
+        return new Versioned<>(Versioned.etagOf(parts.toArray()), () -> assemble(entries, nextCursor, latestCursor));
+    }
+
+
+    private void requireUser(String userId) {
+        if (!userRepository.existsById(userId)) {
+            throw new ResourceNotFoundException(String.format(UserService.ID_NOT_FOUND_MESSAGE, userId));
+        }
+    }
+
+
+    private NewsfeedDTO assemble(List<TimelineEntry> entries, String nextCursor, String latestCursor) {
+        NewsfeedDTO newsfeed = feedAssembler.assemble(entries);
+        newsfeed.setNextCursor(nextCursor);
+        newsfeed.setLatestCursor(latestCursor);
+        return newsfeed;
+    }
+
+
+    private static String cursorOf(TimelineEntry entry) {
+        return new PageCursor(entry.getCreatedAt(), entry.getReferenceId()).encode();
     }
 }
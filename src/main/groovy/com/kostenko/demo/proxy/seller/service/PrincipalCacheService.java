@@ -0,0 +1,72 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * Bounded, expiring cache of authenticated principals keyed by user id, so that authenticating
+ * a request doesn't read the user from the database every time.
+ * Hit and miss counts are published as {@code cache.gets} metrics of the {@code principalCache} cache.
+ */
+@Service
+public class PrincipalCacheService {
+
+    protected static final String CACHE_NAME = "principalCache";
+    /**
+     * Service for loading user details based on user identifiers.
+     */
+    private final UserDetailsServiceImpl userDetailsService;
+    private final Cache<String, UserPrincipal> cache;
+
+    /**
+     * Constructs a PrincipalCacheService and registers its metrics.
+     *
+     * @param userDetailsService Service for loading user details based on user identifiers.
+     * @param meterRegistry      Registry the cache metrics are published to.
+     * @param maxSize            Maximum number of cached principals.
+     * @param expiry             Time in seconds after which a cached principal is reloaded.
+     */
+    @Autowired
+    public PrincipalCacheService(UserDetailsServiceImpl userDetailsService,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${principalCache.maxSize}") long maxSize,
+                                 @Value("${principalCache.expiry}") long expiry) {
+        this.userDetailsService = userDetailsService;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(expiry))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+
+    /**
+     * Returns the principal of the specified user, loading it on a cache miss.
+     *
+     * @param userId The unique identifier of the user.
+     * @return Principal of the user.
+     * @throws UsernameNotFoundException - if the user with the given userId is not found in the database.
+     */
+    public UserPrincipal getPrincipal(String userId) {
+        return cache.get(userId, userDetailsService::loadPrincipalByUserId);
+    }
+
+
+    /**
+     * Evicts the principal of the specified user, must be called whenever the user is changed or deleted.
+     *
+     * @param userId The unique identifier of the user.
+     */
+    public void invalidate(String userId) {
+        cache.invalidate(userId);
+    }
+}
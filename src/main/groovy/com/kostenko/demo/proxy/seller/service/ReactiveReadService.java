@@ -0,0 +1,264 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.dto.CommentDTO;
+import com.kostenko.demo.proxy.seller.dto.CommentPageDTO;
+import com.kostenko.demo.proxy.seller.dto.FollowPageDTO;
+import com.kostenko.demo.proxy.seller.dto.LikeDTO;
+import com.kostenko.demo.proxy.seller.dto.NewsfeedDTO;
+import com.kostenko.demo.proxy.seller.dto.PostPageDTO;
+import com.kostenko.demo.proxy.seller.dto.UserPageDTO;
+import com.kostenko.demo.proxy.seller.entity.Comment;
+import com.kostenko.demo.proxy.seller.entity.Follow;
+import com.kostenko.demo.proxy.seller.entity.Like;
+import com.kostenko.demo.proxy.seller.entity.Post;
+import com.kostenko.demo.proxy.seller.entity.User;
+import com.kostenko.demo.proxy.seller.error.ResourceNotFoundException;
+import com.kostenko.demo.proxy.seller.mapper.DtoMapper;
+import com.kostenko.demo.proxy.seller.repository.ReactiveCommentRepository;
+import com.kostenko.demo.proxy.seller.repository.ReactivePostRepository;
+import com.kostenko.demo.proxy.seller.repository.ReactiveUserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Non-blocking counterpart of the read paths of {@link PostService}, {@link UserService} and {@link CommentService},
+ * built on the reactive MongoDB driver, except for the newsfeed, which is delegated to {@link PostService}. A request waiting for the database doesn't hold a servlet thread.
+ * Enabled with the reactive.enabled property.
+ * <p>
+ * The reactive driver can't resolve {@code @DBRef}s, so every document is read without its references
+ * and related users and posts are loaded by ids in batches.
+ */
+@Service
+@ConditionalOnProperty(name = "reactive.enabled", havingValue = "true")
+public class ReactiveReadService {
+
+    private final ReactivePostRepository reactivePostRepository;
+    private final ReactiveUserRepository reactiveUserRepository;
+    private final ReactiveCommentRepository reactiveCommentRepository;
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    /**
+     * Service building newsfeeds through the configured feed engine.
+     */
+    private final PostService postService;
+    /**
+     * Mapper for converting entities to DTOs.
+     */
+    private final DtoMapper dtoMapper;
+    /**
+     * In-memory like counters of hot posts, whose changes are added to the persisted likeCount of mapped posts.
+     */
+    private final HotLikeCounters hotLikeCounters;
+
+    @Autowired
+    public ReactiveReadService(ReactivePostRepository reactivePostRepository,
+                               ReactiveUserRepository reactiveUserRepository,
+                               ReactiveCommentRepository reactiveCommentRepository,
+                               ReactiveMongoTemplate reactiveMongoTemplate,
+                               PostService postService,
+                               DtoMapper dtoMapper,
+                               HotLikeCounters hotLikeCounters) {
+        this.reactivePostRepository = reactivePostRepository;
+        this.reactiveUserRepository = reactiveUserRepository;
+        this.reactiveCommentRepository = reactiveCommentRepository;
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.postService = postService;
+        this.dtoMapper = dtoMapper;
+        this.hotLikeCounters = hotLikeCounters;
+    }
+
+
+    /**
+     * Builds a page of the newsfeed of the specified user, or the activity newer than since, the same way
+     * as {@link PostService#newsfeed(String, String, Integer)} and {@link PostService#newsfeedSince(String, String, Integer)}.
+     * The feed engine merges timelines with the activity of pulled authors through blocking queries,
+     * so the page is built on the bounded elastic scheduler instead of the reactive driver.
+     *
+     * @param userId   The unique identifier of the user whose newsfeed is requested.
+     * @param cursor   Cursor returned with the previous page, null for the first page.
+     * @param since    Cursor of the newest activity the client has seen, null for a page of the newsfeed.
+     * @param pageSize Maximum number of posts, likes and comments in the page, defaults to {@link PageCursor#DEFAULT_PAGE_SIZE}.
+     * @return {@link NewsfeedDTO} page with the cursor of the next one, or {@link ResourceNotFoundException}
+     * if the user with the given userId is not found in the database.
+     * @throws IllegalArgumentException - if the cursor is malformed or the page size is out of bounds.
+     */
+    public Mono<NewsfeedDTO> newsfeed(String userId, String cursor, String since, Integer pageSize) {
+        return Mono.fromCallable(() -> since != null
+                        ? postService.newsfeedSince(userId, since, pageSize)
+                        : postService.newsfeed(userId, cursor, pageSize))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+
+    /**
+     * Builds the page of the specified user from a projection of his document and bounded slices
+     * of his posts, comments, likes, followers and followed users, newest first.
+     *
+     * @param userId The unique identifier of the user.
+     * @return {@link UserPageDTO} of the user, or {@link ResourceNotFoundException}
+     * if the user with the given userId is not found in the database.
+     */
+    public Mono<UserPageDTO> getUserPage(String userId) {
+        return reactiveUserRepository.findSummaryById(userId)
+                .switchIfEmpty(Mono.error(() -> new ResourceNotFoundException(String.format(UserService.ID_NOT_FOUND_MESSAGE, userId))))
+                .flatMap(user -> Mono.zip(
+                                findPosts(user),
+                                findComments(user),
+                                findLikes(user),
+                                findFollowUsers("followeeId", Follow::getFollowerId, user.getFollowerCount(), userId),
+                                findFollowUsers("followerId", Follow::getFolloweeId, user.getFollowingCount(), userId))
+                        .map(parts -> {
+                            UserPageDTO userPage = dtoMapper.toUserPageDTO(user);
+                            userPage.setPosts(new LinkedHashSet<>(parts.getT1().getPosts()));
+                            userPage.setPostsNextCursor(parts.getT1().getNextCursor());
+                            userPage.setComments(parts.getT2());
+                            userPage.setLikes(parts.getT3());
+                            userPage.setFollowers(new LinkedHashSet<>(parts.getT4().getUsers()));
+                            userPage.setFollowersNextCursor(parts.getT4().getNextCursor());
+                            userPage.setFollowing(new LinkedHashSet<>(parts.getT5().getUsers()));
+                            userPage.setFollowingNextCursor(parts.getT5().getNextCursor());
+                            return userPage;
+                        }));
+    }
+
+
+    /**
+     * Returns a page of comments on the post, oldest first.
+     *
+     * @param postId   The unique identifier of the commented post.
+     * @param cursor   Cursor returned with the previous page, null for the first page.
+     * @param pageSize Maximum number of comments in the page, defaults to {@link PageCursor#DEFAULT_PAGE_SIZE}.
+     * @return {@link CommentPageDTO} with the cursor of the next page, or {@link ResourceNotFoundException}
+     * if the post with the given postId is not found in the database.
+     * @throws IllegalArgumentException - if the cursor is malformed or the page size is out of bounds.
+     */
+    public Mono<CommentPageDTO> getPostComments(String postId, String cursor, Integer pageSize) {
+        int limit = PageCursor.pageSize(pageSize);
+        Query query = PageCursor.pageQuery(Criteria.where("postId").is(postId), PageCursor.decode(cursor),
+                Sort.Direction.ASC, limit);
+
+        return reactivePostRepository.findWithoutCreatorById(postId)
+                .switchIfEmpty(Mono.error(() -> new ResourceNotFoundException(String.format(PostService.ID_NOT_FOUND_MESSAGE, postId))))
+                .flatMap(post -> reactiveMongoTemplate.find(query, Comment.class).collectList()
+                        .flatMap(comments -> {
+                            List<Comment> page = comments.size() > limit ? comments.subList(0, limit) : comments;
+                            String nextCursor = comments.size() > limit
+                                    ? new PageCursor(page.get(limit - 1).getCreatedAt(), page.get(limit - 1).getId()).encode()
+                                    : null;
+
+                            return findUsersById(page.stream().map(Comment::getUserId).distinct().toList())
+                                    .map(authors -> CommentPageDTO.builder()
+                                            .comments(page.stream()
+                                                    .map(comment -> dtoMapper.toCommentDTO(comment, post, authors.get(comment.getUserId()), hotLikeCounters.pending(post.getId())))
+                                                    .toList())
+                                            .totalCount(post.getCommentCount())
+                                            .nextCursor(nextCursor)
+                                            .build());
+                        }));
+    }
+
+
+    private Mono<PostPageDTO> findPosts(User user) {
+        int limit = PageCursor.DEFAULT_PAGE_SIZE;
+        Query query = PageCursor.pageQuery(Criteria.where("postCreator.id").is(user.getId()), null, Sort.Direction.DESC, limit);
+        query.fields().exclude("postCreator");
+
+        return reactiveMongoTemplate.find(query, Post.class)
+                .collectList()
+                .map(posts -> {
+                    List<Post> page = posts.size() > limit ? posts.subList(0, limit) : posts;
+                    return PostPageDTO.builder()
+                            .posts(page.stream().map(post -> dtoMapper.toSimplePostDTO(post, hotLikeCounters.pending(post.getId()))).toList())
+                            .totalCount(user.getPostCount())
+                            .nextCursor(posts.size() > limit
+                                    ? new PageCursor(page.get(limit - 1).getCreatedAt(), page.get(limit - 1).getId()).encode()
+                                    : null)
+                            .build();
+                });
+    }
+
+
+    private Mono<Set<CommentDTO>> findComments(User user) {
+        return reactiveCommentRepository.findAllByUserIdOrderByCreatedAtDesc(user.getId(), PageRequest.of(0, PageCursor.DEFAULT_PAGE_SIZE))
+                .collectList()
+                .flatMap(comments -> findPostsById(comments.stream().map(Comment::getPostId).distinct().toList())
+                        .map(posts -> comments.stream()
+                                .map(comment -> dtoMapper.toCommentDTO(comment, posts.get(comment.getPostId()), user, hotLikeCounters.pending(comment.getPostId())))
+                                .collect(Collectors.toCollection(LinkedHashSet::new))));
+    }
+
+
+    private Mono<Set<LikeDTO>> findLikes(User user) {
+        Query query = Query.query(Criteria.where("userId").is(user.getId()))
+                .with(Sort.by(Sort.Direction.DESC, "createdAt"))
+                .limit(PageCursor.DEFAULT_PAGE_SIZE);
+
+        return reactiveMongoTemplate.find(query, Like.class)
+                .collectList()
+                .flatMap(likes -> findPostsById(likes.stream().map(Like::getPostId).distinct().toList())
+                        .map(posts -> likes.stream()
+                                .map(like -> dtoMapper.toLikeDTO(like, posts.get(like.getPostId()), user, hotLikeCounters.pending(like.getPostId())))
+                                .collect(Collectors.toCollection(LinkedHashSet::new))));
+    }
+
+
+    /**
+     * Loads the first page of followers or followed users, most recent first.
+     */
+    private Mono<FollowPageDTO> findFollowUsers(String ownerField, Function<Follow, String> otherSide, long totalCount, String userId) {
+        int limit = PageCursor.DEFAULT_PAGE_SIZE;
+        Query query = PageCursor.pageQuery(Criteria.where(ownerField).is(userId), null, Sort.Direction.DESC, limit);
+
+        return reactiveMongoTemplate.find(query, Follow.class)
+                .collectList()
+                .flatMap(follows -> {
+                    List<Follow> page = follows.size() > limit ? follows.subList(0, limit) : follows;
+                    List<String> ids = page.stream().map(otherSide).toList();
+                    String nextCursor = follows.size() > limit
+                            ? new PageCursor(page.get(limit - 1).getCreatedAt(), page.get(limit - 1).getId()).encode()
+                            : null;
+
+                    return findUsersById(ids)
+                            .map(users -> FollowPageDTO.builder()
+                                    .users(ids.stream()
+                                            .map(users::get)
+                                            .filter(Objects::nonNull)
+                                            .map(dtoMapper::toSimpleUserDTO)
+                                            .toList())
+                                    .totalCount(totalCount)
+                                    .nextCursor(nextCursor)
+                                    .build());
+                });
+    }
+
+
+    private Mono<Map<String, Post>> findPostsById(List<String> ids) {
+        if (ids.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return reactivePostRepository.findWithoutCreatorByIdIn(ids).collectMap(Post::getId);
+    }
+
+
+    private Mono<Map<String, User>> findUsersById(List<String> ids) {
+        if (ids.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return reactiveUserRepository.findUsernamesByIdIn(ids).collectMap(User::getId);
+    }
+}
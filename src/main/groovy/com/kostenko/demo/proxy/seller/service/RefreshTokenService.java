@@ -3,47 +3,68 @@ package com.kostenko.demo.proxy.seller.service;
 
 import com.kostenko.demo.proxy.seller.entity.RefreshToken;
 import com.kostenko.demo.proxy.seller.repository.RefreshTokenRepository;
-import com.kostenko.demo.proxy.seller.repository.UserRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+/**
+ * Service managing refresh tokens. Expired tokens are removed by the TTL index on
+ * {@link RefreshToken#getExpiryDate()}, and the number of active tokens of a single user is capped.
+ */
 @Service
 public class RefreshTokenService {
 
-    @Autowired
-    RefreshTokenRepository refreshTokenRepository;
+    private final RefreshTokenRepository refreshTokenRepository;
 
-    @Autowired
-    UserRepository userRepository;
+    private final MongoTemplate mongoTemplate;
 
     @Value("${jwt.refreshTokenExpiry}")
     private int refreshTokenExpiry;
 
+    /**
+     * Maximum number of active refresh tokens of a single user, the oldest ones are evicted beyond it.
+     */
+    @Value("${jwt.refreshTokenMaxPerUser}")
+    private int refreshTokenMaxPerUser;
+
 
     /**
-     * Scheduled task to automatically delete expired refresh tokens from the repository.
-     * This task runs daily at midnight (00:00:00) based on the cron expression "0 0 0 * * *".
-     * Expired refresh tokens are identified and removed to ensure the repository remains
-     * free of outdated records.
+     * Constructs a RefreshTokenService and registers the gauge of the number of stored refresh tokens.
+     *
+     * @param refreshTokenRepository Repository for managing refresh tokens.
+     * @param mongoTemplate          Template for custom MongoDB queries.
+     * @param meterRegistry          Registry the gauge is published to.
      */
-    @Scheduled(cron = "0 0 0 * * *") // Delete outdated tokens every day at midnight
-    private void deleteExpiredTokens() {
-        //       refreshTokenRepository.deleteExpired();
-    }  //TODO fix and uncomment
+    @Autowired
+    public RefreshTokenService(RefreshTokenRepository refreshTokenRepository,
+                               MongoTemplate mongoTemplate,
+                               MeterRegistry meterRegistry) {
+        this.refreshTokenRepository = refreshTokenRepository;
+        this.mongoTemplate = mongoTemplate;
+
+        Gauge.builder("refresh.tokens", mongoTemplate, template -> template.estimatedCount(RefreshToken.class))
+                .description("Estimated number of stored refresh tokens")
+                .register(meterRegistry);
+    }
 
 
     /**
      * Creates a new refresh token for the specified user and saves it to the repository.
-     * The refresh token is associated with the user identified by the provided username.
      * It generates a random token, sets an expiration date based on the configured in
      * jwt.refreshTokenExpiry in application properties
      * expiration duration, and saves the refresh token in the repository.
+     * If the user then has more than jwt.refreshTokenMaxPerUser tokens, the ones expiring first are deleted.
      *
      * @param userId - id of the user for whom the refresh token is created.
      * @return {@link RefreshToken refreshToken}
@@ -51,12 +72,15 @@ public class RefreshTokenService {
      */
     public RefreshToken createRefreshToken(String userId) {
         RefreshToken refreshToken = RefreshToken.builder()
-                .user(userRepository.findByUsername(userId))
+                .userId(userId)
                 .token(UUID.randomUUID().toString())
                 .expiryDate(Instant.now().plusSeconds(refreshTokenExpiry))
                 .build();
 
-        return refreshTokenRepository.save(refreshToken);
+        refreshTokenRepository.save(refreshToken);
+        evictOldestTokens(userId);
+
+        return refreshToken;
     }
 
 
@@ -64,6 +88,10 @@ public class RefreshTokenService {
         return refreshTokenRepository.findByToken(token);
     }
 
+    /**
+     * Checks that the token isn't expired. Needed in addition to the TTL index,
+     * because MongoDB removes expired documents only periodically.
+     */
     public RefreshToken verifyExpiration(RefreshToken token) {
         if (token.getExpiryDate().compareTo(Instant.now()) < 0) {
             refreshTokenRepository.delete(token);
@@ -73,4 +101,30 @@ public class RefreshTokenService {
         return token;
     }
 
+
+    /**
+     * Deletes all refresh tokens of the specified user.
+     */
+    public void removeUser(String userId) {
+        refreshTokenRepository.deleteAllByUserId(userId);
+    }
+
+
+    /**
+     * Deletes tokens of the user beyond the newest jwt.refreshTokenMaxPerUser ones.
+     */
+    protected void evictOldestTokens(String userId) {
+        Query query = Query.query(Criteria.where("userId").is(userId))
+                .with(Sort.by(Sort.Direction.DESC, "expiryDate"))
+                .skip(refreshTokenMaxPerUser);
+        query.fields().include("_id");
+
+        List<String> evictedIds = mongoTemplate.find(query, RefreshToken.class).stream()
+                .map(RefreshToken::getId)
+                .toList();
+
+        if (!evictedIds.isEmpty()) {
+            mongoTemplate.remove(Query.query(Criteria.where("_id").in(evictedIds)), RefreshToken.class);
+        }
+    }
 }
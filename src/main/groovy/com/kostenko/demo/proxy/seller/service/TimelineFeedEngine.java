@@ -0,0 +1,81 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Feed engine reading the timelines materialized on write by {@link TimelineService}.
+ * Activity of followed authors which isn't fanned out, as classified by {@link AuthorClassifier},
+ * is read from their own documents and merged with the timeline in the same order.
+ * Used when feed.engine is timeline, which is the default.
+ */
+@Service
+@ConditionalOnProperty(name = "feed.engine", havingValue = "timeline", matchIfMissing = true)
+public class TimelineFeedEngine implements FeedEngine {
+
+    /**
+     * Service maintaining materialized newsfeed timelines of followers.
+     */
+    private final TimelineService timelineService;
+    /**
+     * Classifier of authors whose activity is pulled at read time instead of being fanned out.
+     */
+    private final AuthorClassifier authorClassifier;
+    /**
+     * Reader of the activity of pulled authors.
+     */
+    private final ActivityStreams activityStreams;
+
+    @Autowired
+    public TimelineFeedEngine(TimelineService timelineService,
+                              AuthorClassifier authorClassifier,
+                              ActivityStreams activityStreams) {
+        this.timelineService = timelineService;
+        this.authorClassifier = authorClassifier;
+        this.activityStreams = activityStreams;
+    }
+
+
+    @Override
+    public List<TimelineEntry> readPage(String ownerId, PageCursor cursor, Sort.Direction direction, int limit) {
+        List<String> pulledAuthorIds = authorClassifier.findPulledFolloweeIds(ownerId);
+        if (pulledAuthorIds.isEmpty()) {
+            return timelineService.readPage(ownerId, cursor, direction, limit);
+        }
+
+        List<Stream<TimelineEntry>> streams = new ArrayList<>();
+        streams.add(timelineService.readPage(ownerId, pulledAuthorIds, cursor, direction, limit).stream());
+        streams.addAll(activityStreams.open(ownerId, pulledAuthorIds, cursor, direction, limit));
+        try {
+            return ActivityStreams.merge(streams, direction, limit + 1);
+        } finally {
+            streams.forEach(Stream::close);
+        }
+    }
+
+
+    @Override
+    public List<TimelineEntry> readSince(String ownerId, ObjectId since, int limit) {
+        List<String> pulledAuthorIds = authorClassifier.findPulledFolloweeIds(ownerId);
+        if (pulledAuthorIds.isEmpty()) {
+            return timelineService.readSince(ownerId, since, limit);
+        }
+
+        List<Stream<TimelineEntry>> streams = new ArrayList<>();
+        streams.add(timelineService.readSince(ownerId, pulledAuthorIds, since, limit).stream());
+        streams.addAll(activityStreams.openSince(ownerId, pulledAuthorIds, since, limit));
+        try {
+            return ActivityStreams.merge(streams, ActivityStreams.INSERTED_FIRST, limit + 1);
+        } finally {
+            streams.forEach(Stream::close);
+        }
+    }
+}
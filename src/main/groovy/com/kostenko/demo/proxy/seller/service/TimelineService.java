@@ -0,0 +1,306 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import com.kostenko.demo.proxy.seller.entity.FeedEntryType;
+import com.kostenko.demo.proxy.seller.entity.Post;
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry;
+import com.kostenko.demo.proxy.seller.repository.TimelineEntryRepository;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Service maintaining materialized per-follower timelines (fan-out on write).
+ */
+@Service
+public class TimelineService {
+
+    /**
+     * Number of recent posts copied into a timeline when a new followee is added.
+     */
+    protected static final int BACKFILL_SIZE = 20;
+    /**
+     * Number of timeline entries inserted with a single command during fan-out.
+     */
+    protected static final int FAN_OUT_BATCH_SIZE = 1000;
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+    /**
+     * Repository for managing {@link com.kostenko.demo.proxy.seller.entity.TimelineEntry} entities in MongoDB.
+     */
+    private final TimelineEntryRepository timelineEntryRepository;
+    /**
+     * Service managing the follow graph.
+     */
+    private final FollowService followService;
+    /**
+     * Classifier of authors whose activity is pulled at read time instead of being fanned out.
+     */
+    private final AuthorClassifier authorClassifier;
+    /**
+     * Reader of the recent activity of demoted authors.
+     */
+    private final ActivityStreams activityStreams;
+    private final MongoTemplate mongoTemplate;
+    /**
+     * Scheduler of backfills following demotions of authors.
+     */
+    private final TaskScheduler taskScheduler;
+
+    /**
+     * Time in seconds after which every instance reloads the classification of authors.
+     */
+    @Value("${feed.hybrid.refresh}")
+    private long classificationRefresh;
+
+    @Autowired
+    public TimelineService(TimelineEntryRepository timelineEntryRepository,
+                           FollowService followService,
+                           AuthorClassifier authorClassifier,
+                           ActivityStreams activityStreams,
+                           MongoTemplate mongoTemplate,
+                           TaskScheduler taskScheduler) {
+        this.timelineEntryRepository = timelineEntryRepository;
+        this.followService = followService;
+        this.authorClassifier = authorClassifier;
+        this.activityStreams = activityStreams;
+        this.mongoTemplate = mongoTemplate;
+        this.taskScheduler = taskScheduler;
+    }
+
+
+    /**
+     * Pushes an entry about the activity of the specified author into the timeline of every author's follower.
+     * Activity of authors classified as pulled by {@link AuthorClassifier} isn't pushed.
+     *
+     * @param type        The kind of activity.
+     * @param authorId    The unique identifier of the user who performed the activity.
+     * @param postId      The unique identifier of the post the activity relates to.
+     * @param referenceId The unique identifier of the created post, like or comment.
+     * @param createdAt   Creation time of the activity.
+     */
+    public void fanOut(FeedEntryType type,
+                       String authorId,
+                       String postId,
+                       String referenceId,
+                       Instant createdAt) {
+        if (authorClassifier.isPulled(authorId)) {
+            return;
+        }
+
+        followService.forEachFollowerBatch(authorId, FAN_OUT_BATCH_SIZE, followerIds -> {
+            List<TimelineEntry> entries = followerIds.stream()
+                    .map(followerId -> TimelineEntry.builder()
+                            .ownerId(followerId)
+                            .authorId(authorId)
+                            .type(type)
+                            .postId(postId)
+                            .referenceId(referenceId)
+                            .createdAt(createdAt)
+                            .build())
+                    .toList();
+
+            insert(entries);
+        });
+    }
+
+
+    /**
+     * Returns a page of the timeline of the specified user.
+     * Entries are fetched through the {@code ownerId, createdAt, referenceId} index, one more than requested
+     * so the caller can tell whether a next page exists. Entries created in the same millisecond are ordered
+     * by the id of the referenced document, the same tiebreak as activity read from the documents themselves.
+     *
+     * @param ownerId   The unique identifier of the timeline owner.
+     * @param cursor    Position after which entries are returned, null for the first page.
+     * @param direction Order of the entries, {@link Sort.Direction#DESC} for the newest entries first.
+     * @param limit     Maximum number of entries in the page.
+     * @return Up to {@code limit + 1} timeline entries.
+     */
+    public List<TimelineEntry> readPage(String ownerId, PageCursor cursor, Sort.Direction direction, int limit) {
+        Query query = PageCursor.pageQuery(Criteria.where("ownerId").is(ownerId), cursor, direction, limit, "referenceId");
+        return mongoTemplate.find(query, TimelineEntry.class);
+    }
+
+
+    /**
+     * Same as {@link #readPage(String, PageCursor, Sort.Direction, int)}, but skips entries of the specified authors,
+     * whose activity is read from their own documents instead.
+     */
+    public List<TimelineEntry> readPage(String ownerId, List<String> excludedAuthorIds, PageCursor cursor, Sort.Direction direction, int limit) {
+        Criteria criteria = Criteria.where("ownerId").is(ownerId).and("authorId").nin(excludedAuthorIds);
+        Query query = PageCursor.pageQuery(criteria, cursor, direction, limit, "referenceId");
+        return mongoTemplate.find(query, TimelineEntry.class);
+    }
+
+
+    /**
+     * Returns entries inserted into the timeline of the specified user after the given one, in the order of insertion,
+     * read through the {@code ownerId, _id} index. Entries projected late, e.g. by the change stream consumer,
+     * are newer than entries inserted before them regardless of the creation time of their activity.
+     *
+     * @param ownerId The unique identifier of the timeline owner.
+     * @param since   The id after which entries are returned.
+     * @param limit   Maximum number of entries.
+     * @return Up to {@code limit + 1} timeline entries.
+     */
+    public List<TimelineEntry> readSince(String ownerId, ObjectId since, int limit) {
+        return readSince(Criteria.where("ownerId").is(ownerId), since, limit);
+    }
+
+
+    /**
+     * Same as {@link #readSince(String, ObjectId, int)}, but skips entries of the specified authors,
+     * whose activity is read from their own documents instead.
+     */
+    public List<TimelineEntry> readSince(String ownerId, List<String> excludedAuthorIds, ObjectId since, int limit) {
+        return readSince(Criteria.where("ownerId").is(ownerId).and("authorId").nin(excludedAuthorIds), since, limit);
+    }
+
+
+    private List<TimelineEntry> readSince(Criteria criteria, ObjectId since, int limit) {
+        Query query = Query.query(criteria.and("_id").gt(since))
+                .with(Sort.by(Sort.Direction.ASC, "_id"))
+                .limit(limit + 1);
+        return mongoTemplate.find(query, TimelineEntry.class);
+    }
+
+
+    /**
+     * Copies the most recent posts of a newly followed user into the follower's timeline.
+     *
+     * @param ownerId  The unique identifier of the follower.
+     * @param authorId The unique identifier of the followed user.
+     */
+    public void backfill(String ownerId, String authorId) {
+        Query query = Query.query(Criteria.where("postCreator.id").is(authorId))
+                .with(Sort.by(Sort.Direction.DESC, "createdAt"))
+                .limit(BACKFILL_SIZE);
+        query.fields().include("createdAt");
+
+        List<TimelineEntry> entries = mongoTemplate.find(query, Post.class).stream()
+                .map(post -> TimelineEntry.builder()
+                        .ownerId(ownerId)
+                        .authorId(authorId)
+                        .type(FeedEntryType.POST)
+                        .postId(post.getId())
+                        .referenceId(post.getId())
+                        .createdAt(post.getCreatedAt())
+                        .build())
+                .toList();
+
+        if (!entries.isEmpty()) {
+            insert(entries);
+        }
+    }
+
+
+    /**
+     * Copies recent activity of an author, whose activity was pulled until now, into the timelines of the followers.
+     * Runs right away and once more when all instances have reloaded the classification, as activity
+     * created in between by instances still classifying the author as pulled isn't fanned out.
+     *
+     * @param event Demotion of the author.
+     */
+    @EventListener
+    public void onAuthorDemoted(AuthorDemotedEvent event) {
+        taskScheduler.schedule(() -> backfillFollowers(event.authorId()), Instant.now());
+        taskScheduler.schedule(() -> backfillFollowers(event.authorId()), Instant.now().plusSeconds(classificationRefresh));
+    }
+
+
+    /**
+     * Copies up to {@link #BACKFILL_SIZE} of the most recent posts, likes and comments of the author
+     * into the timeline of every follower. Entries already present are skipped.
+     *
+     * @param authorId The unique identifier of the author.
+     */
+    public void backfillFollowers(String authorId) {
+        List<Stream<TimelineEntry>> streams = activityStreams.open(null, List.of(authorId), null, Sort.Direction.DESC, BACKFILL_SIZE);
+        List<TimelineEntry> activity;
+        try {
+            activity = ActivityStreams.merge(streams, Sort.Direction.DESC, BACKFILL_SIZE);
+        } finally {
+            streams.forEach(Stream::close);
+        }
+        if (activity.isEmpty()) {
+            return;
+        }
+
+        followService.forEachFollowerBatch(authorId, Math.max(1, FAN_OUT_BATCH_SIZE / activity.size()), followerIds -> {
+            List<TimelineEntry> entries = followerIds.stream()
+                    .flatMap(followerId -> activity.stream().map(entry -> TimelineEntry.builder()
+                            .ownerId(followerId)
+                            .authorId(authorId)
+                            .type(entry.getType())
+                            .postId(entry.getPostId())
+                            .referenceId(entry.getReferenceId())
+                            .createdAt(entry.getCreatedAt())
+                            .build()))
+                    .toList();
+
+            insert(entries);
+        });
+    }
+
+
+    /**
+     * Inserts entries with an unordered bulk write, skipping entries already present in their timelines,
+     * e.g. activity projected again after a restart of the change stream consumer.
+     */
+    private void insert(List<TimelineEntry> entries) {
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TimelineEntry.class);
+        operations.insert(entries);
+        try {
+            operations.execute();
+        } catch (BulkOperationException e) {
+            if (!e.getErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY_ERROR_CODE)) {
+                throw e;
+            }
+        }
+    }
+
+
+    /**
+     * Removes all activity of the specified author from the owner's timeline, used on unfollow.
+     */
+    public void removeAuthor(String ownerId, String authorId) {
+        timelineEntryRepository.deleteAllByOwnerIdAndAuthorId(ownerId, authorId);
+    }
+
+
+    /**
+     * Removes entries about the post and all likes and comments on it from every timeline.
+     */
+    public void removePost(String postId) {
+        timelineEntryRepository.deleteAllByPostId(postId);
+    }
+
+
+    /**
+     * Removes entries referring to the specified post, like or comment from every timeline.
+     */
+    public void removeReference(String referenceId) {
+        timelineEntryRepository.deleteAllByReferenceId(referenceId);
+    }
+
+
+    /**
+     * Removes the timeline of the specified user and his activity from the timelines of others.
+     */
+    public void removeUser(String userId) {
+        timelineEntryRepository.deleteAllByOwnerId(userId);
+        timelineEntryRepository.deleteAllByAuthorId(userId);
+    }
+}
@@ -0,0 +1,32 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Helpers for work which has to see the committed state of the caller's transaction.
+ */
+final class Transactions {
+
+    private Transactions() {
+    }
+
+
+    /**
+     * Runs the action once the transaction of the caller commits, or right away outside of a transaction.
+     * The action isn't run if the transaction rolls back.
+     */
+    static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
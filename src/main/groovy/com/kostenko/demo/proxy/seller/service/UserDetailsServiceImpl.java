@@ -1,13 +1,20 @@
 package com.kostenko.demo.proxy.seller.service;
 
+import com.kostenko.demo.proxy.seller.entity.Authority;
 import com.kostenko.demo.proxy.seller.entity.User;
 import com.kostenko.demo.proxy.seller.repository.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
 import java.util.Optional;
 
 @Service
@@ -15,10 +22,12 @@ public class UserDetailsServiceImpl implements org.springframework.security.core
 
     private static final Logger logger = LoggerFactory.getLogger(UserDetailsServiceImpl.class);
     private final UserRepository userRepository;
+    private final MongoTemplate mongoTemplate;
 
     @Autowired
-    public UserDetailsServiceImpl(UserRepository userRepository) {
+    public UserDetailsServiceImpl(UserRepository userRepository, MongoTemplate mongoTemplate) {
         this.userRepository = userRepository;
+        this.mongoTemplate = mongoTemplate;
     }
 
     @Override
@@ -43,4 +52,34 @@ public class UserDetailsServiceImpl implements org.springframework.security.core
         return user.orElseThrow(() ->
                 new UsernameNotFoundException("could not found user..!!"));
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Loads a slim principal of the user, reading only the username and authorities
+     * instead of the whole user with all his relations.
+     *
+     * @param userId The unique identifier of the user.
+     * @return Principal of the user.
+     * @throws UsernameNotFoundException - if the user with the given userId is not found in the database.
+     */
+    public UserPrincipal loadPrincipalByUserId(String userId) throws UsernameNotFoundException {
+
+        logger.debug("Entering in loadPrincipalByUserId Method...");
+        Query query = Query.query(Criteria.where("_id").is(userId));
+        query.fields().include("username").include("authorities");
+
+        User user = mongoTemplate.findOne(query, User.class);
+        if (user == null) {
+            throw new UsernameNotFoundException("could not found user..!!");
+        }
+
+        List<GrantedAuthority> authorities = user.getAuthorities() == null
+                ? List.of()
+                : user.getAuthorities().stream()
+                .map(Authority::getAuthority)
+                .<GrantedAuthority>map(SimpleGrantedAuthority::new)
+                .toList();
+
+        return new UserPrincipal(user.getId(), user.getUsername(), authorities);
+    }
+}
@@ -0,0 +1,38 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.springframework.security.core.AuthenticatedPrincipal;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.Collection;
+
+/**
+ * Slim security principal of an authenticated user. Holds only what authorization needs,
+ * so it can be cached without keeping references to the user's posts, followers and other relations.
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode(of = "id")
+public class UserPrincipal implements AuthenticatedPrincipal {
+
+    private final String id;
+
+    private final String username;
+
+    private final Collection<? extends GrantedAuthority> authorities;
+
+    @Override
+    public String getName() {
+        return username;
+    }
+
+    @Override
+    public String toString() {
+        return "UserPrincipal{" +
+                "id='" + id + '\'' +
+                ", username='" + username + '\'' +
+                '}';
+    }
+}
@@ -2,16 +2,28 @@ package com.kostenko.demo.proxy.seller.service;
 
 
 import com.kostenko.demo.proxy.seller.dto.AuthRequestDTO;
+import com.kostenko.demo.proxy.seller.dto.CommentDTO;
+import com.kostenko.demo.proxy.seller.dto.FollowPageDTO;
+import com.kostenko.demo.proxy.seller.dto.LikeDTO;
+import com.kostenko.demo.proxy.seller.dto.PostPageDTO;
 import com.kostenko.demo.proxy.seller.dto.UserEditDTO;
 import com.kostenko.demo.proxy.seller.dto.UserPageDTO;
 import com.kostenko.demo.proxy.seller.dto.UserResponse;
 import com.kostenko.demo.proxy.seller.entity.Authority;
+import com.kostenko.demo.proxy.seller.entity.Comment;
+import com.kostenko.demo.proxy.seller.entity.Like;
+import com.kostenko.demo.proxy.seller.entity.Post;
 import com.kostenko.demo.proxy.seller.entity.User;
 import com.kostenko.demo.proxy.seller.error.ResourceNotFoundException;
+import com.kostenko.demo.proxy.seller.mapper.DtoMapper;
+import com.kostenko.demo.proxy.seller.repository.CommentRepository;
+import com.kostenko.demo.proxy.seller.repository.LikeRepository;
 import com.kostenko.demo.proxy.seller.repository.PostRepository;
 import com.kostenko.demo.proxy.seller.repository.UserRepository;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
@@ -20,7 +32,12 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class UserService {
@@ -28,18 +45,48 @@ public class UserService {
     protected static final String ID_NOT_FOUND_MESSAGE = "User with id: \"%s\" doesn't exist.";
     protected static final String USERNAME_ALREADY_EXISTS_MESSAGE = "User with username: \"%s\" already exist.";
     protected static final String ACCESS_DENIED_MESSAGE = "Access denied. Insufficient permissions.";
+    /**
+     * Number of the most recent comments and likes shown on the user page.
+     */
+    private static final Pageable RECENT_ACTIVITY = PageRequest.of(0, PageCursor.DEFAULT_PAGE_SIZE);
     private final UserRepository userRepository;
     private final PostRepository postRepository;
+    private final LikeRepository likeRepository;
+    private final CommentRepository commentRepository;
     private final PasswordEncoder passwordEncoder;
     private final ModelMapper modelMapper;
+    private final DtoMapper dtoMapper;
     private final MongoTemplate mongoTemplate;
+    private final TimelineService timelineService;
+    private final PrincipalCacheService principalCacheService;
+    private final FollowService followService;
+    private final PostService postService;
+    private final CommentService commentService;
+    private final PageCacheService pageCacheService;
+    private final AuthorClassifier authorClassifier;
+    private final RefreshTokenService refreshTokenService;
+    private final HotLikeCounters hotLikeCounters;
+    private final PageVersions pageVersions;
 
     @Autowired
-    public UserService(UserRepository userRepository, PostRepository postRepository, PasswordEncoder passwordEncoder, ModelMapper modelMapper, MongoTemplate mongoTemplate) {
+    public UserService(UserRepository userRepository, PostRepository postRepository, LikeRepository likeRepository, CommentRepository commentRepository, PasswordEncoder passwordEncoder, ModelMapper modelMapper, DtoMapper dtoMapper, MongoTemplate mongoTemplate, TimelineService timelineService, PrincipalCacheService principalCacheService, FollowService followService, PostService postService, CommentService commentService, PageCacheService pageCacheService, AuthorClassifier authorClassifier, RefreshTokenService refreshTokenService, HotLikeCounters hotLikeCounters, PageVersions pageVersions) {
         this.userRepository = userRepository;
         this.postRepository = postRepository;
+        this.likeRepository = likeRepository;
+        this.commentRepository = commentRepository;
+        this.timelineService = timelineService;
+        this.principalCacheService = principalCacheService;
+        this.followService = followService;
+        this.postService = postService;
+        this.commentService = commentService;
+        this.pageCacheService = pageCacheService;
+        this.authorClassifier = authorClassifier;
+        this.refreshTokenService = refreshTokenService;
+        this.hotLikeCounters = hotLikeCounters;
+        this.pageVersions = pageVersions;
         this.passwordEncoder = passwordEncoder;
         this.modelMapper = modelMapper;
+        this.dtoMapper = dtoMapper;
         this.mongoTemplate = mongoTemplate;
     }
 
@@ -57,7 +104,7 @@ public class UserService {
             userRepository.save(user);
         }
 
-        return modelMapper.map(user, UserResponse.class);
+        return dtoMapper.toUserResponse(user);
     }
 
 
@@ -65,75 +112,206 @@ public class UserService {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new ResourceNotFoundException(String.format(ID_NOT_FOUND_MESSAGE, userId)));
 
-        if (userRequest.getUsername() != null && !user.getUsername().equals(userRequest.getUsername())) {
+        // Only the edited fields are written, a save would overwrite counters changed meanwhile
+        Update update = new Update();
+        boolean usernameChanged = userRequest.getUsername() != null && !user.getUsername().equals(userRequest.getUsername());
+        if (usernameChanged) {
             if (userRepository.existsByUsername(userRequest.getUsername())) {
                 throw new IllegalArgumentException(String.format(USERNAME_ALREADY_EXISTS_MESSAGE, userRequest.getUsername()));
             } else {
                 user.setUsername(userRequest.getUsername());
+                update.set("username", user.getUsername()).inc(PageVersions.FIELD, 1);
             }
         }
 
         if (userRequest.getPassword() != null) {
             user.setPassword(passwordEncoder.encode(userRequest.getPassword()));
+            update.set("password", user.getPassword());
         }
 
-        userRepository.save(user);
+        if (!update.getUpdateObject().isEmpty()) {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(userId)), update, User.class);
+        }
+        principalCacheService.invalidate(userId);
+        // The username is shown on pages of followers, followed users and commented posts as well
+        if (usernameChanged) {
+            pageVersions.touchReferencesOf(userId);
+            pageCacheService.invalidateAll();
+        } else {
+            pageCacheService.invalidateUserPage(userId);
+        }
 
-        return modelMapper.map(user, UserResponse.class);
+        return dtoMapper.toUserResponse(user);
     }
 
 
+    /**
+     * Builds the public page of the user from a projection of his document, which reads neither his password
+     * nor any of his references, and bounded slices of his activity, newest first. Posts, followers and
+     * followed users come with cursors of their next pages, which are served by their own endpoints.
+     * Pages are served from {@link PageCacheService} and rebuilt on a miss.
+     *
+     * @param userId The unique identifier of the user.
+     * @return {@link UserPageDTO} of the user.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     */
     public UserPageDTO getUserPage(String userId) {
-        User user = userRepository.findById(userId)
+        return versionedUserPage(userId).body().get();
+    }
+
+
+    /**
+     * Returns the public page of the user together with its version, which is the {@link PageVersions} of the user
+     * read before the page is built or taken from the cache. The version changes with his username, counters,
+     * posts, likes, comments and follow edges, and with usernames of the users listed on the page.
+     * Counters of posts of other users listed among his likes and comments are refreshed when the cached page expires.
+     *
+     * @param userId The unique identifier of the user.
+     * @return {@link Versioned} {@link UserPageDTO} of the user.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     */
+    public Versioned<UserPageDTO> versionedUserPage(String userId) {
+        String etag = Versioned.etagOf(userId, pageVersions.ofUser(userId));
+        return new Versioned<>(etag, () -> pageCacheService.getUserPage(userId, etag, this::loadUserPage));
+    }
+
+
+    private UserPageDTO loadUserPage(String userId) {
+        User user = userRepository.findSummaryById(userId)
                 .orElseThrow(() -> new ResourceNotFoundException(String.format(ID_NOT_FOUND_MESSAGE, userId)));
 
-        return modelMapper.map(user, UserPageDTO.class);
+        PostPageDTO posts = postService.findUserPosts(user, null, PageCursor.DEFAULT_PAGE_SIZE);
+        FollowPageDTO followers = followService.findFollowers(user, PageCursor.DEFAULT_PAGE_SIZE);
+        FollowPageDTO following = followService.findFollowing(user, PageCursor.DEFAULT_PAGE_SIZE);
+
+        UserPageDTO userPage = dtoMapper.toUserPageDTO(user);
+        userPage.setPosts(new LinkedHashSet<>(posts.getPosts()));
+        userPage.setPostsNextCursor(posts.getNextCursor());
+        userPage.setComments(findComments(user));
+        userPage.setLikes(findLikes(user));
+        userPage.setFollowers(new LinkedHashSet<>(followers.getUsers()));
+        userPage.setFollowersNextCursor(followers.getNextCursor());
+        userPage.setFollowing(new LinkedHashSet<>(following.getUsers()));
+        userPage.setFollowingNextCursor(following.getNextCursor());
+        return userPage;
+    }
+
+    /**
+     * Loads the most recent comments of the user together with the commented posts in a single query.
+     */
+    private Set<CommentDTO> findComments(User user) {
+        List<Comment> comments = commentRepository.findAllByUserIdOrderByCreatedAtDesc(user.getId(), RECENT_ACTIVITY);
+        Map<String, Post> posts = findPosts(comments.stream().map(Comment::getPostId).toList());
+
+        return comments.stream()
+                .map(comment -> dtoMapper.toCommentDTO(comment, posts.get(comment.getPostId()), user, hotLikeCounters.pending(comment.getPostId())))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+
+    /**
+     * Loads the most recent likes of the user together with the liked posts in a single query.
+     */
+    private Set<LikeDTO> findLikes(User user) {
+        List<Like> likes = likeRepository.findAllByUserIdOrderByCreatedAtDesc(user.getId(), RECENT_ACTIVITY);
+        Map<String, Post> posts = findPosts(likes.stream().map(Like::getPostId).toList());
+
+        return likes.stream()
+                .map(like -> dtoMapper.toLikeDTO(like, posts.get(like.getPostId()), user, hotLikeCounters.pending(like.getPostId())))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+
+    private Map<String, Post> findPosts(List<String> postIds) {
+        if (postIds.isEmpty()) {
+            return Map.of();
+        }
+        return postRepository.findWithoutCreatorByIdIn(postIds.stream().distinct().toList()).stream()
+                .collect(Collectors.toMap(Post::getId, Function.identity()));
     }
 
     public User findByUsername(String username) {
-        if (!userRepository.existsByUsername(username)) {
+        User user = userRepository.findByUsername(username);
+        if (user == null) {
             throw new ResourceNotFoundException(String.format(USERNAME_ALREADY_EXISTS_MESSAGE, username));
         }
-        return userRepository.findByUsername(username);
+        return user;
     }
 
 
-    @Transactional
+    /**
+     * Deletes the user together with his posts and what other users left on them, the likes and comments
+     * he left on posts of others, his follow edges, timeline and sessions. An active user has more
+     * of them than one transaction may remove, so they are removed in batches outside of a transaction.
+     * The user himself is removed last, so a deletion which failed halfway is completed by repeating it.
+     *
+     * @param userId The unique identifier of the user.
+     * @throws ResourceNotFoundException - if the user with the given userId is not found in the database.
+     */
     public void deleteUser(String userId) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new ResourceNotFoundException(String.format(ID_NOT_FOUND_MESSAGE, userId)));
+        if (!userRepository.existsById(userId)) {
+            throw new ResourceNotFoundException(String.format(ID_NOT_FOUND_MESSAGE, userId));
+        }
 
-        postRepository.deleteAllByPostCreator(user);
-        userRepository.delete(user);
+        refreshTokenService.removeUser(userId);
+        principalCacheService.invalidate(userId);
+        postService.removeUser(userId);
+        commentService.removeUser(userId);
+        followService.removeUser(userId);
+        timelineService.removeUser(userId);
+        userRepository.deleteById(userId);
+        pageCacheService.invalidateUserPage(userId);
     }
 
 
+    /**
+     * Makes the requester follow the user. Only the edge and its counters are written in the transaction,
+     * the timeline of the requester is backfilled once it commits: a duplicate entry rejected by the timeline's
+     * unique index would abort the transaction, and a repeated or concurrent follow would fail with it.
+     *
+     * @param requesterId    The unique identifier of the user who follows.
+     * @param userIdToFollow The unique identifier of the followed user.
+     * @throws ResourceNotFoundException - if the followed user is not found in the database.
+     */
     @Transactional
     public void followToUser(String requesterId, String userIdToFollow) {
         if (!userRepository.existsById(userIdToFollow)) {
             throw new ResourceNotFoundException(String.format(ID_NOT_FOUND_MESSAGE, userIdToFollow));
         }
 
-        Query query = Query.query(Criteria.where("_id").is(requesterId));
-        Update update = new Update().addToSet("following", userIdToFollow);
-        mongoTemplate.updateFirst(query, update, User.class);
-
+        if (!followService.follow(requesterId, userIdToFollow)) {
+            return;
+        }
 
-        query = Query.query(Criteria.where("_id").is(userIdToFollow));
-        update = new Update().addToSet("followers", requesterId);
-        mongoTemplate.updateFirst(query, update, User.class);
+        // Counters follow from the outbox later, the lists of followers and followed users change right away
+        pageVersions.touchUsers(List.of(requesterId, userIdToFollow));
+        Transactions.afterCommit(() -> {
+            // Activity of pulled authors is read from their own documents, so it isn't copied into the timeline
+            if (!authorClassifier.isPulled(userIdToFollow)) {
+                timelineService.backfill(requesterId, userIdToFollow);
+            }
+            pageCacheService.invalidateUserPage(requesterId);
+            pageCacheService.invalidateUserPage(userIdToFollow);
+        });
     }
 
 
+    /**
+     * Makes the requester unfollow the user. Activity of the user is removed from the requester's timeline
+     * once the removal of the edge commits.
+     *
+     * @param requesterId    The unique identifier of the user who follows.
+     * @param userIdToFollow The unique identifier of the followed user.
+     */
     @Transactional
     public void unfollowFromUser(String requesterId, String userIdToFollow) {
-        Query query = Query.query(Criteria.where("_id").is(requesterId));
-        Update update = new Update().pull("following", userIdToFollow);
-        mongoTemplate.updateFirst(query, update, User.class);
-
-
-        query = Query.query(Criteria.where("_id").is(userIdToFollow));
-        update = new Update().pull("followers", requesterId);
-        mongoTemplate.updateFirst(query, update, User.class);
+        if (followService.unfollow(requesterId, userIdToFollow)) {
+            pageVersions.touchUsers(List.of(requesterId, userIdToFollow));
+            Transactions.afterCommit(() -> {
+                timelineService.removeAuthor(requesterId, userIdToFollow);
+                pageCacheService.invalidateUserPage(requesterId);
+                pageCacheService.invalidateUserPage(userIdToFollow);
+            });
+        }
     }
-}
\ No newline at end of file
+}
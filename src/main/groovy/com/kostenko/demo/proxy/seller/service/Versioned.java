@@ -0,0 +1,34 @@
+package com.kostenko.demo.proxy.seller.service;
+
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Response body together with a version tag read before the body is built, so that a client
+ * which already has the current version gets {@code 304 Not Modified} without the body ever being built.
+ * Tags are made of the {@link PageVersions} of the documents the body shows.
+ *
+ * @param etag Weak entity tag of the version.
+ * @param body Supplier building the body, called only if the client's version is outdated.
+ * @param <T>  Type of the body.
+ */
+public record Versioned<T>(String etag, Supplier<T> body) {
+
+    /**
+     * Builds a weak entity tag from the parts the version consists of, nulls included.
+     *
+     * @param parts Values which change whenever the body changes.
+     * @return Weak entity tag, e.g. {@code W/"9e107d9d372bb6826bd81d3542a419d6"}.
+     */
+    public static String etagOf(Object... parts) {
+        String version = Arrays.stream(parts)
+                .map(Objects::toString)
+                .collect(Collectors.joining(":"));
+        return "W/\"" + DigestUtils.md5DigestAsHex(version.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+}
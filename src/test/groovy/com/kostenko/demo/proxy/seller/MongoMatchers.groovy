@@ -0,0 +1,18 @@
+package com.kostenko.demo.proxy.seller
+
+import static org.mockito.ArgumentMatchers.eq
+
+/**
+ * Argument matchers for stubbing {@link org.springframework.data.mongodb.core.MongoTemplate}.
+ */
+class MongoMatchers {
+
+	/**
+	 * Matches the entity class of a template operation. Unlike {@code eq}, it returns the class instead of null,
+	 * so Groovy can tell overloads taking an entity class from those taking a collection name.
+	 */
+	static <T> Class<T> entity(Class<T> type) {
+		eq(type)
+		type
+	}
+}
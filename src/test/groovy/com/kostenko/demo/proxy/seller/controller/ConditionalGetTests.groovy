@@ -0,0 +1,86 @@
+package com.kostenko.demo.proxy.seller.controller
+
+import com.kostenko.demo.proxy.seller.dto.NewsfeedDTO
+import com.kostenko.demo.proxy.seller.dto.UserPageDTO
+import com.kostenko.demo.proxy.seller.service.FollowService
+import com.kostenko.demo.proxy.seller.service.JwtService
+import com.kostenko.demo.proxy.seller.service.NewsfeedStreamService
+import com.kostenko.demo.proxy.seller.service.PostService
+import com.kostenko.demo.proxy.seller.service.UserService
+import com.kostenko.demo.proxy.seller.service.Versioned
+import org.junit.jupiter.api.Test
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpStatus
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.mock.web.MockHttpServletResponse
+import org.springframework.web.context.request.ServletWebRequest
+
+import static org.junit.jupiter.api.Assertions.assertThrows
+import static org.mockito.Mockito.mock
+import static org.mockito.Mockito.verifyNoInteractions
+import static org.mockito.Mockito.when
+
+class ConditionalGetTests {
+
+	private final UserService userService = mock(UserService)
+	private final PostService postService = mock(PostService)
+	private final UserController userController = new UserController(userService, mock(JwtService), mock(FollowService))
+	private final PostController postController = new PostController(postService, mock(JwtService), mock(NewsfeedStreamService))
+	private final MockHttpServletResponse response = new MockHttpServletResponse()
+
+	@Test
+	void userPageIsNotBuiltWhileItsVersionMatches() {
+		String etag = Versioned.etagOf('u1', 7L)
+		boolean built = false
+		when(userService.versionedUserPage('u1')).thenReturn(new Versioned<UserPageDTO>(etag, { built = true; new UserPageDTO() }))
+
+		assert userController.viewUserPage('u1', request(etag)) == null
+		assert response.status == HttpStatus.NOT_MODIFIED.value()
+		assert !built
+	}
+
+	@Test
+	void changedUserPageIsBuiltAndSentWithItsNewTag() {
+		UserPageDTO userPage = new UserPageDTO(id: 'u1', username: 'john_doe')
+		String etag = Versioned.etagOf('u1', 8L)
+		when(userService.versionedUserPage('u1')).thenReturn(new Versioned<UserPageDTO>(etag, { userPage }))
+
+		assert userController.viewUserPage('u1', request(Versioned.etagOf('u1', 7L))).is(userPage)
+		assert response.status == HttpStatus.OK.value()
+		assert response.getHeader(HttpHeaders.ETAG) == etag
+	}
+
+	@Test
+	void newsfeedIsNotAssembledWhileItsVersionMatches() {
+		String etag = Versioned.etagOf('c1', 'p1', 3L)
+		boolean assembled = false
+		when(postService.versionedNewsfeed('u1', null, null)).thenReturn(new Versioned<NewsfeedDTO>(etag, { assembled = true; null }))
+
+		assert postController.newsfeed('u1', null, null, null, request(etag)) == null
+		assert response.status == HttpStatus.NOT_MODIFIED.value()
+		assert !assembled
+	}
+
+	@Test
+	void newsfeedSinceCannotBeCombinedWithCursor() {
+		assertThrows(IllegalArgumentException) { postController.newsfeed('u1', 'c1', null, 's1', request(null)) }
+
+		verifyNoInteractions(postService)
+	}
+
+	@Test
+	void tagFollowsEveryPartOfTheVersion() {
+		assert Versioned.etagOf('u1', 7L) == Versioned.etagOf('u1', 7L)
+		assert Versioned.etagOf('u1', 7L) != Versioned.etagOf('u1', 8L)
+		assert Versioned.etagOf('p1', null) != Versioned.etagOf('p1', 0L)
+		assert Versioned.etagOf('u1', 7L).startsWith('W/"')
+	}
+
+	private ServletWebRequest request(String ifNoneMatch) {
+		MockHttpServletRequest request = new MockHttpServletRequest('GET', '/')
+		if (ifNoneMatch != null) {
+			request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch)
+		}
+		new ServletWebRequest(request, response)
+	}
+}
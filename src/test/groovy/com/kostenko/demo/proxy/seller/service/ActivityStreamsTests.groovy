@@ -0,0 +1,67 @@
+package com.kostenko.demo.proxy.seller.service
+
+import com.kostenko.demo.proxy.seller.entity.TimelineEntry
+import org.junit.jupiter.api.Test
+import org.springframework.data.domain.Sort
+
+import java.time.Instant
+import java.util.stream.Stream
+
+class ActivityStreamsTests {
+
+	@Test
+	void streamsAreMergedNewestFirstUpToThePageSize() {
+		List<TimelineEntry> page = ActivityStreams.merge([
+				Stream.of(entry(30, 'a'), entry(10, 'b')),
+				Stream.of(entry(20, 'c'), entry(5, 'd')),
+				Stream.empty()], Sort.Direction.DESC, 3)
+
+		assert page*.referenceId == ['a', 'c', 'b']
+	}
+
+	@Test
+	void activityOfTheSameMillisecondIsOrderedByTheReferencedId() {
+		List<TimelineEntry> newestFirst = ActivityStreams.merge([
+				Stream.of(entry(10, '65f1c0ffee00000000000003'), entry(10, '65f1c0ffee00000000000001')),
+				Stream.of(entry(10, '65f1c0ffee00000000000002'))], Sort.Direction.DESC, 10)
+		List<TimelineEntry> oldestFirst = ActivityStreams.merge([
+				Stream.of(entry(10, '65f1c0ffee00000000000001'), entry(10, '65f1c0ffee00000000000003')),
+				Stream.of(entry(10, '65f1c0ffee00000000000002'))], Sort.Direction.ASC, 10)
+
+		assert newestFirst*.referenceId == ['65f1c0ffee00000000000003', '65f1c0ffee00000000000002', '65f1c0ffee00000000000001']
+		assert oldestFirst*.referenceId == (newestFirst*.referenceId).reverse()
+	}
+
+	@Test
+	void activityNewerThanSinceIsMergedInTheOrderOfInsertion() {
+		List<TimelineEntry> page = ActivityStreams.merge([
+				Stream.of(inserted('65f1c0ffee00000000000002', 50), inserted('65f1c0ffee00000000000004', 10)),
+				Stream.of(inserted('65f1c0ffee00000000000003', 40))], ActivityStreams.INSERTED_FIRST, 10)
+
+		assert page*.id == ['65f1c0ffee00000000000002', '65f1c0ffee00000000000003', '65f1c0ffee00000000000004']
+	}
+
+	@Test
+	void mergeReadsOnlyAsMuchOfTheStreamsAsThePageNeeds() {
+		Stream<TimelineEntry> endless = Stream.iterate(1000L, { it - 1 }).map { entry(it, 'r' + it) }
+
+		List<TimelineEntry> page = ActivityStreams.merge([endless, Stream.of(entry(999, 'q'))], Sort.Direction.DESC, 3)
+
+		assert page*.referenceId == ['r1000', 'r999', 'q']
+	}
+
+	private static TimelineEntry entry(long createdAt, String referenceId) {
+		TimelineEntry.builder()
+				.referenceId(referenceId)
+				.createdAt(Instant.ofEpochMilli(createdAt))
+				.build()
+	}
+
+	private static TimelineEntry inserted(String id, long createdAt) {
+		TimelineEntry.builder()
+				.id(id)
+				.referenceId(id)
+				.createdAt(Instant.ofEpochMilli(createdAt))
+				.build()
+	}
+}
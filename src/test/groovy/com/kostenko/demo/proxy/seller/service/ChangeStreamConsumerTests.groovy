@@ -0,0 +1,114 @@
+package com.kostenko.demo.proxy.seller.service
+
+import com.kostenko.demo.proxy.seller.entity.ChangeStreamCheckpoint
+import com.mongodb.MongoNamespace
+import com.mongodb.client.ChangeStreamIterable
+import com.mongodb.client.MongoChangeStreamCursor
+import com.mongodb.client.MongoDatabase
+import com.mongodb.client.model.changestream.ChangeStreamDocument
+import com.mongodb.client.model.changestream.OperationType
+import com.mongodb.client.result.UpdateResult
+import org.bson.BsonDocument
+import org.bson.BsonString
+import org.bson.Document
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.stubbing.Answer
+import org.springframework.data.mongodb.core.MongoTemplate
+import org.springframework.data.mongodb.core.query.Query
+import org.springframework.data.mongodb.core.query.Update
+import org.springframework.test.util.ReflectionTestUtils
+
+import java.util.concurrent.TimeUnit
+
+import static com.kostenko.demo.proxy.seller.MongoMatchers.entity
+import static org.mockito.ArgumentMatchers.any
+import static org.mockito.ArgumentMatchers.anyInt
+import static org.mockito.ArgumentMatchers.anyList
+import static org.mockito.ArgumentMatchers.anyLong
+import static org.mockito.ArgumentMatchers.argThat
+import static org.mockito.Mockito.mock
+import static org.mockito.Mockito.never
+import static org.mockito.Mockito.timeout
+import static org.mockito.Mockito.verify
+import static org.mockito.Mockito.when
+
+class ChangeStreamConsumerTests {
+
+	/**
+	 * Cursor of an idle stream, waiting a moment for changes like maxAwaitTime does.
+	 */
+	private static final Answer<ChangeStreamDocument<Document>> IDLE = {
+		try {
+			Thread.sleep(10)
+		} catch (InterruptedException ignored) {
+			Thread.currentThread().interrupt()
+		}
+		null
+	}
+
+	private final BsonDocument token = new BsonDocument('_data', new BsonString('8265F1C0FE000000012B022C0100296E5A1004'))
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate)
+	private final ChangeStreamIterable<Document> stream = mock(ChangeStreamIterable)
+	private final MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = mock(MongoChangeStreamCursor)
+	private final ChangeStreamConsumer consumer = new ChangeStreamConsumer(mongoTemplate, mock(ActivityProjector), mock(PageCacheService))
+
+	@BeforeEach
+	void setUp() {
+		MongoDatabase database = mock(MongoDatabase)
+		when(mongoTemplate.getDb()).thenReturn(database)
+		when(mongoTemplate.getCollectionName(any(Class))).thenReturn('collection')
+		when(mongoTemplate.updateFirst(any(Query), any(Update), entity(ChangeStreamCheckpoint))).thenReturn(UpdateResult.acknowledged(1, 1, null))
+		when(database.watch(anyList())).thenReturn(stream)
+		when(stream.batchSize(anyInt())).thenReturn(stream)
+		when(stream.maxAwaitTime(anyLong(), any(TimeUnit))).thenReturn(stream)
+		when(stream.resumeAfter(any(BsonDocument))).thenReturn(stream)
+		when(stream.cursor()).thenReturn(cursor)
+
+		ReflectionTestUtils.setField(consumer, 'batchSize', 100)
+		ReflectionTestUtils.setField(consumer, 'lease', 30L)
+	}
+
+	@AfterEach
+	void tearDown() {
+		consumer.stop()
+	}
+
+	@Test
+	void restartedConsumerResumesAfterTheCheckpoint() {
+		when(mongoTemplate.findById(ChangeStreamConsumer.CHECKPOINT_ID, ChangeStreamCheckpoint))
+				.thenReturn(ChangeStreamCheckpoint.builder().id(ChangeStreamConsumer.CHECKPOINT_ID).resumeToken(token.toJson()).build())
+		when(cursor.tryNext()).thenAnswer(IDLE)
+
+		consumer.start()
+
+		verify(stream, timeout(5000)).resumeAfter(token)
+		verify(stream, timeout(5000)).cursor()
+	}
+
+	@Test
+	void consumerWithoutCheckpointStartsFromTheCurrentPosition() {
+		when(cursor.tryNext()).thenAnswer(IDLE)
+
+		consumer.start()
+
+		verify(stream, timeout(5000)).cursor()
+		verify(stream, never()).resumeAfter(any(BsonDocument))
+	}
+
+	@Test
+	void tokenOfTheLastProjectedChangeIsStoredAsTheCheckpoint() {
+		ChangeStreamDocument<Document> change = mock(ChangeStreamDocument)
+		when(change.operationType).thenReturn(OperationType.UPDATE)
+		when(change.namespace).thenReturn(new MongoNamespace('db', 'post'))
+		when(change.resumeToken).thenReturn(token)
+		when(cursor.tryNext()).thenReturn(change).thenAnswer(IDLE)
+
+		consumer.start()
+
+		verify(mongoTemplate, timeout(5000)).updateFirst(any(Query), argThat { Update update ->
+			(update.updateObject.get('$set') as Document)?.get('resumeToken') == token.toJson()
+		}, entity(ChangeStreamCheckpoint))
+	}
+}
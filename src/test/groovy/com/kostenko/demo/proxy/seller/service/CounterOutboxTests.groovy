@@ -0,0 +1,170 @@
+package com.kostenko.demo.proxy.seller.service
+
+import com.kostenko.demo.proxy.seller.entity.OutboxEntry
+import com.kostenko.demo.proxy.seller.entity.Post
+import com.kostenko.demo.proxy.seller.entity.User
+import com.mongodb.ClientSessionOptions
+import com.mongodb.client.ClientSession
+import com.mongodb.client.result.DeleteResult
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.ArgumentCaptor
+import org.springframework.core.task.AsyncTaskExecutor
+import org.springframework.data.mongodb.MongoDatabaseFactory
+import org.springframework.data.mongodb.core.BulkOperations
+import org.springframework.data.mongodb.core.MongoTemplate
+import org.springframework.data.mongodb.core.query.Criteria
+import org.springframework.data.mongodb.core.query.Query
+import org.springframework.data.mongodb.core.query.Update
+import org.springframework.test.util.ReflectionTestUtils
+import org.springframework.transaction.support.TransactionSynchronization
+import org.springframework.transaction.support.TransactionSynchronizationManager
+
+import static com.kostenko.demo.proxy.seller.MongoMatchers.entity
+import static org.junit.jupiter.api.Assertions.assertThrows
+import static org.mockito.ArgumentMatchers.any
+import static org.mockito.ArgumentMatchers.anyString
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS
+import static org.mockito.Mockito.mock
+import static org.mockito.Mockito.never
+import static org.mockito.Mockito.times
+import static org.mockito.Mockito.verify
+import static org.mockito.Mockito.verifyNoInteractions
+import static org.mockito.Mockito.when
+
+class CounterOutboxTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate)
+	private final ClientSession session = mock(ClientSession, RETURNS_DEEP_STUBS)
+	private final PageCacheService pageCacheService = mock(PageCacheService)
+	private CounterOutbox counterOutbox
+
+	@BeforeEach
+	void setUp() {
+		MongoDatabaseFactory factory = mock(MongoDatabaseFactory)
+		when(factory.getSession(any(ClientSessionOptions))).thenReturn(session)
+		when(mongoTemplate.getMongoDatabaseFactory()).thenReturn(factory)
+		when(mongoTemplate.getCollectionName(User)).thenReturn('user')
+		when(mongoTemplate.getCollectionName(Post)).thenReturn('post')
+
+		counterOutbox = outbox('W1')
+		ReflectionTestUtils.setField(counterOutbox, 'batchSize', 500)
+		ReflectionTestUtils.setField(counterOutbox, 'flushSize', 200)
+		ReflectionTestUtils.setField(counterOutbox, 'dispatchDelay', 60_000L)
+		ReflectionTestUtils.setField(counterOutbox, 'maxIdleDelay', 300_000L)
+	}
+
+	@Test
+	void batchIsSummedIntoOneUpdatePerDocumentAndRemovedInTheSameTransaction() {
+		BulkOperations posts = mock(BulkOperations)
+		BulkOperations users = mock(BulkOperations)
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, 'post')).thenReturn(posts)
+		when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, 'user')).thenReturn(users)
+		when(mongoTemplate.find(any(Query), entity(OutboxEntry))).thenReturn([
+				entry('e1', increment('post', 'p1', 'likeCount', 1), increment('user', 'u1', 'postCount', 1)),
+				entry('e2', increment('post', 'p1', 'likeCount', 1), increment('post', 'p1', 'commentCount', 1)),
+				entry('e3', increment('post', 'p1', 'likeCount', -1), increment('post', 'p1', 'likeCount', 1))])
+		when(mongoTemplate.remove(any(Query), entity(OutboxEntry))).thenReturn(DeleteResult.acknowledged(3))
+		when(mongoTemplate.find(any(Query), entity(Post))).thenReturn([Post.builder().id('p1').postCreator(new User(id: 'a1')).build()])
+
+		assert counterOutbox.dispatchBatch() == 3
+
+		verify(posts).updateOne(Query.query(Criteria.where('_id').is('p1')),
+				new Update().inc('likeCount', 2).inc('commentCount', 1).inc('pageVersion', 1))
+		verify(users).updateOne(Query.query(Criteria.where('_id').is('u1')), new Update().inc('postCount', 1).inc('pageVersion', 1))
+		verify(mongoTemplate).updateMulti(Query.query(Criteria.where('_id').in(['a1'])), new Update().inc('pageVersion', 1), User)
+		verify(session).commitTransaction()
+		verify(pageCacheService).invalidateUserPage('u1')
+		verify(pageCacheService).invalidatePostComments('p1')
+		verify(pageCacheService).invalidateUserPage('a1')
+	}
+
+	@Test
+	void batchRemovedMeanwhileByAnotherDispatchIsRolledBack() {
+		when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode), anyString())).thenReturn(mock(BulkOperations))
+		when(mongoTemplate.find(any(Query), entity(OutboxEntry))).thenReturn([
+				entry('e1', increment('post', 'p1', 'likeCount', 1)),
+				entry('e2', increment('post', 'p1', 'likeCount', 1))])
+		when(mongoTemplate.remove(any(Query), entity(OutboxEntry))).thenReturn(DeleteResult.acknowledged(1))
+
+		assertThrows(IllegalStateException) { counterOutbox.dispatchBatch() }
+
+		verify(session).abortTransaction()
+		verify(session, never()).commitTransaction()
+		verifyNoInteractions(pageCacheService)
+	}
+
+	@Test
+	void idleOutboxIsNotPolledAgainUntilAnEntryIsRecorded() {
+		when(mongoTemplate.find(any(Query), entity(OutboxEntry))).thenReturn([])
+
+		counterOutbox.dispatch()
+		counterOutbox.poll()
+
+		verify(mongoTemplate, times(1)).find(any(Query), entity(OutboxEntry))
+
+		counterOutbox.record(increment('user', 'u1', 'postCount', 1))
+		counterOutbox.poll()
+
+		verify(mongoTemplate, times(2)).find(any(Query), entity(OutboxEntry))
+	}
+
+	@Test
+	void incrementsCancellingOutAreNotStored() {
+		counterOutbox.record(
+				increment('post', 'p1', 'likeCount', 1),
+				increment('user', 'u1', 'postCount', 1),
+				increment('post', 'p1', 'likeCount', -1))
+
+		assert inserted() == [increment('user', 'u1', 'postCount', 1)]
+
+		counterOutbox.record(increment('post', 'p1', 'likeCount', 1), increment('post', 'p1', 'likeCount', -1))
+
+		verify(mongoTemplate, times(1)).insert(any(OutboxEntry))
+	}
+
+	@Test
+	void incrementsOfATransactionAreStoredAsOneEntryWhenItCommits() {
+		TransactionSynchronizationManager.initSynchronization()
+		TransactionSynchronizationManager.setActualTransactionActive(true)
+		try {
+			counterOutbox.record(increment('post', 'p1', 'likeCount', 1))
+			counterOutbox.record(increment('post', 'p1', 'likeCount', 1), increment('user', 'u1', 'postCount', 1))
+			verify(mongoTemplate, never()).insert(any(OutboxEntry))
+
+			List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations()
+			synchronizations.each { it.beforeCommit(false) }
+			synchronizations.each { it.afterCompletion(TransactionSynchronization.STATUS_COMMITTED) }
+		} finally {
+			TransactionSynchronizationManager.setActualTransactionActive(false)
+			TransactionSynchronizationManager.clearSynchronization()
+		}
+
+		assert inserted() == [increment('post', 'p1', 'likeCount', 2), increment('user', 'u1', 'postCount', 1)]
+		assert !TransactionSynchronizationManager.hasResource(counterOutbox)
+	}
+
+	@Test
+	void unacknowledgedWriteConcernIsRejected() {
+		assertThrows(IllegalArgumentException) { outbox('UNACKNOWLEDGED') }
+	}
+
+	private CounterOutbox outbox(String writeConcern) {
+		new CounterOutbox(mongoTemplate, mock(AsyncTaskExecutor), pageCacheService, new SimpleMeterRegistry(), writeConcern)
+	}
+
+	private List<OutboxEntry.Increment> inserted() {
+		ArgumentCaptor<OutboxEntry> entry = ArgumentCaptor.forClass(OutboxEntry)
+		verify(mongoTemplate).insert(entry.capture())
+		entry.value.increments
+	}
+
+	private static OutboxEntry entry(String id, OutboxEntry.Increment... increments) {
+		OutboxEntry.builder().id(id).increments(increments.toList()).build()
+	}
+
+	private static OutboxEntry.Increment increment(String collection, String documentId, String field, int delta) {
+		new OutboxEntry.Increment(collection, documentId, field, delta)
+	}
+}
@@ -0,0 +1,105 @@
+package com.kostenko.demo.proxy.seller.service
+
+import com.kostenko.demo.proxy.seller.entity.Follow
+import com.kostenko.demo.proxy.seller.entity.OutboxEntry
+import com.kostenko.demo.proxy.seller.repository.FollowRepository
+import com.kostenko.demo.proxy.seller.repository.UserRepository
+import com.mongodb.client.result.DeleteResult
+import com.mongodb.client.result.UpdateResult
+import org.bson.BsonString
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.invocation.InvocationOnMock
+import org.springframework.context.ApplicationEventPublisher
+import org.springframework.data.mongodb.core.MongoTemplate
+import org.springframework.data.mongodb.core.query.Criteria
+import org.springframework.data.mongodb.core.query.Query
+import org.springframework.data.mongodb.core.query.Update
+
+import java.util.function.Consumer
+import java.util.function.Function
+
+import static com.kostenko.demo.proxy.seller.MongoMatchers.entity
+import static org.mockito.ArgumentMatchers.any
+import static org.mockito.ArgumentMatchers.anyInt
+import static org.mockito.ArgumentMatchers.anyString
+import static org.mockito.Mockito.mock
+import static org.mockito.Mockito.times
+import static org.mockito.Mockito.verify
+import static org.mockito.Mockito.verifyNoInteractions
+import static org.mockito.Mockito.when
+
+class FollowServiceTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate)
+	private final CounterOutbox counterOutbox = mock(CounterOutbox)
+	private final ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher)
+	private final CascadeRemover cascadeRemover = mock(CascadeRemover)
+	private final FollowService followService = new FollowService(mock(FollowRepository), mock(UserRepository),
+			mongoTemplate, counterOutbox, eventPublisher, cascadeRemover)
+
+	@BeforeEach
+	void setUp() {
+		when(counterOutbox.increment(any(Class), anyString(), anyString(), anyInt())).thenAnswer { InvocationOnMock invocation ->
+			new OutboxEntry.Increment('user', invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3))
+		}
+	}
+
+	@Test
+	void followingTwiceCountsAndPublishesTheEdgeOnce() {
+		when(mongoTemplate.upsert(any(Query), any(Update), entity(Follow)))
+				.thenReturn(UpdateResult.acknowledged(0, 0, new BsonString(Follow.idOf('a', 'b'))))
+				.thenReturn(UpdateResult.acknowledged(1, 0, null))
+
+		assert followService.follow('a', 'b')
+		assert !followService.follow('a', 'b')
+
+		verify(counterOutbox, times(1)).record(
+				new OutboxEntry.Increment('user', 'a', 'followingCount', 1),
+				new OutboxEntry.Increment('user', 'b', 'followerCount', 1))
+		verify(eventPublisher, times(1)).publishEvent(new FollowEvent('a', 'b', true))
+	}
+
+	@Test
+	void unfollowingRemovesTheEdgeAndDecrementsBothCounters() {
+		when(mongoTemplate.remove(any(Query), entity(Follow))).thenReturn(DeleteResult.acknowledged(1))
+
+		assert followService.unfollow('a', 'b')
+
+		verify(counterOutbox).record(
+				new OutboxEntry.Increment('user', 'a', 'followingCount', -1),
+				new OutboxEntry.Increment('user', 'b', 'followerCount', -1))
+		verify(eventPublisher).publishEvent(new FollowEvent('a', 'b', false))
+	}
+
+	@Test
+	void unfollowingAUserWhoIsNotFollowedIsANoOp() {
+		when(mongoTemplate.remove(any(Query), entity(Follow))).thenReturn(DeleteResult.acknowledged(0))
+
+		assert !followService.unfollow('a', 'b')
+
+		verifyNoInteractions(counterOutbox, eventPublisher)
+	}
+
+	@Test
+	void removingAUserDecrementsTheOtherSideOfEachBatchAndPublishesTheUnfollows() {
+		when(cascadeRemover.removeAll(any(Criteria), entity(Follow), any(Function), any(Consumer))).thenAnswer { InvocationOnMock invocation ->
+			Criteria criteria = invocation.getArgument(0)
+			List<Follow> batch = criteria.criteriaObject.containsKey('followerId')
+					? [new Follow(id: 'u>b', followerId: 'u', followeeId: 'b'), new Follow(id: 'u>c', followerId: 'u', followeeId: 'c')]
+					: [new Follow(id: 'd>u', followerId: 'd', followeeId: 'u')]
+			(invocation.getArgument(3) as Consumer<List<Follow>>).accept(batch)
+			batch.size() as long
+		}
+
+		followService.removeUser('u')
+
+		verify(counterOutbox).record(
+				new OutboxEntry.Increment('user', 'b', 'followerCount', -1),
+				new OutboxEntry.Increment('user', 'c', 'followerCount', -1))
+		verify(counterOutbox).record(new OutboxEntry.Increment('user', 'd', 'followingCount', -1))
+		verify(eventPublisher).publishEvent(new FollowEvent('u', 'b', false))
+		verify(eventPublisher).publishEvent(new FollowEvent('u', 'c', false))
+		verify(eventPublisher).publishEvent(new FollowEvent('d', 'u', false))
+	}
+}
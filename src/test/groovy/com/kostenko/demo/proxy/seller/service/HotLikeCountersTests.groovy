@@ -0,0 +1,151 @@
+package com.kostenko.demo.proxy.seller.service
+
+import com.kostenko.demo.proxy.seller.entity.OutboxEntry
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.invocation.InvocationOnMock
+import org.springframework.test.util.ReflectionTestUtils
+import org.springframework.transaction.support.TransactionSynchronization
+import org.springframework.transaction.support.TransactionSynchronizationManager
+
+import static org.junit.jupiter.api.Assertions.assertThrows
+import static org.mockito.ArgumentMatchers.any
+import static org.mockito.ArgumentMatchers.anyInt
+import static org.mockito.ArgumentMatchers.anyString
+import static org.mockito.Mockito.doThrow
+import static org.mockito.Mockito.mock
+import static org.mockito.Mockito.times
+import static org.mockito.Mockito.verify
+import static org.mockito.Mockito.verifyNoInteractions
+import static org.mockito.Mockito.when
+
+class HotLikeCountersTests {
+
+	private static final long HOT_THRESHOLD = 4
+
+	private final CounterOutbox counterOutbox = mock(CounterOutbox)
+	private final HotLikeCounters hotLikeCounters = new HotLikeCounters(counterOutbox)
+
+	@BeforeEach
+	void setUp() {
+		ReflectionTestUtils.setField(hotLikeCounters, 'hotThreshold', HOT_THRESHOLD)
+		when(counterOutbox.increment(any(Class), anyString(), anyString(), anyInt())).thenAnswer { InvocationOnMock invocation ->
+			new OutboxEntry.Increment('post', invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3))
+		}
+	}
+
+	@Test
+	void changesOfAColdPostAreLeftToTheCaller() {
+		assert !hotLikeCounters.add('p1', 1)
+		assert !hotLikeCounters.isHot('p1')
+		assert hotLikeCounters.pending('p1') == 0
+		assert hotLikeCounters.pending(null) == 0
+	}
+
+	@Test
+	void postLikedAtLeastThresholdTimesPerIntervalKeepsItsChangesInMemory() {
+		promote('p1')
+
+		assert hotLikeCounters.isHot('p1')
+		assert hotLikeCounters.add('p1', 1)
+		assert hotLikeCounters.add('p1', 1)
+		assert hotLikeCounters.add('p1', -1)
+		assert hotLikeCounters.pending('p1') == 1
+		verifyNoInteractions(counterOutbox)
+	}
+
+	@Test
+	void flushRecordsTheSumOfTheChangesOfAHotPost() {
+		promote('p1')
+		3.times { hotLikeCounters.add('p1', 1) }
+
+		hotLikeCounters.flush()
+
+		verify(counterOutbox).record(new OutboxEntry.Increment('post', 'p1', 'likeCount', 3))
+		assert hotLikeCounters.pending('p1') == 0
+		assert hotLikeCounters.isHot('p1')
+	}
+
+	@Test
+	void coolingPostIsDemotedWithItsLastChangesFlushed() {
+		promote('p1')
+		hotLikeCounters.add('p1', 1)
+
+		hotLikeCounters.flush()
+
+		verify(counterOutbox).record(new OutboxEntry.Increment('post', 'p1', 'likeCount', 1))
+		assert !hotLikeCounters.isHot('p1')
+		assert !hotLikeCounters.add('p1', 1)
+		assert hotLikeCounters.pending('p1') == 0
+	}
+
+	@Test
+	void changeOfAHotPostIsKeptOnlyOnceItsTransactionCommits() {
+		promote('p1')
+
+		List<TransactionSynchronization> committed = inTransaction { assert hotLikeCounters.add('p1', 1) }
+		inTransaction { assert hotLikeCounters.add('p1', 1) }.each { it.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK) }
+		assert hotLikeCounters.pending('p1') == 0
+
+		committed.each { it.afterCommit() }
+
+		assert hotLikeCounters.pending('p1') == 1
+		verifyNoInteractions(counterOutbox)
+	}
+
+	@Test
+	void changeCommittedAfterThePostWasDemotedIsRecorded() {
+		promote('p1')
+		List<TransactionSynchronization> committed = inTransaction { assert hotLikeCounters.add('p1', 1) }
+		hotLikeCounters.flush()
+		assert !hotLikeCounters.isHot('p1')
+
+		committed.each { it.afterCommit() }
+
+		verify(counterOutbox).record(new OutboxEntry.Increment('post', 'p1', 'likeCount', 1))
+	}
+
+	@Test
+	void changesWhichCannotBeRecordedAreKeptForTheNextFlush() {
+		promote('p1')
+		HOT_THRESHOLD.times { hotLikeCounters.add('p1', 1) }
+		doThrow(new IllegalStateException()).doNothing().when(counterOutbox).record(any(OutboxEntry.Increment[].class))
+
+		assertThrows(IllegalStateException) { hotLikeCounters.flush() }
+
+		assert hotLikeCounters.pending('p1') == HOT_THRESHOLD
+
+		hotLikeCounters.flush()
+
+		verify(counterOutbox, times(2)).record(new OutboxEntry.Increment('post', 'p1', 'likeCount', (int) HOT_THRESHOLD))
+		assert hotLikeCounters.pending('p1') == 0
+	}
+
+	@Test
+	void zeroThresholdDisablesTheCounters() {
+		ReflectionTestUtils.setField(hotLikeCounters, 'hotThreshold', 0L)
+
+		promote('p1')
+
+		assert !hotLikeCounters.isHot('p1')
+		assert !hotLikeCounters.add('p1', 1)
+	}
+
+	/**
+	 * Runs the body with transaction synchronization active and returns the synchronizations it registered.
+	 */
+	private static List<TransactionSynchronization> inTransaction(Closure body) {
+		TransactionSynchronizationManager.initSynchronization()
+		try {
+			body()
+			return TransactionSynchronizationManager.getSynchronizations()
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization()
+		}
+	}
+
+	private void promote(String postId) {
+		HOT_THRESHOLD.times { hotLikeCounters.add(postId, 1) }
+		hotLikeCounters.flush()
+	}
+}
@@ -0,0 +1,34 @@
+package com.kostenko.demo.proxy.seller.service
+
+import com.kostenko.demo.proxy.seller.dto.UserPageDTO
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.Test
+
+class PageCacheServiceTests {
+
+	private final PageCacheService pageCacheService = new PageCacheService(new SimpleMeterRegistry(), 100, 60)
+
+	@Test
+	void pageIsServedFromTheCacheWhileItsVersionMatches() {
+		int loads = 0
+		Closure<UserPageDTO> loader = { String userId -> loads++; new UserPageDTO(id: userId) }
+
+		UserPageDTO first = pageCacheService.getUserPage('u1', 'v1', loader)
+
+		assert pageCacheService.getUserPage('u1', 'v1', loader).is(first)
+		assert loads == 1
+	}
+
+	@Test
+	void pageIsRebuiltForAnotherVersion() {
+		int loads = 0
+		Closure<UserPageDTO> loader = { String userId -> loads++; new UserPageDTO(id: userId, followerCount: loads) }
+
+		pageCacheService.getUserPage('u1', 'v1', loader)
+		UserPageDTO rebuilt = pageCacheService.getUserPage('u1', 'v2', loader)
+
+		assert rebuilt.followerCount == 2
+		assert pageCacheService.getUserPage('u1', 'v2', loader).is(rebuilt)
+		assert loads == 2
+	}
+}
@@ -0,0 +1,116 @@
+package com.kostenko.demo.proxy.seller.service
+
+import org.bson.Document
+import org.bson.types.ObjectId
+import org.junit.jupiter.api.Test
+import org.springframework.data.domain.Sort
+import org.springframework.data.mongodb.core.query.Criteria
+import org.springframework.data.mongodb.core.query.Query
+
+import java.nio.charset.StandardCharsets
+import java.time.Instant
+
+import static org.junit.jupiter.api.Assertions.assertThrows
+
+class PageCursorTests {
+
+	@Test
+	void encodedCursorDecodesToTheSamePosition() {
+		PageCursor cursor = new PageCursor(Instant.ofEpochMilli(1700000000123L), new ObjectId().toHexString())
+
+		assert PageCursor.decode(cursor.encode()) == cursor
+	}
+
+	@Test
+	void missingCursorDecodesToNull() {
+		assert PageCursor.decode(null) == null
+		assert PageCursor.decode(' ') == null
+	}
+
+	@Test
+	void malformedCursorIsRejected() {
+		String withoutSeparator = Base64.urlEncoder.encodeToString('1700000000123'.getBytes(StandardCharsets.UTF_8))
+
+		assertThrows(IllegalArgumentException) { PageCursor.decode('not a cursor') }
+		assertThrows(IllegalArgumentException) { PageCursor.decode(withoutSeparator) }
+	}
+
+	@Test
+	void sinceDecodesToTheEncodedObjectId() {
+		ObjectId id = new ObjectId()
+
+		PageCursor.Since since = PageCursor.decodeSince(PageCursor.encodeSince([id.toHexString()]))
+
+		assert since.latest() == id
+		assert since.seenIds() == [id.toHexString()] as Set
+	}
+
+	@Test
+	void sinceKeepsTheIdsDeliveredWithinTheOverlapWindowOfTheNewest() {
+		ObjectId newest = new ObjectId(new Date(1700000100000L))
+		ObjectId withinWindow = new ObjectId(new Date((1700000100L - PageCursor.SINCE_OVERLAP_SECONDS) * 1000))
+		ObjectId beforeWindow = new ObjectId(new Date((1700000099L - PageCursor.SINCE_OVERLAP_SECONDS) * 1000))
+
+		PageCursor.Since since = PageCursor.decodeSince(PageCursor.encodeSince(
+				[withinWindow.toHexString(), beforeWindow.toHexString(), newest.toHexString()]))
+
+		assert since.latest() == newest
+		assert since.seenIds() == [newest.toHexString(), withinWindow.toHexString()] as Set
+		assert since.overlapStart().timestamp == 1700000100 - PageCursor.SINCE_OVERLAP_SECONDS
+		assert since.overlapStart() < withinWindow
+	}
+
+	@Test
+	void sinceOfAnEarlierVersionHoldingASingleObjectIdIsAccepted() {
+		ObjectId id = new ObjectId()
+		String earlier = Base64.urlEncoder.withoutPadding().encodeToString(id.toHexString().getBytes(StandardCharsets.UTF_8))
+
+		assert PageCursor.decodeSince(earlier).latest() == id
+	}
+
+	@Test
+	void legacyPageCursorAsSinceContinuesFromTheFirstObjectIdOfItsSecond() {
+		String legacy = new PageCursor(Instant.ofEpochSecond(1700000000L, 500_000_000L), 'any').encode()
+
+		PageCursor.Since since = PageCursor.decodeSince(legacy)
+
+		assert since.latest().timestamp == 1700000000
+		assert since.latest().toHexString().endsWith('0' * 16)
+		assert since.seenIds().isEmpty()
+	}
+
+	@Test
+	void malformedSinceIsRejected() {
+		assertThrows(IllegalArgumentException) { PageCursor.decodeSince('%%%') }
+	}
+
+	@Test
+	void pageSizeDefaultsAndIsBounded() {
+		assert PageCursor.pageSize(null) == PageCursor.DEFAULT_PAGE_SIZE
+		assert PageCursor.pageSize(PageCursor.MAX_PAGE_SIZE) == PageCursor.MAX_PAGE_SIZE
+		assertThrows(IllegalArgumentException) { PageCursor.pageSize(0) }
+		assertThrows(IllegalArgumentException) { PageCursor.pageSize(PageCursor.MAX_PAGE_SIZE + 1) }
+	}
+
+	@Test
+	void firstPageIsReadNewestFirstWithOneExtraDocument() {
+		Query query = PageCursor.pageQuery(Criteria.where('ownerId').is('u1'), null, Sort.Direction.DESC, 10)
+
+		assert query.limit == 11
+		assert query.sortObject == new Document('createdAt', -1).append('_id', -1)
+		assert query.queryObject == new Document('ownerId', 'u1')
+	}
+
+	@Test
+	void nextPageStartsAfterTheCursorIncludingTiesOfItsMillisecond() {
+		Instant createdAt = Instant.ofEpochMilli(1700000000123L)
+		PageCursor cursor = new PageCursor(createdAt, 'r5')
+
+		Query query = PageCursor.pageQuery(Criteria.where('ownerId').is('u1'), cursor, Sort.Direction.DESC, 10, 'referenceId')
+
+		assert query.sortObject == new Document('createdAt', -1).append('referenceId', -1)
+		assert query.queryObject.get('$or') == [
+				new Document('createdAt', new Document('$lt', createdAt)),
+				new Document('createdAt', createdAt).append('referenceId', new Document('$lt', 'r5'))]
+	}
+}